@@ -0,0 +1,47 @@
+#!/bin/bash
+# Run the JMH microbenchmarks and keep the results for comparison
+#
+# Usage: benchmarks/run-benchmarks.sh [benchmark regex]
+#   e.g. benchmarks/run-benchmarks.sh HashRing
+#
+# DataStore benchmarks are run once per thread count in THREADS.
+# Results are written as JSON to benchmarks/results/<timestamp>/, so two runs
+# (e.g. before and after a change) can be compared side by side.
+
+FILTER="${1:-.*}"
+THREADS="${THREADS:-1 2 4 8}"
+
+BENCH_DIR="$(cd "$(dirname "$0")" && pwd)"
+PROJECT_DIR="$(dirname "$BENCH_DIR")"
+RESULTS="$BENCH_DIR/results/$(date +%Y%m%d-%H%M%S)"
+
+echo "========================================="
+echo "Running Benchmarks"
+echo "========================================="
+echo "Filter: $FILTER"
+echo "Results: $RESULTS"
+echo "========================================="
+echo ""
+
+# The benchmarks depend on the store's jar in the local Maven repository
+(cd "$PROJECT_DIR" && mvn -q -B install -DskipTests) || { echo "❌ Build of the store failed!"; exit 1; }
+(cd "$BENCH_DIR" && mvn -q -B package) || { echo "❌ Build of the benchmarks failed!"; exit 1; }
+
+mkdir -p "$RESULTS"
+JAR="$BENCH_DIR/target/benchmarks.jar"
+
+# Single-threaded and fixed-thread benchmarks
+java -jar "$JAR" "$FILTER" -e "DataStoreBenchmark" -rf json -rff "$RESULTS/benchmarks.json"
+
+# DataStore at each thread count
+if echo "DataStoreBenchmark" | grep -Eq "$FILTER"; then
+    for t in $THREADS; do
+        echo ""
+        echo "DataStore with $t thread(s)"
+        java -jar "$JAR" "DataStoreBenchmark\.(get|put|update)$" -t "$t" -rf json -rff "$RESULTS/datastore-t$t.json"
+    done
+    java -jar "$JAR" "DataStoreBenchmark\.mixed" -rf json -rff "$RESULTS/datastore-mixed.json"
+fi
+
+echo ""
+echo "✓ Results written to $RESULTS"
@@ -0,0 +1,63 @@
+package com.kvstore.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deterministic inputs for the benchmarks
+ * Everything is generated from fixed seeds so that runs on different
+ * builds measure exactly the same work.
+ */
+final class BenchmarkData {
+    static final long SEED = 0x5EED_CAFEL;
+
+    private static final AtomicInteger threadIds = new AtomicInteger();
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Distinct keys of the form "key:<n>" padded with letters to the given length
+     */
+    static String[] keys(int count, int length) {
+        Random random = new Random(SEED);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder key = new StringBuilder("key:").append(i).append(':');
+            while (key.length() < length) {
+                key.append((char) ('a' + random.nextInt(26)));
+            }
+            keys[i] = key.toString();
+        }
+        return keys;
+    }
+
+    static String value(int length) {
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        return value.toString();
+    }
+
+    /**
+     * Skewed sequence of indexes into [0, range): low indexes are drawn far
+     * more often, like the hot keys of a real workload
+     */
+    static int[] skewedIndexes(int count, int range, long seed) {
+        Random random = new Random(seed);
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            double u = random.nextDouble();
+            indexes[i] = (int) (range * u * u * u);
+        }
+        return indexes;
+    }
+
+    /**
+     * Seed for a per-thread state: distinct per thread, the same on every run
+     */
+    static long threadSeed() {
+        return SEED + threadIds.incrementAndGet();
+    }
+}
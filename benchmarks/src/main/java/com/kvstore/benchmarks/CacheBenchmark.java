@@ -0,0 +1,79 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.common.ConcurrentCache;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Coordinator cache (ConcurrentCache, which replaced the LRUCache) under contention
+ * Keys are drawn with a skew from a keyspace four times the cache size, so
+ * reads mix hits and misses and writes keep the eviction policy busy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dkvstore.log.level=warn"})
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    private static final int SEQUENCE = 65536; // Power of two
+
+    @Param({"1000", "100000"})
+    public int maxEntries;
+
+    private ConcurrentCache<String, String> cache;
+    private String[] keys;
+    private String value;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int[] indexes;
+        int next;
+
+        @Setup
+        public void setUp(CacheBenchmark benchmark) {
+            indexes = BenchmarkData.skewedIndexes(SEQUENCE, benchmark.keys.length, BenchmarkData.threadSeed());
+        }
+
+        String nextKey(String[] keys) {
+            return keys[indexes[next++ & (SEQUENCE - 1)]];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        cache = new ConcurrentCache<>(maxEntries);
+        keys = BenchmarkData.keys(maxEntries * 4, 16);
+        value = BenchmarkData.value(64);
+        int[] warm = BenchmarkData.skewedIndexes(maxEntries * 8, keys.length, BenchmarkData.SEED);
+        for (int index : warm) {
+            cache.put(keys[index], value);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String get(Cursor cursor) {
+        return cache.get(cursor.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void put(Cursor cursor) {
+        cache.put(cursor.nextKey(keys), value);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public String mixedGet(Cursor cursor) {
+        return cache.get(cursor.nextKey(keys));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedPut(Cursor cursor) {
+        cache.put(cursor.nextKey(keys), value);
+    }
+}
@@ -0,0 +1,43 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.common.ConsistentHash;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Key hashing: MurmurHash3 (64-bit ring) against the legacy 31-slot hash
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dkvstore.log.level=warn"})
+@State(Scope.Thread)
+public class ConsistentHashBenchmark {
+    private static final int KEYS = 1024; // Power of two
+
+    @Param({"8", "32", "128"})
+    public int keyLength;
+
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        keys = BenchmarkData.keys(KEYS, keyLength);
+    }
+
+    private String nextKey() {
+        return keys[next++ & (KEYS - 1)];
+    }
+
+    @Benchmark
+    public long murmur3() {
+        return ConsistentHash.hash(nextKey());
+    }
+
+    @Benchmark
+    public int legacy() {
+        return ConsistentHash.legacyHash(nextKey());
+    }
+}
@@ -0,0 +1,85 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.common.ReplicaTable;
+import com.kvstore.slave.DataStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Slave DataStore operations on the in-memory engine (no write-ahead log)
+ * Thread counts are chosen on the command line (-t), see run-benchmarks.sh;
+ * "mixed" runs three readers per writer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dkvstore.log.level=warn"})
+@State(Scope.Benchmark)
+public class DataStoreBenchmark {
+    private static final int SEQUENCE = 65536; // Power of two
+    private static final String TABLE = ReplicaTable.name(0);
+
+    @Param({"100000"})
+    public int keyCount;
+
+    private DataStore dataStore;
+    private String[] keys;
+    private String value;
+    private final AtomicLong versions = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int[] indexes;
+        int next;
+
+        @Setup
+        public void setUp(DataStoreBenchmark benchmark) {
+            indexes = BenchmarkData.skewedIndexes(SEQUENCE, benchmark.keys.length, BenchmarkData.threadSeed());
+        }
+
+        String nextKey(String[] keys) {
+            return keys[indexes[next++ & (SEQUENCE - 1)]];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        dataStore = new DataStore();
+        keys = BenchmarkData.keys(keyCount, 16);
+        value = BenchmarkData.value(64);
+        for (String key : keys) {
+            dataStore.put(key, value, versions.incrementAndGet(), TABLE);
+        }
+    }
+
+    @Benchmark
+    public String get(Cursor cursor) {
+        return dataStore.get(cursor.nextKey(keys), TABLE);
+    }
+
+    @Benchmark
+    public void put(Cursor cursor) {
+        dataStore.put(cursor.nextKey(keys), value, versions.incrementAndGet(), TABLE);
+    }
+
+    @Benchmark
+    public boolean update(Cursor cursor) {
+        return dataStore.update(cursor.nextKey(keys), value, versions.incrementAndGet(), TABLE);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public String mixedGet(Cursor cursor) {
+        return dataStore.get(cursor.nextKey(keys), TABLE);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedPut(Cursor cursor) {
+        dataStore.put(cursor.nextKey(keys), value, versions.incrementAndGet(), TABLE);
+    }
+}
@@ -0,0 +1,77 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.common.ConsistentHash;
+import com.kvstore.common.HashRing;
+import com.kvstore.common.ServerNode;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Ring lookups and membership changes at different ring sizes
+ * Each server holds VNODES positions, so the rings have 32, 512 and 8192
+ * positions. Lookups read the published snapshot; insert/delete rebuild it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dkvstore.log.level=warn"})
+@State(Scope.Thread)
+public class HashRingBenchmark {
+    private static final int VNODES = 8;
+    private static final int HASHES = 4096; // Power of two
+
+    @Param({"4", "64", "1024"})
+    public int servers;
+
+    private HashRing ring;
+    private long[] hashes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ring = new HashRing(VNODES, ConsistentHash.Algorithm.MURMUR3);
+        for (int i = 0; i < servers; i++) {
+            ring.addServer("10.0." + (i >> 8) + "." + (i & 0xFF) + ":8081", 1);
+        }
+        Random random = new Random(BenchmarkData.SEED);
+        hashes = new long[HASHES];
+        for (int i = 0; i < HASHES; i++) {
+            hashes[i] = random.nextLong();
+        }
+    }
+
+    private long nextHash() {
+        return hashes[next++ & (HASHES - 1)];
+    }
+
+    @Benchmark
+    public ServerNode getSuccessor() {
+        return ring.getSuccessor(nextHash());
+    }
+
+    @Benchmark
+    public ServerNode getPredecessor() {
+        return ring.getPredecessor(nextHash());
+    }
+
+    @Benchmark
+    public List<ServerNode> getPreferenceList() {
+        return ring.getPreferenceList(nextHash(), 2);
+    }
+
+    /**
+     * Add a position and remove it again (keeps the ring size constant)
+     */
+    @Benchmark
+    public boolean insertDelete() {
+        long position = nextHash();
+        boolean inserted = ring.insert(position, "10.1.0.1:8081");
+        if (inserted) {
+            ring.delete(position);
+        }
+        return inserted;
+    }
+}
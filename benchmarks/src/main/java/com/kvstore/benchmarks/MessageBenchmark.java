@@ -0,0 +1,67 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.common.Message;
+import com.kvstore.common.MessageCodec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Message encoding and decoding in both wire formats
+ * "request" is a single put, "batch" an mput of 100 keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Dkvstore.log.level=warn"})
+@State(Scope.Thread)
+public class MessageBenchmark {
+    private static final int BATCH_KEYS = 100;
+
+    @Param({"request", "batch"})
+    public String shape;
+
+    private Message message;
+    private byte[] frame;
+    private String json;
+
+    @Setup
+    public void setUp() {
+        String value = BenchmarkData.value(64);
+        if ("batch".equals(shape)) {
+            List<Message> items = new ArrayList<>(BATCH_KEYS);
+            for (String key : BenchmarkData.keys(BATCH_KEYS, 16)) {
+                items.add(Message.request("put", key, value));
+            }
+            message = new Message().setReqType("mput").setItems(items);
+        } else {
+            message = Message.request("put", BenchmarkData.keys(1, 16)[0], value);
+        }
+        message.setRequestId(42);
+        frame = MessageCodec.encode(message);
+        json = message.toString();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return MessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decodeBinary() throws IOException {
+        return MessageCodec.decode(frame, 4, frame.length - 4);
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return message.toString();
+    }
+
+    @Benchmark
+    public Message decodeJson() {
+        return new Message(json);
+    }
+}
@@ -6,4 +6,4 @@ echo "Starting Client"
 echo "========================================="
 echo ""
 
-java -jar target/client.jar
+java $JAVA_OPTS -jar target/client.jar
@@ -12,4 +12,4 @@ echo "Port: $PORT"
 echo "========================================="
 echo ""
 
-java -jar target/coordinator.jar "$IP" "$PORT"
+java $JAVA_OPTS -jar target/coordinator.jar "$IP" "$PORT"
@@ -2,48 +2,27 @@ package com.kvstore.client;
 
 import com.kvstore.common.Message;
 import java.io.*;
-import java.net.Socket;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
- * Client for accessing the distributed key-value store
- * Connects to Coordination Server to perform operations
+ * Interactive client for the distributed key-value store
+ * A thin command-line wrapper over KvStoreClient; finds the Coordination
+ * Server through cs_config.txt
  */
 public class Client {
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private String csIP;
-    private int csPort;
+    private KvStoreClient client;
+    private SyncKvStoreClient store;
 
     public void connect() throws IOException {
-        // Load CS configuration
-        Properties props = loadCoordinatorConfig();
-        csIP = props.getProperty("ip");
-        csPort = Integer.parseInt(props.getProperty("port"));
-
-        System.out.println("Connecting to Coordination Server at " + csIP + ":" + csPort);
-
-        // Connect to CS
-        socket = new Socket(csIP, csPort);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
-
-        // Wait for connection acknowledgment
-        String ack = in.readLine();
-        System.out.println("Server: " + ack);
-
-        // Send client identification
-        Message idMsg = new Message().setId("client");
-        out.println(idMsg);
-
-        // Wait for ready signal
-        String ready = in.readLine();
-        System.out.println("Server: " + ready);
+        client = KvStoreClient.fromConfigFile("cs_config.txt", new KvStoreClient.Options());
+        store = client.sync();
 
         System.out.println("\n================================");
-        System.out.println("Connected to Distributed KV Store!");
+        System.out.println("Connected to Distributed KV Store at " + client.getAddress());
         System.out.println("================================\n");
     }
 
@@ -75,17 +54,33 @@ public class Client {
                 continue;
             }
 
+            if ("dump".equalsIgnoreCase(command)) {
+                requestDump();
+                continue;
+            }
+
+            if ("stats".equalsIgnoreCase(command)) {
+                showStats();
+                continue;
+            }
+
             // Process command
             processCommand(command);
         }
 
         scanner.close();
-        socket.close();
+        client.close();
     }
 
     private void processCommand(String command) {
         String[] parts = command.split(":", 3);
 
+        String batchType = parts[0].toLowerCase();
+        if (parts.length >= 2 && ("mget".equals(batchType) || "mput".equals(batchType) || "mdelete".equals(batchType))) {
+            processBatch(batchType, command.substring(command.indexOf(':') + 1));
+            return;
+        }
+
         if (parts.length < 2) {
             System.out.println("Error: Invalid format!");
             System.out.println("Format: <command>:<key>[:<value>]");
@@ -97,95 +92,146 @@ public class Client {
         String value = parts.length > 2 ? parts[2] : "";
 
         try {
-            Message request;
             switch (cmdType) {
                 case "get":
-                    request = Message.request("get", key);
+                    String found = store.get(key);
+                    if (found != null) {
+                        System.out.println("✓ Value for '" + key + "' is: " + found);
+                    } else {
+                        displayStatus(key, "key_error");
+                    }
                     break;
                 case "put":
                     if (value.isEmpty()) {
                         System.out.println("Error: PUT requires a value!");
                         return;
                     }
-                    request = Message.request("put", key, value);
+                    store.put(key, value);
+                    displayStatus(key, "put_success");
                     break;
                 case "update":
                     if (value.isEmpty()) {
                         System.out.println("Error: UPDATE requires a value!");
                         return;
                     }
-                    request = Message.request("update", key, value);
+                    store.update(key, value);
+                    displayStatus(key, "update_success");
                     break;
                 case "delete":
-                    request = Message.request("delete", key);
+                    store.delete(key);
+                    displayStatus(key, "delete_success");
                     break;
                 default:
                     System.out.println("Error: Unknown command '" + cmdType + "'");
-                    return;
             }
+        } catch (KvStoreException e) {
+            displayStatus(key, e.getStatus());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
 
-            // Send request
-            out.println(request);
+    /**
+     * Ask the coordinator to write its ring, cache and filter state to its log
+     */
+    private void requestDump() {
+        try {
+            Message reply = store.send(new Message().setReqType("dump"));
+            System.out.println("dump_written".equals(reply.getMessage())
+                    ? "✓ State written to the coordinator's log" : "✗ Dump failed: " + reply.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
 
-            // Receive response
-            String response = in.readLine();
-            if (response != null) {
-                Message respMsg = new Message(response);
-                displayResponse(cmdType, key, respMsg);
-            } else {
-                System.out.println("Error: No response from server");
+    /**
+     * Print the coordinator's metrics (latencies in microseconds)
+     */
+    private void showStats() {
+        try {
+            Message reply = store.send(new Message().setReqType("stats"));
+            if (!"data".equals(reply.getReqType())) {
+                System.out.println("✗ Stats unavailable: " + reply.getMessage());
+                return;
+            }
+            for (Message metric : reply.getItems()) {
+                System.out.println("  " + metric.getKey() + ": " + metric.getValue());
             }
-
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
         }
     }
 
-    private void displayResponse(String cmdType, String key, Message respMsg) {
-        String reqType = respMsg.getReqType();
-        String message = respMsg.getMessage();
-
-        if ("data".equals(reqType)) {
-            // GET response
-            System.out.println("✓ Value for '" + key + "' is: " + message);
-        } else if ("ack".equals(reqType)) {
-            // Acknowledgment response
-            switch (message) {
-                case "put_success":
-                    System.out.println("✓ PUT successful: " + key);
-                    break;
-                case "update_success":
-                    System.out.println("✓ UPDATE successful: " + key);
-                    break;
-                case "delete_success":
-                    System.out.println("✓ DELETE successful: " + key);
-                    break;
-                case "key_error":
-                    System.out.println("✗ Key not found: " + key);
-                    break;
-                case "no_servers_available":
-                    System.out.println("✗ Error: No slave servers available");
-                    break;
-                case "insufficient_servers":
-                    System.out.println("✗ Error: Insufficient servers for replication");
-                    break;
-                default:
-                    System.out.println("Server response: " + message);
+    /**
+     * Batch commands: mget:k1,k2  mput:k1=v1,k2=v2  mdelete:k1,k2
+     */
+    private void processBatch(String cmdType, String args) {
+        List<String> keys = new ArrayList<>();
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String entry : args.split(",")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if ("mput".equals(cmdType)) {
+                int eq = entry.indexOf('=');
+                if (eq <= 0 || eq == entry.length() - 1) {
+                    System.out.println("Error: MPUT entries must be key=value (got '" + entry + "')");
+                    return;
+                }
+                entries.put(entry.substring(0, eq), entry.substring(eq + 1));
+            } else {
+                keys.add(entry);
+            }
+        }
+        if (keys.isEmpty() && entries.isEmpty()) {
+            System.out.println("Error: No keys given!");
+            return;
+        }
+
+        try {
+            if ("mget".equals(cmdType)) {
+                Map<String, String> values = store.getAll(keys);
+                for (String key : keys) {
+                    if (values.containsKey(key)) {
+                        System.out.println("✓ Value for '" + key + "' is: " + values.get(key));
+                    } else {
+                        displayStatus(key, "key_error");
+                    }
+                }
+            } else {
+                Map<String, String> statuses = "mput".equals(cmdType) ? store.putAll(entries) : store.deleteAll(keys);
+                statuses.forEach(this::displayStatus);
             }
-        } else {
-            System.out.println("Server response: " + respMsg);
+        } catch (KvStoreException e) {
+            displayStatus("", e.getStatus());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
         }
     }
 
-    private Properties loadCoordinatorConfig() throws IOException {
-        Properties props = new Properties();
-        try (BufferedReader reader = new BufferedReader(new FileReader("cs_config.txt"))) {
-            String ip = reader.readLine();
-            String port = reader.readLine();
-            props.setProperty("ip", ip);
-            props.setProperty("port", port);
+    private void displayStatus(String key, String status) {
+        switch (status) {
+            case "put_success":
+                System.out.println("✓ PUT successful: " + key);
+                break;
+            case "update_success":
+                System.out.println("✓ UPDATE successful: " + key);
+                break;
+            case "delete_success":
+                System.out.println("✓ DELETE successful: " + key);
+                break;
+            case "key_error":
+                System.out.println("✗ Key not found: " + key);
+                break;
+            case "no_servers_available":
+                System.out.println("✗ Error: No slave servers available");
+                break;
+            case "insufficient_servers":
+                System.out.println("✗ Error: Insufficient servers for replication");
+                break;
+            default:
+                System.out.println("Server response: " + status);
         }
-        return props;
     }
 
     private void printHelp() {
@@ -198,6 +244,11 @@ public class Client {
         System.out.println("║   get:key          Retrieve data       ║");
         System.out.println("║   update:key:value Modify data         ║");
         System.out.println("║   delete:key       Remove data         ║");
+        System.out.println("║   mget:k1,k2       Retrieve many keys  ║");
+        System.out.println("║   mput:k1=v1,k2=v2 Insert many keys    ║");
+        System.out.println("║   mdelete:k1,k2    Remove many keys    ║");
+        System.out.println("║   stats            Show server metrics ║");
+        System.out.println("║   dump             Log server state    ║");
         System.out.println("║   help             Show this help      ║");
         System.out.println("║   clear            Clear screen        ║");
         System.out.println("║   exit             Exit client         ║");
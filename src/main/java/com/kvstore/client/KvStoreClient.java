@@ -0,0 +1,412 @@
+package com.kvstore.client;
+
+import com.kvstore.common.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Embeddable, asynchronous client for the key-value store
+ * - Every call returns a CompletableFuture; many calls may be outstanding at once
+ * - Requests are pipelined over a small pool of connections to the
+ *   Coordination Server (least loaded connection first, reopened when lost)
+ * - With smart routing (the default), reads go straight to the slaves using
+ *   a copy of the coordinator's ring (see SlaveRouter); writes, and reads the
+ *   slaves cannot answer, go through the coordinator
+ * - A request that fails to reach the coordinator, times out or finds it
+ *   busy is retried with a growing delay; errors reported by the store
+ *   (e.g. put_failed) are not retried and fail with KvStoreException
+ * Use sync() for a blocking facade.
+ *
+ * Retried writes may be applied twice; put, update and delete are idempotent,
+ * but a retried delete can report delete_failed after the first attempt
+ * succeeded.
+ */
+public class KvStoreClient implements Closeable {
+    private final String host;
+    private final int port;
+    private final Options options;
+    private final MultiplexedConnection[] connections;
+    private final ScheduledExecutorService retryScheduler;
+    private final SlaveRouter router; // null without smart routing
+    private volatile boolean closed;
+
+    /**
+     * Timeouts, retries and pool size; defaults come from kvstore.client.* properties
+     */
+    public static final class Options {
+        private int connectTimeoutMs = Config.getInt("client.connectTimeoutMs", 2000);
+        private long requestTimeoutMs = Config.getLong("client.requestTimeoutMs", 5000);
+        private int retries = Config.getInt("client.retries", 2);
+        private long retryBackoffMs = Config.getLong("client.retryBackoffMs", 100);
+        private int connections = Config.getInt("client.connections", 2);
+        private int maxInFlightPerConnection = Config.getInt("client.connectionInFlight", 64);
+        private boolean smartRouting = Config.getBoolean("client.smartRouting", true);
+        private long ringRefreshMs = Config.getLong("client.ringRefreshMs", 30000);
+
+        public Options setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public Options setRequestTimeoutMs(long requestTimeoutMs) {
+            this.requestTimeoutMs = requestTimeoutMs;
+            return this;
+        }
+
+        // Attempts after the first one
+        public Options setRetries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        // Delay before the first retry; doubles for each further one
+        public Options setRetryBackoffMs(long retryBackoffMs) {
+            this.retryBackoffMs = retryBackoffMs;
+            return this;
+        }
+
+        public Options setConnections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        // A further connection is opened once every open one has this many requests outstanding
+        public Options setMaxInFlightPerConnection(int maxInFlightPerConnection) {
+            this.maxInFlightPerConnection = maxInFlightPerConnection;
+            return this;
+        }
+
+        // Read straight from the slaves instead of through the coordinator
+        public Options setSmartRouting(boolean smartRouting) {
+            this.smartRouting = smartRouting;
+            return this;
+        }
+
+        // Fetch the ring this often even without stale_ring replies (0 disables)
+        public Options setRingRefreshMs(long ringRefreshMs) {
+            this.ringRefreshMs = ringRefreshMs;
+            return this;
+        }
+    }
+
+    public KvStoreClient(String host, int port) throws IOException {
+        this(host, port, new Options());
+    }
+
+    /**
+     * Connect to the Coordination Server (the first connection is opened at once)
+     */
+    public KvStoreClient(String host, int port, Options options) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.options = options;
+        this.connections = new MultiplexedConnection[Math.max(1, options.connections)];
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "KvStoreClientRetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            connections[0] = connect();
+        } catch (IOException e) {
+            retryScheduler.shutdownNow();
+            throw e;
+        }
+
+        // Reads use the coordinator until the first ring arrives
+        this.router = options.smartRouting
+                ? new SlaveRouter(this, options.connectTimeoutMs, options.requestTimeoutMs)
+                : null;
+        if (router != null) {
+            router.refresh();
+            if (options.ringRefreshMs > 0) {
+                retryScheduler.scheduleWithFixedDelay(router::refresh,
+                        options.ringRefreshMs, options.ringRefreshMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Connect to the coordinator named in a config file written by it
+     * (cs_config.txt: IP on the first line, port on the second)
+     */
+    public static KvStoreClient fromConfigFile(String path, Options options) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String ip = reader.readLine();
+            String port = reader.readLine();
+            if (ip == null || port == null) {
+                throw new IOException("Incomplete coordinator config in " + path);
+            }
+            return new KvStoreClient(ip.trim(), Integer.parseInt(port.trim()), options);
+        }
+    }
+
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Value of a key; completes with null if the key does not exist
+     */
+    public CompletableFuture<String> get(String key) {
+        CompletableFuture<Message> direct = router != null ? router.get(key) : CompletableFuture.completedFuture(null);
+        return direct.thenCompose(reply -> reply != null
+                ? CompletableFuture.completedFuture(reply)
+                : send(Message.request("get", key))).thenApply(reply -> {
+            if ("data".equals(reply.getReqType())) {
+                return reply.getMessage();
+            }
+            if ("key_error".equals(reply.getMessage())) {
+                return null;
+            }
+            throw new KvStoreException(reply.getMessage());
+        });
+    }
+
+    public CompletableFuture<Void> put(String key, String value) {
+        return send(Message.request("put", key, value)).thenApply(reply -> expect(reply, "put_success"));
+    }
+
+    /**
+     * Change the value of an existing key (fails with update_failed if it does not exist)
+     */
+    public CompletableFuture<Void> update(String key, String value) {
+        return send(Message.request("update", key, value)).thenApply(reply -> expect(reply, "update_success"));
+    }
+
+    /**
+     * Remove a key (fails with delete_failed if it does not exist)
+     */
+    public CompletableFuture<Void> delete(String key) {
+        return send(Message.request("delete", key)).thenApply(reply -> expect(reply, "delete_success"));
+    }
+
+    /**
+     * Values of many keys in one request; keys that do not exist are left out
+     */
+    public CompletableFuture<Map<String, String>> getAll(Collection<String> keys) {
+        CompletableFuture<Map<String, Message>> direct = router != null
+                ? router.getAll(keys)
+                : CompletableFuture.completedFuture(new HashMap<>());
+        return direct.thenCompose(answered -> {
+            List<Message> items = new ArrayList<>();
+            for (String key : keys) {
+                if (!answered.containsKey(key)) {
+                    items.add(Message.request("get", key));
+                }
+            }
+            CompletableFuture<List<Message>> rest = items.isEmpty()
+                    ? CompletableFuture.completedFuture(Collections.emptyList())
+                    : sendBatch("mget", items);
+            return rest.thenApply(replies -> {
+                for (Message item : replies) {
+                    answered.put(item.getKey(), item);
+                }
+                // In the order the keys were asked for
+                Map<String, String> values = new LinkedHashMap<>();
+                for (String key : keys) {
+                    Message item = answered.get(key);
+                    if (item != null && "data".equals(item.getReqType())) {
+                        values.put(key, item.getMessage());
+                    }
+                }
+                return values;
+            });
+        });
+    }
+
+    /**
+     * Store many keys in one request
+     * @return status of each key (put_success, put_failed, ...)
+     */
+    public CompletableFuture<Map<String, String>> putAll(Map<String, String> entries) {
+        List<Message> items = new ArrayList<>(entries.size());
+        entries.forEach((key, value) -> items.add(Message.request("put", key, value)));
+        return sendBatch("mput", items).thenApply(KvStoreClient::statuses);
+    }
+
+    /**
+     * Remove many keys in one request
+     * @return status of each key (delete_success, delete_failed, ...)
+     */
+    public CompletableFuture<Map<String, String>> deleteAll(Collection<String> keys) {
+        List<Message> items = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            items.add(Message.request("delete", key));
+        }
+        return sendBatch("mdelete", items).thenApply(KvStoreClient::statuses);
+    }
+
+    /**
+     * Send a batch as requests small enough for one frame each; keys a full
+     * reply left out (batch_overflow) are asked for again
+     * @return one reply item per request item, in the same order
+     */
+    private CompletableFuture<List<Message>> sendBatch(String reqType, List<Message> items) {
+        List<CompletableFuture<List<Message>>> parts = new ArrayList<>();
+        for (List<Message> part : MessageCodec.splitBatch(items)) {
+            parts.add(send(new Message().setReqType(reqType).setItems(part)).thenCompose(reply -> {
+                List<Message> replies = new ArrayList<>(batchItems(reply));
+                List<Integer> overflow = new ArrayList<>();
+                List<Message> again = new ArrayList<>();
+                for (int j = 0; j < replies.size() && j < part.size(); j++) {
+                    if ("batch_overflow".equals(replies.get(j).getMessage())) {
+                        overflow.add(j);
+                        again.add(part.get(j));
+                    }
+                }
+                if (again.isEmpty()) {
+                    return CompletableFuture.completedFuture(replies);
+                }
+                return sendBatch(reqType, again).thenApply(more -> {
+                    for (int k = 0; k < overflow.size(); k++) {
+                        replies.set(overflow.get(k), more.get(k));
+                    }
+                    return replies;
+                });
+            }));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<Message> replies = new ArrayList<>(items.size());
+            for (CompletableFuture<List<Message>> part : parts) {
+                replies.addAll(part.join());
+            }
+            return replies;
+        });
+    }
+
+    /**
+     * Send a raw request (with timeout and retries) and return the coordinator's reply
+     */
+    public CompletableFuture<Message> send(Message request) {
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        attempt(request, 0, result);
+        return result;
+    }
+
+    /**
+     * Blocking view of this client
+     */
+    public SyncKvStoreClient sync() {
+        return new SyncKvStoreClient(this);
+    }
+
+    private void attempt(Message request, int attempt, CompletableFuture<Message> result) {
+        CompletableFuture<Message> reply;
+        try {
+            reply = acquire().send(request).orTimeout(options.requestTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            reply = new CompletableFuture<>();
+            reply.completeExceptionally(e);
+        }
+
+        reply.whenComplete((response, error) -> {
+            boolean busy = error == null && "server_busy".equals(response.getMessage());
+            if (error == null && !busy) {
+                result.complete(response);
+            } else if (attempt < options.retries && !closed) {
+                long delay = options.retryBackoffMs << Math.min(attempt, 16);
+                retryScheduler.schedule(() -> attempt(request, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+            } else if (busy) {
+                result.completeExceptionally(new KvStoreException("server_busy"));
+            } else {
+                result.completeExceptionally(error instanceof TimeoutException
+                        ? new IOException("Timed out after " + options.requestTimeoutMs + "ms waiting for " + getAddress())
+                        : error);
+            }
+        });
+    }
+
+    /**
+     * Least loaded open connection; opens another one while all are busy and
+     * the pool is not full, or when none is open
+     */
+    private MultiplexedConnection acquire() throws IOException {
+        if (closed) {
+            throw new IOException("Client is closed");
+        }
+        MultiplexedConnection best = null;
+        for (MultiplexedConnection connection : connections) {
+            if (connection != null && connection.isOpen() &&
+                    (best == null || connection.getInFlight() < best.getInFlight())) {
+                best = connection;
+            }
+        }
+        if (best != null && best.getInFlight() < options.maxInFlightPerConnection) {
+            return best;
+        }
+
+        synchronized (connections) {
+            for (int i = 0; i < connections.length; i++) {
+                if (connections[i] == null || !connections[i].isOpen()) {
+                    connections[i] = connect();
+                    return connections[i];
+                }
+            }
+        }
+        if (best == null) {
+            throw new IOException("No connection to " + getAddress());
+        }
+        return best;
+    }
+
+    private MultiplexedConnection connect() throws IOException {
+        return new MultiplexedConnection(host, port, options.connectTimeoutMs,
+                "Coordination Server at " + getAddress(), KvStoreClient::handshake);
+    }
+
+    /**
+     * connected -> identify as a client and propose binary -> ready_to_serve
+     */
+    private static void handshake(MessageChannel channel, String peer) throws IOException {
+        Message ack = channel.read();
+        if (ack == null) {
+            throw new EOFException(peer + " closed the connection");
+        }
+        channel.write(new Message().setId("client").setProto(MessageCodec.preferredProtocol()));
+        Message ready = channel.read();
+        if (ready == null || !"ready_to_serve".equals(ready.getMessage())) {
+            throw new IOException(peer + " refused the client: " + ready);
+        }
+        channel.setBinary(MessageCodec.BINARY.equals(ready.getProto()));
+    }
+
+    private static Void expect(Message reply, String status) {
+        if (!status.equals(reply.getMessage())) {
+            throw new KvStoreException(reply.getMessage());
+        }
+        return null;
+    }
+
+    private static List<Message> batchItems(Message reply) {
+        if (!"batch".equals(reply.getReqType())) {
+            throw new KvStoreException(reply.getMessage());
+        }
+        return reply.getItems();
+    }
+
+    private static Map<String, String> statuses(List<Message> replies) {
+        Map<String, String> statuses = new LinkedHashMap<>();
+        for (Message item : replies) {
+            statuses.put(item.getKey(), item.getMessage());
+        }
+        return statuses;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        retryScheduler.shutdownNow();
+        if (router != null) {
+            router.close();
+        }
+        synchronized (connections) {
+            for (MultiplexedConnection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+}
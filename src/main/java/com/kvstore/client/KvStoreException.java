@@ -0,0 +1,20 @@
+package com.kvstore.client;
+
+/**
+ * The store refused or failed a request; getStatus() is the coordinator's
+ * reply (e.g. put_failed, no_servers_available)
+ */
+public class KvStoreException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    public KvStoreException(String status) {
+        super("Request failed: " + status);
+        this.status = status;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
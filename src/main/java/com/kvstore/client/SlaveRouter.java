@@ -0,0 +1,248 @@
+package com.kvstore.client;
+
+import com.kvstore.common.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Smart routing: reads go straight to the slaves holding a key
+ * The client keeps a copy of the coordinator's ring (fetched with a "ring"
+ * request) and one pipelined connection per slave. Requests carry the epoch
+ * of that copy; a slave that has been told of a newer one answers stale_ring
+ * and the copy is fetched again.
+ *
+ * Writes still go through the coordinator, which versions them, keeps its
+ * cache and key filters in step and replicates them. Whatever the router
+ * cannot answer (no ring yet, stale ring, no replica reachable) completes
+ * with null and is sent to the coordinator instead.
+ */
+final class SlaveRouter {
+    private static final long DOWN_MS = 1000; // Skip a slave this long after it could not be reached
+
+    private final KvStoreClient client;
+    private final int connectTimeoutMs;
+    private final long requestTimeoutMs;
+    private final Map<String, MultiplexedConnection> connections = new ConcurrentHashMap<>();
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+    private final AtomicReference<CompletableFuture<Void>> refreshing = new AtomicReference<>();
+    private volatile Topology topology; // null until fetched, or while the coordinator offers none
+    private volatile boolean closed;
+
+    private static final class Topology {
+        final HashRing ring;
+        final long epoch;
+        final int replicationFactor;
+
+        Topology(HashRing ring, long epoch, int replicationFactor) {
+            this.ring = ring;
+            this.epoch = epoch;
+            this.replicationFactor = replicationFactor;
+        }
+    }
+
+    SlaveRouter(KvStoreClient client, int connectTimeoutMs, long requestTimeoutMs) {
+        this.client = client;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * Fetch the ring from the coordinator; concurrent calls share one fetch
+     * The returned future always completes normally.
+     */
+    CompletableFuture<Void> refresh() {
+        while (true) {
+            CompletableFuture<Void> current = refreshing.get();
+            if (current != null) {
+                return current;
+            }
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            if (refreshing.compareAndSet(null, mine)) {
+                client.send(new Message().setReqType("ring")).whenComplete((reply, error) -> {
+                    if (error == null) {
+                        apply(reply);
+                    }
+                    refreshing.set(null);
+                    mine.complete(null);
+                });
+                return mine;
+            }
+        }
+    }
+
+    private void apply(Message reply) {
+        if (!"data".equals(reply.getReqType())) {
+            // e.g. ring_unavailable while the coordinator migrates keys
+            topology = null;
+            return;
+        }
+        try {
+            HashRing ring = new HashRing(1, ConsistentHash.Algorithm.valueOf(reply.getMessage()));
+            for (Message server : reply.getItems()) {
+                List<Long> positions = new ArrayList<>();
+                for (String position : server.getValue().split(",")) {
+                    positions.add(Long.parseLong(position));
+                }
+                ring.restoreServer(server.getKey(), positions);
+            }
+            Topology current = topology;
+            if (current == null || reply.getEpoch() >= current.epoch) {
+                topology = new Topology(ring, reply.getEpoch(), Integer.parseInt(reply.getValue()));
+            }
+        } catch (IllegalArgumentException e) {
+            topology = null;
+            return;
+        }
+
+        // Drop connections to slaves that left the ring
+        Set<String> members = topology == null ? Collections.emptySet() : topology.ring.getTokens().keySet();
+        connections.entrySet().removeIf(entry -> {
+            if (members.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * Read a key from its replicas, primary first
+     * @return the slave's reply (data or key_error), or null to ask the coordinator
+     */
+    CompletableFuture<Message> get(String key) {
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        Topology current = topology;
+        if (current == null) {
+            result.complete(null);
+            return result;
+        }
+        List<ServerNode> replicas = current.ring.getPreferenceList(current.ring.hash(key), current.replicationFactor);
+        tryReplica(key, current, replicas, 0, result);
+        return result;
+    }
+
+    private void tryReplica(String key, Topology current, List<ServerNode> replicas, int rank,
+                            CompletableFuture<Message> result) {
+        if (rank >= replicas.size()) {
+            result.complete(null);
+            return;
+        }
+        Message request = Message.request("get", key).setTable(ReplicaTable.name(rank)).setEpoch(current.epoch);
+        send(replicas.get(rank), request).whenComplete((reply, error) -> {
+            if (error == null && isAnswer(reply)) {
+                result.complete(reply);
+            } else if (error == null && "stale_ring".equals(reply.getMessage())) {
+                refresh();
+                result.complete(null);
+            } else {
+                // Next replica; off the reader thread, as it may have to connect
+                ForkJoinPool.commonPool().execute(() -> tryReplica(key, current, replicas, rank + 1, result));
+            }
+        });
+    }
+
+    /**
+     * Read many keys with one mget per primary (more if the keys would not
+     * fit a frame), all in parallel
+     * @return replies (data or key_error) of the keys answered; the caller
+     *         asks the coordinator for the others, batch_overflow ones included
+     */
+    CompletableFuture<Map<String, Message>> getAll(Collection<String> keys) {
+        Topology current = topology;
+        if (current == null) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+
+        Map<ServerNode, List<Message>> requests = new LinkedHashMap<>();
+        for (String key : keys) {
+            List<ServerNode> replicas = current.ring.getPreferenceList(current.ring.hash(key), 1);
+            if (!replicas.isEmpty()) {
+                requests.computeIfAbsent(replicas.get(0), server -> new ArrayList<>())
+                        .add(Message.request("get", key).setTable(ReplicaTable.name(0)));
+            }
+        }
+
+        Map<String, Message> answered = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (Map.Entry<ServerNode, List<Message>> entry : requests.entrySet()) {
+            for (List<Message> items : MessageCodec.splitBatch(entry.getValue())) {
+                Message request = new Message().setReqType("mget").setItems(items).setEpoch(current.epoch);
+                pending.add(send(entry.getKey(), request).handle((reply, error) -> {
+                    if (error == null && "stale_ring".equals(reply.getMessage())) {
+                        refresh();
+                    } else if (error == null) {
+                        for (Message item : reply.getItems()) {
+                            if (isAnswer(item)) {
+                                answered.put(item.getKey(), item);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(done -> answered, ForkJoinPool.commonPool());
+    }
+
+    private static boolean isAnswer(Message reply) {
+        return "data".equals(reply.getReqType()) || "key_error".equals(reply.getMessage());
+    }
+
+    private CompletableFuture<Message> send(ServerNode server, Message request) {
+        try {
+            return connection(server).send(request).orTimeout(requestTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            CompletableFuture<Message> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Open connection to a slave; a slave that cannot be reached is skipped for
+     * DOWN_MS and the ring is fetched again, as it may have left
+     */
+    private MultiplexedConnection connection(ServerNode server) throws IOException {
+        String address = server.getAddress();
+        MultiplexedConnection connection = connections.get(address);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        if (closed) {
+            throw new IOException("Client is closed");
+        }
+        Long down = downUntil.get(address);
+        if (down != null && down > System.currentTimeMillis()) {
+            throw new IOException("Slave " + address + " was recently unreachable");
+        }
+
+        synchronized (connections) {
+            connection = connections.get(address);
+            if (connection != null && connection.isOpen()) {
+                return connection;
+            }
+            try {
+                connection = new MultiplexedConnection(server.getIpAddress(), server.getPort(), connectTimeoutMs,
+                        "Slave " + address, MultiplexedConnection.HELLO);
+            } catch (IOException e) {
+                downUntil.put(address, System.currentTimeMillis() + DOWN_MS);
+                refresh();
+                throw e;
+            }
+            downUntil.remove(address);
+            connections.put(address, connection);
+            return connection;
+        }
+    }
+
+    void close() {
+        closed = true;
+        synchronized (connections) {
+            connections.values().forEach(MultiplexedConnection::close);
+            connections.clear();
+        }
+    }
+}
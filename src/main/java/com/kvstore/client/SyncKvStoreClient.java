@@ -0,0 +1,79 @@
+package com.kvstore.client;
+
+import com.kvstore.common.Message;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Blocking facade over KvStoreClient (same connections, timeouts and retries)
+ * Methods throw IOException when the coordinator cannot be reached and
+ * KvStoreException when the store reports an error.
+ */
+public class SyncKvStoreClient {
+    private final KvStoreClient client;
+
+    SyncKvStoreClient(KvStoreClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Value of a key, or null if it does not exist
+     */
+    public String get(String key) throws IOException {
+        return await(client.get(key));
+    }
+
+    public void put(String key, String value) throws IOException {
+        await(client.put(key, value));
+    }
+
+    public void update(String key, String value) throws IOException {
+        await(client.update(key, value));
+    }
+
+    public void delete(String key) throws IOException {
+        await(client.delete(key));
+    }
+
+    public Map<String, String> getAll(Collection<String> keys) throws IOException {
+        return await(client.getAll(keys));
+    }
+
+    public Map<String, String> putAll(Map<String, String> entries) throws IOException {
+        return await(client.putAll(entries));
+    }
+
+    public Map<String, String> deleteAll(Collection<String> keys) throws IOException {
+        return await(client.deleteAll(keys));
+    }
+
+    /**
+     * Send a raw request and return the coordinator's reply
+     */
+    public Message send(Message request) throws IOException {
+        return await(client.send(request));
+    }
+
+    public KvStoreClient async() {
+        return client;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KvStoreException) {
+                throw (KvStoreException) cause;
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the store");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.kvstore.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size Bloom filter over string keys
+ * Answers "definitely absent" or "possibly present"; the false positive rate
+ * is set when the filter is sized. Bit positions come from two halves of one
+ * 64-bit MurmurHash3 value (Kirsch-Mitzenmacher double hashing).
+ * add() and mightContain() may be called concurrently.
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Size a filter for expectedKeys keys at the given false positive rate
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        long n = Math.max(1, expectedKeys);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        this.numBits = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        this.bits = new AtomicLongArray((numBits + 63) / 64);
+    }
+
+    private BloomFilter(AtomicLongArray bits, int numBits, int numHashes) {
+        this.bits = bits;
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+    }
+
+    public void add(String key) {
+        addHash(hash(key));
+    }
+
+    /**
+     * Add a key by its hash(key) value
+     */
+    public void addHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            long mask = 1L << bit;
+            long word;
+            while (((word = bits.get(bit >>> 6)) & mask) == 0 && !bits.compareAndSet(bit >>> 6, word, word | mask)) {
+                // Lost a race with another add to the same word; retry
+            }
+        }
+    }
+
+    /**
+     * False only if the key was never added
+     */
+    public boolean mightContain(String key) {
+        return mightContainHash(hash(key));
+    }
+
+    /**
+     * mightContain() for a precomputed hash(key), so one hash can probe several filters
+     */
+    public boolean mightContainHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * False positive rate implied by the share of bits currently set
+     */
+    public double estimatedFalsePositiveRate() {
+        long set = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            set += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) set / numBits, numHashes);
+    }
+
+    /**
+     * Serialized form: int32 numBits, int32 numHashes, then the bit words
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    public int serializedSize() {
+        return 8 + bits.length() * 8;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(numBits);
+        buffer.putInt(numHashes);
+        for (int i = 0; i < bits.length(); i++) {
+            buffer.putLong(bits.get(i));
+        }
+    }
+
+    public static BloomFilter fromBytes(byte[] data) {
+        return readFrom(ByteBuffer.wrap(data));
+    }
+
+    public static BloomFilter readFrom(ByteBuffer buffer) {
+        int numBits = buffer.getInt();
+        int numHashes = buffer.getInt();
+        if (numBits < 64 || numHashes < 1 || numHashes > 64) {
+            throw new IllegalArgumentException("Invalid bloom filter header");
+        }
+        AtomicLongArray bits = new AtomicLongArray((numBits + 63) / 64);
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, buffer.getLong());
+        }
+        return new BloomFilter(bits, numBits, numHashes);
+    }
+
+    public static long hash(String key) {
+        return ConsistentHash.Algorithm.MURMUR3.hash(key);
+    }
+}
@@ -0,0 +1,372 @@
+package com.kvstore.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Thread-safe bounded cache with W-TinyLFU eviction
+ * - Keys are spread over independently locked segments, so threads touching
+ *   different keys rarely contend
+ * - Each segment keeps a small LRU admission window (1%) in front of a
+ *   segmented LRU main area (probation + protected)
+ * - Entries leaving the window only enter the main area if their estimated
+ *   access frequency beats the entry they would evict; one-off scans therefore
+ *   cannot flush frequently used keys
+ * Bounded by entry count and, optionally, by the total weight of its entries.
+ */
+public class ConcurrentCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    private final Segment[] segments;
+    private final long maxEntries;
+    private final long maxWeight;
+    private final ToLongBiFunction<? super K, ? super V> weigher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ConcurrentCache(long maxEntries) {
+        this(maxEntries, 0, (key, value) -> 1);
+    }
+
+    /**
+     * @param maxEntries largest number of entries kept
+     * @param maxWeight  largest total weight kept (0 for no weight bound)
+     * @param weigher    weight of one entry, e.g. its approximate size in bytes
+     */
+    public ConcurrentCache(long maxEntries, long maxWeight, ToLongBiFunction<? super K, ? super V> weigher) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = Math.max(0, maxWeight);
+        this.weigher = weigher;
+
+        int count = 1;
+        while (count < MAX_SEGMENTS && (long) count * 2 * MIN_SEGMENT_ENTRIES <= this.maxEntries) {
+            count <<= 1;
+        }
+        @SuppressWarnings("unchecked")
+        Segment[] created = (Segment[]) new ConcurrentCache<?, ?>.Segment[count];
+        segments = created;
+        for (int i = 0; i < count; i++) {
+            long entries = (this.maxEntries + count - 1) / count;
+            long weight = this.maxWeight == 0 ? 0 : (this.maxWeight + count - 1) / count;
+            segments[i] = new Segment(entries, weight);
+        }
+    }
+
+    /**
+     * Look up a key; null if it is not cached
+     */
+    public V get(K key) {
+        V value = segmentFor(key).get(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        segmentFor(key).put(key, value, Math.max(1, weigher.applyAsLong(key, value)));
+    }
+
+    /**
+     * Store the entry only if condition(current, value) holds, where current is
+     * the cached value or null; checked atomically with the store
+     * @return true if the entry was stored
+     */
+    public boolean putIf(K key, V value, BiPredicate<? super V, ? super V> condition) {
+        return segmentFor(key).putIf(key, value, Math.max(1, weigher.applyAsLong(key, value)), condition);
+    }
+
+    public V remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Display cache contents (for debugging)
+    public void display() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        StringBuilder dump = new StringBuilder("=== Cache Contents (Size: " + size() + "/" + maxEntries +
+                (maxWeight > 0 ? ", Max weight: " + maxWeight : "") +
+                String.format(", Hit rate: %.1f%%", total == 0 ? 0.0 : 100.0 * hitCount / total) + ") ===");
+        int shown = 0;
+        for (Segment segment : segments) {
+            shown = segment.display(dump, shown);
+        }
+        if (shown == 0) {
+            dump.append("\n  [Empty]");
+        }
+        dump.append("\n=================================================");
+        Log.info(dump.toString());
+    }
+
+    private Segment segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int DISPLAY_LIMIT = 20;
+
+    private final class Node {
+        final K key;
+        V value;
+        long weight;
+        int queue;
+        Node prev, next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked LRU list (head is least recently used)
+     */
+    private final class AccessQueue {
+        final Node sentinel = new Node(null, null, 0);
+        int count;
+
+        AccessQueue() {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        Node first() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        void addLast(Node node) {
+            node.prev = sentinel.prev;
+            node.next = sentinel;
+            sentinel.prev.next = node;
+            sentinel.prev = node;
+            count++;
+        }
+
+        void unlink(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            count--;
+        }
+
+        void moveToEnd(Node node) {
+            unlink(node);
+            addLast(node);
+        }
+    }
+
+    /**
+     * One independently locked part of the cache
+     */
+    private final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<K, Node> entries = new HashMap<>();
+        final AccessQueue window = new AccessQueue();
+        final AccessQueue probation = new AccessQueue();
+        final AccessQueue protectedQueue = new AccessQueue();
+        final FrequencySketch sketch;
+        final long maxEntries;
+        final long maxWeight;
+        final long windowMax;
+        final long protectedMax;
+        long weight;
+
+        Segment(long maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+            this.windowMax = Math.max(1, maxEntries / 100);
+            this.protectedMax = (maxEntries - windowMax) * 8 / 10;
+            this.sketch = new FrequencySketch(maxEntries);
+        }
+
+        V get(K key) {
+            lock.lock();
+            try {
+                sketch.increment(key);
+                Node node = entries.get(key);
+                if (node == null) {
+                    return null;
+                }
+                onAccess(node);
+                return node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, V value, long entryWeight) {
+            lock.lock();
+            try {
+                store(key, value, entryWeight);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean putIf(K key, V value, long entryWeight, BiPredicate<? super V, ? super V> condition) {
+            lock.lock();
+            try {
+                Node node = entries.get(key);
+                if (!condition.test(node == null ? null : node.value, value)) {
+                    return false;
+                }
+                store(key, value, entryWeight);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Caller holds the lock
+        private void store(K key, V value, long entryWeight) {
+            sketch.increment(key);
+            Node node = entries.get(key);
+            if (node != null) {
+                weight += entryWeight - node.weight;
+                node.value = value;
+                node.weight = entryWeight;
+                onAccess(node);
+            } else {
+                node = new Node(key, value, entryWeight);
+                node.queue = WINDOW;
+                entries.put(key, node);
+                window.addLast(node);
+                weight += entryWeight;
+            }
+            evict();
+        }
+
+        V remove(K key) {
+            lock.lock();
+            try {
+                Node node = entries.remove(key);
+                if (node == null) {
+                    return null;
+                }
+                queueOf(node).unlink(node);
+                weight -= node.weight;
+                return node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int display(StringBuilder dump, int shown) {
+            lock.lock();
+            try {
+                for (Node node : entries.values()) {
+                    if (shown == DISPLAY_LIMIT) {
+                        dump.append("\n  ...");
+                        return shown + 1;
+                    }
+                    if (shown > DISPLAY_LIMIT) {
+                        return shown;
+                    }
+                    dump.append("\n  ").append(node.key).append(" = ").append(node.value);
+                    shown++;
+                }
+                return shown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private AccessQueue queueOf(Node node) {
+            return node.queue == WINDOW ? window : node.queue == PROBATION ? probation : protectedQueue;
+        }
+
+        // A hit in probation earns the entry a place in the protected area
+        private void onAccess(Node node) {
+            if (node.queue == PROBATION) {
+                probation.unlink(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                while (protectedQueue.count > protectedMax) {
+                    Node demoted = protectedQueue.first();
+                    protectedQueue.unlink(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            } else {
+                queueOf(node).moveToEnd(node);
+            }
+        }
+
+        private boolean overLimit() {
+            return entries.size() > maxEntries || (maxWeight > 0 && weight > maxWeight);
+        }
+
+        /**
+         * Move window overflow into probation as candidates, then, while over the
+         * limit, evict whichever of candidate and probation's LRU victim is used less
+         */
+        private void evict() {
+            Node candidate = null;
+            while (window.count > windowMax) {
+                Node node = window.first();
+                window.unlink(node);
+                node.queue = PROBATION;
+                probation.addLast(node);
+                if (candidate == null) {
+                    candidate = node;
+                }
+            }
+
+            while (overLimit()) {
+                Node victim = probation.first();
+                if (victim == null) {
+                    victim = protectedQueue.first() != null ? protectedQueue.first() : window.first();
+                } else if (candidate != null && candidate != victim) {
+                    if (sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                        Node rejected = candidate;
+                        candidate = candidate.next == probation.sentinel ? null : candidate.next;
+                        victim = rejected;
+                    }
+                } else if (candidate == victim) {
+                    candidate = candidate.next == probation.sentinel ? null : candidate.next;
+                }
+                entries.remove(victim.key);
+                queueOf(victim).unlink(victim);
+                weight -= victim.weight;
+            }
+        }
+    }
+}
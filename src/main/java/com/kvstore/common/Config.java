@@ -0,0 +1,61 @@
+package com.kvstore.common;
+
+/**
+ * Tunable settings read from JVM system properties
+ * e.g. java -Dkvstore.pool.maxConnections=8 -jar target/coordinator.jar
+ */
+public final class Config {
+    private static final String PREFIX = "kvstore.";
+
+    private Config() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("[CONFIG] Invalid value for " + PREFIX + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("[CONFIG] Invalid value for " + PREFIX + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("[CONFIG] Invalid value for " + PREFIX + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
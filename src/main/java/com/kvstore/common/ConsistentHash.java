@@ -1,19 +1,104 @@
 package com.kvstore.common;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Consistent hashing utility for distributing keys across servers
+ *
+ * Two ring layouts are supported:
+ * - MURMUR3: the full signed 64-bit range, positions from MurmurHash3 (x64, 128-bit
+ *   variant, first half) over the UTF-8 bytes of the key
+ * - LEGACY:  the original 31-slot ring, kept so data placed by older coordinators
+ *   can still be located while it is migrated (kvstore.ring.migrate)
  */
 public class ConsistentHash {
-    private static final int RING_SIZE = 31;
+    private static final int LEGACY_RING_SIZE = 31;
     private static final int MULTIPLIER = 99999989;
+    private static final double FULL_RING = 0x1p64;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    public enum Algorithm {
+        MURMUR3 {
+            @Override
+            public long hash(String s) {
+                return murmur3(s.getBytes(StandardCharsets.UTF_8), 0);
+            }
+
+            @Override
+            public long next(long position) {
+                return position + 1; // Wraps from Long.MAX_VALUE to Long.MIN_VALUE
+            }
+
+            @Override
+            public double arcFraction(long from, long to) {
+                long arc = to - from;
+                // Unsigned distance; 0 means the whole ring (single position)
+                return arc == 0 ? 1.0 : (arc > 0 ? arc : arc + FULL_RING) / FULL_RING;
+            }
+        },
+        LEGACY {
+            @Override
+            public long hash(String s) {
+                return legacyHash(s);
+            }
+
+            @Override
+            public long next(long position) {
+                return (position + 1) % LEGACY_RING_SIZE;
+            }
+
+            @Override
+            public double arcFraction(long from, long to) {
+                long arc = Math.floorMod(to - from, (long) LEGACY_RING_SIZE);
+                return arc == 0 ? 1.0 : (double) arc / LEGACY_RING_SIZE;
+            }
+        };
+
+        /**
+         * Ring position of a key or server address
+         */
+        public abstract long hash(String s);
+
+        /**
+         * Position probed after a collision
+         */
+        public abstract long next(long position);
+
+        /**
+         * Fraction of the ring covered by the arc (from, to]
+         */
+        public abstract double arcFraction(long from, long to);
+    }
+
+    /**
+     * Algorithm selected by kvstore.ring.hash (murmur3 or legacy)
+     */
+    public static Algorithm configured() {
+        String name = Config.getString("ring.hash", "murmur3");
+        try {
+            return Algorithm.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("[CONFIG] Unknown ring hash '" + name + "', using MURMUR3");
+            return Algorithm.MURMUR3;
+        }
+    }
 
     /**
-     * Calculate hash position for a given string
+     * Calculate the 64-bit ring position for a given string
      * @param s String to hash (key or server address)
-     * @return Hash position (0 to RING_SIZE-1)
      */
-    public static int hash(String s) {
-        int j = RING_SIZE;
+    public static long hash(String s) {
+        return Algorithm.MURMUR3.hash(s);
+    }
+
+    /**
+     * Original 31-slot hash
+     * @return Hash position (0 to 30)
+     */
+    public static int legacyHash(String s) {
+        int j = LEGACY_RING_SIZE;
         int hashedVal = 0;
 
         for (int i = 0; i < s.length(); i++) {
@@ -23,7 +108,98 @@ public class ConsistentHash {
         return (hashedVal + j) % j;
     }
 
-    public static int getRingSize() {
-        return RING_SIZE;
+    public static int getLegacyRingSize() {
+        return LEGACY_RING_SIZE;
+    }
+
+    /**
+     * MurmurHash3 x64_128, returning the first 64 bits (h1)
+     */
+    // The tail switch falls through on purpose, as in the reference implementation
+    @SuppressWarnings("fallthrough")
+    static long murmur3(byte[] data, long seed) {
+        int length = data.length;
+        int blocks = length / 16;
+        long h1 = seed;
+        long h2 = seed;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Tail: the last (length % 16) bytes
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        switch (length & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xFF) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xFF) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xFF) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xFF) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xFF) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xFF) << 8;
+            case 9:  k2 ^= data[tail + 8] & 0xFF;
+                     h2 ^= mixK2(k2);
+            case 8:  k1 ^= (long) (data[tail + 7] & 0xFF) << 56;
+            case 7:  k1 ^= (long) (data[tail + 6] & 0xFF) << 48;
+            case 6:  k1 ^= (long) (data[tail + 5] & 0xFF) << 40;
+            case 5:  k1 ^= (long) (data[tail + 4] & 0xFF) << 32;
+            case 4:  k1 ^= (long) (data[tail + 3] & 0xFF) << 24;
+            case 3:  k1 ^= (long) (data[tail + 2] & 0xFF) << 16;
+            case 2:  k1 ^= (long) (data[tail + 1] & 0xFF) << 8;
+            case 1:  k1 ^= data[tail] & 0xFF;
+                     h1 ^= mixK1(k1);
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        return h1 + h2;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return (data[offset] & 0xFFL)
+                | (data[offset + 1] & 0xFFL) << 8
+                | (data[offset + 2] & 0xFFL) << 16
+                | (data[offset + 3] & 0xFFL) << 24
+                | (data[offset + 4] & 0xFFL) << 32
+                | (data[offset + 5] & 0xFFL) << 40
+                | (data[offset + 6] & 0xFFL) << 48
+                | (data[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
     }
 }
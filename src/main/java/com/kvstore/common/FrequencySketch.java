@@ -0,0 +1,87 @@
+package com.kvstore.common;
+
+/**
+ * Approximate access frequency of keys (count-min sketch of 4-bit counters)
+ * Used by ConcurrentCache to decide whether a new key is worth admitting.
+ * Counters are halved every sampleSize increments so old popularity fades.
+ * Not thread-safe: each cache segment owns one and uses it under its lock.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table; // 16 counters per long
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long expectedEntries) {
+        int entries = (int) Math.min(Math.max(expectedEntries, 16), 1 << 24);
+        int size = Integer.highestOneBit(entries - 1) << 1;
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * entries;
+    }
+
+    /**
+     * Estimated number of recent accesses (0 to 15)
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = mix(hash, i);
+            int count = (int) ((table[index(h)] >>> offset(h)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record one access
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = mix(hash, i);
+            int index = index(h);
+            int offset = offset(h);
+            if (((table[index] >>> offset) & 0xF) != 0xF) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    // Halve every counter (aging)
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private long mix(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h ^ (h >>> 32);
+    }
+
+    private int index(long h) {
+        return (int) (h >>> 4) & mask;
+    }
+
+    private int offset(long h) {
+        return ((int) h & 15) << 2;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
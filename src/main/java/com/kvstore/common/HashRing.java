@@ -1,19 +1,114 @@
 package com.kvstore.common;
 
+import java.util.*;
+
 /**
  * AVL Tree-based Hash Ring for consistent hashing
  * Maintains servers in sorted order for efficient lookup
+ * Each physical server owns several ring positions (virtual nodes), proportional
+ * to its capacity weight, so keys spread evenly even with few servers.
+ * Positions are 64-bit (see ConsistentHash.Algorithm); a position already taken
+ * is resolved by probing the following positions.
+ *
+ * The AVL tree is the write side and is only touched under the ring's lock.
+ * Every membership change publishes an immutable Snapshot (sorted positions plus
+ * cached ServerNodes) through a volatile field; routing lookups binary-search the
+ * current snapshot without locking or allocating ServerNodes. Each snapshot
+ * carries an epoch that grows by one with every change.
  */
 public class HashRing {
+    private static final int DEFAULT_VNODES = Config.getInt("ring.vnodes", 8);
+    private static final int MAX_PROBES = 16;
+
     private Node root;
+    private final int vnodesPerWeight;
+    private final ConsistentHash.Algorithm algorithm;
+    private final Map<String, List<Long>> serverTokens = new LinkedHashMap<>();
+    private volatile HashRing migrationSource;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public HashRing() {
+        this(DEFAULT_VNODES, ConsistentHash.configured());
+    }
+
+    public HashRing(int vnodesPerWeight, ConsistentHash.Algorithm algorithm) {
+        this.vnodesPerWeight = Math.max(1, vnodesPerWeight);
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Keep a ring with the original layout (31-slot hash, one position per server)
+     * in step with this one, so keys stored under the old placement can be found
+     * and moved (kvstore.ring.migrate)
+     */
+    public synchronized void enableMigrationFromLegacy() {
+        if (algorithm == ConsistentHash.Algorithm.LEGACY || migrationSource != null) {
+            return;
+        }
+        migrationSource = new HashRing(1, ConsistentHash.Algorithm.LEGACY);
+        for (String address : serverTokens.keySet()) {
+            migrationSource.addServer(address, 1);
+        }
+    }
+
+    /**
+     * Ring describing where keys lived before migration, or null when not migrating
+     */
+    public HashRing getMigrationSource() {
+        return migrationSource;
+    }
+
+    /**
+     * Ring position of a key under this ring's hash algorithm
+     */
+    public long hash(String key) {
+        return algorithm.hash(key);
+    }
+
+    /**
+     * Immutable view of the ring: positions[i] is owned by nodes[i]
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[0], new ServerNode[0], 0, 0);
+
+        final long[] positions;
+        final ServerNode[] nodes;
+        final int serverCount;
+        final long epoch;
+
+        Snapshot(long[] positions, ServerNode[] nodes, int serverCount, long epoch) {
+            this.positions = positions;
+            this.nodes = nodes;
+            this.serverCount = serverCount;
+            this.epoch = epoch;
+        }
+
+        // Index of the first position >= hash, wrapping to 0
+        int successorIndex(long hash) {
+            int index = Arrays.binarySearch(positions, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == positions.length ? 0 : index;
+        }
+
+        // Index of the last position <= hash, wrapping to the end
+        int predecessorIndex(long hash) {
+            int index = Arrays.binarySearch(positions, hash);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index < 0 ? positions.length - 1 : index;
+        }
+    }
 
     private static class Node {
-        int key;
+        long key;
         String address;
         Node left, right;
         int height;
 
-        Node(int key, String address) {
+        Node(long key, String address) {
             this.key = key;
             this.address = address;
             this.height = 1;
@@ -59,14 +154,102 @@ public class HashRing {
     }
 
     /**
-     * Insert a server into the hash ring
+     * Add a physical server with weight * vnodes ring positions
+     * Position i is hash(address) for i = 0 and hash(address#i) after that;
+     * a taken position is probed forward (the legacy ring skips it instead,
+     * reproducing the old placement).
+     * @return number of positions the server received
+     */
+    public synchronized int addServer(String address, int weight) {
+        if (serverTokens.containsKey(address)) {
+            removeServer(address); // Re-registration: place it afresh
+        }
+        int vnodes = Math.max(1, weight) * vnodesPerWeight;
+        int probes = algorithm == ConsistentHash.Algorithm.LEGACY ? 0 : MAX_PROBES;
+        int added = 0;
+        for (int i = 0; i < vnodes; i++) {
+            long position = algorithm.hash(i == 0 ? address : address + "#" + i);
+            for (int probe = 0; probe <= probes; probe++) {
+                if (insertToken(position, address)) {
+                    added++;
+                    break;
+                }
+                position = algorithm.next(position);
+            }
+        }
+        publish();
+        Log.info("Added server " + address + " with " + added + "/" + vnodes + " virtual nodes");
+        if (migrationSource != null) {
+            migrationSource.addServer(address, 1);
+        }
+        return added;
+    }
+
+    /**
+     * Remove a physical server and all of its virtual nodes
+     */
+    public synchronized void removeServer(String address) {
+        if (migrationSource != null) {
+            migrationSource.removeServer(address);
+        }
+        List<Long> tokens = serverTokens.remove(address);
+        if (tokens == null) {
+            return;
+        }
+        for (long position : tokens) {
+            root = deleteNode(root, position);
+        }
+        publish();
+        Log.info("Removed server " + address + " (" + tokens.size() + " virtual nodes)");
+    }
+
+    /**
+     * Place a server at exactly the given positions, replacing any it had
+     * (mirrors a ring built elsewhere, e.g. a client's copy of the coordinator's)
      */
-    public synchronized void insert(int hashPosition, String address) {
-        root = insertNode(root, hashPosition, address);
-        System.out.println("Inserted server at position " + hashPosition + ": " + address);
+    public synchronized void restoreServer(String address, List<Long> positions) {
+        List<Long> tokens = serverTokens.remove(address);
+        if (tokens != null) {
+            for (long position : tokens) {
+                root = deleteNode(root, position);
+            }
+        }
+        for (long position : positions) {
+            insertToken(position, address);
+        }
+        publish();
     }
 
-    private Node insertNode(Node node, int key, String address) {
+    /**
+     * Insert a server into the hash ring at a single position
+     * @return false if the position is already taken
+     */
+    public synchronized boolean insert(long hashPosition, String address) {
+        boolean inserted = insertToken(hashPosition, address);
+        if (inserted) {
+            publish();
+            Log.info("Inserted server at position " + hashPosition + ": " + address);
+        }
+        return inserted;
+    }
+
+    private boolean insertToken(long position, String address) {
+        if (findNode(root, position) != null) {
+            return false;
+        }
+        root = insertNode(root, position, address);
+        serverTokens.computeIfAbsent(address, a -> new ArrayList<>()).add(position);
+        return true;
+    }
+
+    private Node findNode(Node node, long key) {
+        while (node != null && node.key != key) {
+            node = key < node.key ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private Node insertNode(Node node, long key, String address) {
         if (node == null) {
             return new Node(key, address);
         }
@@ -111,12 +294,21 @@ public class HashRing {
     /**
      * Delete a server from the hash ring
      */
-    public synchronized void delete(int hashPosition) {
+    public synchronized void delete(long hashPosition) {
+        Node node = findNode(root, hashPosition);
+        if (node != null) {
+            List<Long> tokens = serverTokens.get(node.address);
+            tokens.remove(Long.valueOf(hashPosition));
+            if (tokens.isEmpty()) {
+                serverTokens.remove(node.address);
+            }
+        }
         root = deleteNode(root, hashPosition);
-        System.out.println("Deleted server at position " + hashPosition);
+        publish();
+        Log.info("Deleted server at position " + hashPosition);
     }
 
-    private Node deleteNode(Node root, int key) {
+    private Node deleteNode(Node root, long key) {
         if (root == null) {
             return root;
         }
@@ -182,107 +374,164 @@ public class HashRing {
         return current;
     }
 
-    private Node maxValueNode(Node node) {
-        Node current = node;
-        while (current.right != null) {
-            current = current.right;
+    /**
+     * Rebuild the read snapshot from the tree and publish it (caller holds the lock)
+     * ServerNodes of positions that did not change are carried over.
+     */
+    private void publish() {
+        List<Node> tokens = new ArrayList<>();
+        collectInOrder(root, tokens);
+
+        Snapshot previous = snapshot;
+        long[] positions = new long[tokens.size()];
+        ServerNode[] nodes = new ServerNode[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            Node token = tokens.get(i);
+            positions[i] = token.key;
+            int old = Arrays.binarySearch(previous.positions, token.key);
+            nodes[i] = old >= 0 && previous.nodes[old].getAddress().equals(token.address)
+                    ? previous.nodes[old]
+                    : new ServerNode(token.key, token.address);
         }
-        return current;
+        snapshot = new Snapshot(positions, nodes, serverTokens.size(), previous.epoch + 1);
     }
 
     /**
      * Find the successor (next server clockwise on the ring) for a given hash
      */
-    public synchronized ServerNode getSuccessor(int hash) {
-        Node successor = findSuccessor(root, hash);
-        if (successor == null) {
-            successor = minValueNode(root);
-        }
-        if (successor == null) {
+    public ServerNode getSuccessor(long hash) {
+        Snapshot current = snapshot;
+        if (current.positions.length == 0) {
             return null;
         }
-        return new ServerNode(successor.key, successor.address);
+        return current.nodes[current.successorIndex(hash)];
     }
 
-    private Node findSuccessor(Node node, int hash) {
-        if (node == null) {
+    /**
+     * Find the predecessor (previous server counter-clockwise on the ring)
+     */
+    public ServerNode getPredecessor(long hash) {
+        Snapshot current = snapshot;
+        if (current.positions.length == 0) {
             return null;
         }
-
-        if (hash < node.key) {
-            Node leftResult = findSuccessor(node.left, hash);
-            return leftResult != null ? leftResult : node;
-        } else if (hash > node.key) {
-            return findSuccessor(node.right, hash);
-        } else {
-            return node;
-        }
+        return current.nodes[current.predecessorIndex(hash)];
     }
 
     /**
-     * Find the predecessor (previous server counter-clockwise on the ring)
+     * Preference list for a key: the next n distinct servers clockwise
+     * starting at the successor of hash (index 0 is the primary)
+     * Returns fewer than n servers when the ring is smaller than n.
      */
-    public synchronized ServerNode getPredecessor(int hash) {
-        Node predecessor = findPredecessor(root, hash);
-        if (predecessor == null) {
-            predecessor = maxValueNode(root);
+    public List<ServerNode> getPreferenceList(long hash, int n) {
+        Snapshot current = snapshot;
+        int wanted = Math.min(n, current.serverCount);
+        List<ServerNode> preferenceList = new ArrayList<>(wanted);
+        if (wanted == 0) {
+            return preferenceList;
         }
-        if (predecessor == null) {
-            return null;
+
+        int start = current.successorIndex(hash);
+        for (int i = 0; i < current.positions.length && preferenceList.size() < wanted; i++) {
+            // Next position clockwise, wrapping around the ring
+            ServerNode candidate = current.nodes[(start + i) % current.positions.length];
+            if (!containsAddress(preferenceList, candidate.getAddress())) {
+                preferenceList.add(candidate);
+            }
         }
-        return new ServerNode(predecessor.key, predecessor.address);
+        return preferenceList;
     }
 
-    private Node findPredecessor(Node node, int hash) {
-        if (node == null) {
-            return null;
+    private static boolean containsAddress(List<ServerNode> servers, String address) {
+        for (ServerNode server : servers) {
+            if (server.getAddress().equals(address)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        if (hash > node.key) {
-            Node rightResult = findPredecessor(node.right, hash);
-            return rightResult != null ? rightResult : node;
-        } else if (hash < node.key) {
-            return findPredecessor(node.left, hash);
-        } else {
-            return node;
+    public ConsistentHash.Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Version of the ring layout; grows with every change
+     */
+    public long getEpoch() {
+        return snapshot.epoch;
+    }
+
+    /**
+     * Positions of every physical server, in ring order
+     */
+    public Map<String, List<Long>> getTokens() {
+        Snapshot current = snapshot;
+        Map<String, List<Long>> tokens = new LinkedHashMap<>();
+        for (ServerNode node : current.nodes) {
+            tokens.computeIfAbsent(node.getAddress(), address -> new ArrayList<>()).add(node.getHashPosition());
         }
+        return tokens;
     }
 
     /**
      * Check if ring is empty
      */
-    public synchronized boolean isEmpty() {
-        return root == null;
+    public boolean isEmpty() {
+        return snapshot.positions.length == 0;
     }
 
     /**
-     * Get server count
+     * Get (physical) server count
      */
-    public synchronized int getServerCount() {
-        return countNodes(root);
+    public int getServerCount() {
+        return snapshot.serverCount;
     }
 
-    private int countNodes(Node node) {
-        if (node == null) {
-            return 0;
-        }
-        return 1 + countNodes(node.left) + countNodes(node.right);
+    /**
+     * Get number of ring positions (virtual nodes)
+     */
+    public int getTokenCount() {
+        return snapshot.positions.length;
     }
 
     /**
-     * Display ring contents (for debugging)
+     * Fraction of the keyspace owned (as primary) by each physical server
+     * Each position owns the arc from the previous position (exclusive) to itself.
      */
-    public synchronized void display() {
-        System.out.println("=== Hash Ring (Servers: " + getServerCount() + ") ===");
-        displayInOrder(root);
-        System.out.println("=============================================");
+    public Map<String, Double> getOwnership() {
+        Snapshot current = snapshot;
+        Map<String, Double> ownership = new TreeMap<>();
+        int count = current.positions.length;
+        for (int i = 0; i < count; i++) {
+            long previous = current.positions[(i - 1 + count) % count];
+            ownership.merge(current.nodes[i].getAddress(),
+                    algorithm.arcFraction(previous, current.positions[i]), Double::sum);
+        }
+        return ownership;
     }
 
-    private void displayInOrder(Node node) {
+    private void collectInOrder(Node node, List<Node> out) {
         if (node != null) {
-            displayInOrder(node.left);
-            System.out.println("  Position " + node.key + ": " + node.address);
-            displayInOrder(node.right);
+            collectInOrder(node.left, out);
+            out.add(node);
+            collectInOrder(node.right, out);
+        }
+    }
+
+    /**
+     * Display ring contents (for debugging)
+     */
+    public void display() {
+        Snapshot current = snapshot;
+        StringBuilder dump = new StringBuilder("=== Hash Ring (" + algorithm + ", Servers: " + current.serverCount +
+                                               ", Positions: " + current.positions.length + ") ===");
+        for (ServerNode node : current.nodes) {
+            dump.append("\n  Position ").append(node.getHashPosition()).append(": ").append(node.getAddress());
         }
+        getOwnership().forEach((address, share) ->
+            dump.append(String.format("\n  %s owns %.1f%% of keys", address, share * 100)));
+        dump.append("\n=============================================");
+        Log.info(dump.toString());
     }
 }
@@ -0,0 +1,257 @@
+package com.kvstore.common;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Leveled, asynchronous logger
+ * Callers only place an entry in a bounded, lock-free ring buffer; a single
+ * daemon thread formats the entries and writes them to stdout (WARN and ERROR
+ * to stderr) in batches. Logging never blocks: when the buffer is full the
+ * entry is dropped and counted, and the count is reported with the next batch.
+ *
+ * Lines read "time LEVEL [thread] message", where messages keep the usual
+ * [TAG] prefix. Per-request detail is logged at DEBUG, which is off by default
+ * (kvstore.log.level = debug | info | warn | error | off).
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final Level LEVEL = parseLevel(Config.getString("log.level", "info"));
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(64, Config.getInt("log.bufferSize", 8192)));
+    private static final long FLUSH_POLL_NANOS = 1_000_000;
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final RingBuffer BUFFER = new RingBuffer(CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean writerIdle;
+    private static final Thread WRITER = startWriter();
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String thread;
+        final String message;
+        final Throwable error;
+
+        Entry(Level level, String message, Throwable error) {
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[CONFIG] Unknown log level '" + name + "', using INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0 && level != Level.OFF;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    /**
+     * Debug line built only when DEBUG is enabled (for messages that are costly to format)
+     */
+    public static void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, message.get(), null);
+        }
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (!BUFFER.offer(new Entry(level, message, error))) {
+            dropped.incrementAndGet();
+        } else if (writerIdle) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    /**
+     * Wait (up to timeoutMs) until everything logged so far has been written,
+     * e.g. before the process exits
+     */
+    public static void flush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long target = BUFFER.produced();
+        while (BUFFER.consumed() < target && System.currentTimeMillis() < deadline && WRITER.isAlive()) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+        }
+    }
+
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static Thread startWriter() {
+        Thread writer = new Thread(Log::drain, "LogWriter");
+        writer.setDaemon(true);
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * Writer loop: everything available goes out in one write per stream
+     * When the buffer is empty the writer parks until a producer wakes it; the
+     * idle flag is set before the final emptiness check, so an entry published
+     * after that check always sees the flag and unparks the writer.
+     */
+    private static void drain() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        while (true) {
+            Entry entry = null;
+            while (out.length() + err.length() < 64 * 1024 && (entry = BUFFER.poll()) != null) {
+                format(entry, entry.level.compareTo(Level.WARN) >= 0 ? err : out);
+            }
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                err.append(TIME.format(Instant.now())).append(" WARN  [LogWriter] [LOG] ")
+                   .append(lost).append(" log lines dropped (buffer full)\n");
+            }
+            if (out.length() > 0) {
+                System.out.print(out);
+                System.out.flush();
+                out.setLength(0);
+            }
+            if (err.length() > 0) {
+                System.err.print(err);
+                System.err.flush();
+                err.setLength(0);
+            }
+            if (entry == null) {
+                writerIdle = true;
+                if (BUFFER.isEmpty()) {
+                    LockSupport.park();
+                }
+                writerIdle = false;
+            }
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder line) {
+        line.append(TIME.format(Instant.ofEpochMilli(entry.time))).append(' ')
+            .append(entry.level.name());
+        for (int pad = entry.level.name().length(); pad < 5; pad++) {
+            line.append(' ');
+        }
+        line.append(" [").append(entry.thread).append("] ").append(entry.message).append('\n');
+        if (entry.error != null) {
+            StringWriter trace = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring (sequence-numbered slots)
+     * A producer claims a slot by advancing the tail with a CAS and publishes
+     * the entry by bumping the slot's sequence; the writer takes slots in order.
+     */
+    private static final class RingBuffer {
+        private final int mask;
+        private final AtomicReferenceArray<Entry> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        RingBuffer(int capacity) {
+            this.mask = capacity - 1;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Entry entry) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long sequence = sequences.get(index);
+                if (sequence < position) {
+                    return false; // Full: the writer has not freed this slot yet
+                }
+                if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, entry);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            }
+        }
+
+        // Writer thread only
+        Entry poll() {
+            long position = head;
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                return null; // Empty, or the producer has not published yet
+            }
+            Entry entry = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, position + mask + 1);
+            head = position + 1;
+            return entry;
+        }
+
+        // Writer thread only; an entry claimed but not yet published counts as absent
+        boolean isEmpty() {
+            long position = head;
+            return sequences.get((int) position & mask) != position + 1;
+        }
+
+        long produced() {
+            return tail.get();
+        }
+
+        long consumed() {
+            return head;
+        }
+    }
+}
@@ -1,19 +1,60 @@
 package com.kvstore.common;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 /**
- * Message wrapper for JSON communication between components
+ * Message exchanged between components
+ * Travels either as a line of JSON or as a binary frame (see MessageCodec);
+ * the format is chosen per connection during the handshake
+ *
+ * Batch requests (mget, mput, mdelete) and their replies carry one item per
+ * key; each item is itself an ordinary single-key request or reply.
  */
 public class Message {
-    private final JSONObject json;
+    private String reqType;
+    private String key;
+    private String value;
+    private String message;
+    private String id;
+    private String table;
+    private String proto;
+    private long requestId;
+    private long version;
+    private long epoch;
+    private List<Message> items;
 
     public Message() {
-        this.json = new JSONObject();
     }
 
+    /**
+     * Parse a JSON encoded message
+     */
     public Message(String jsonString) {
-        this.json = new JSONObject(jsonString);
+        this(new JSONObject(jsonString));
+    }
+
+    private Message(JSONObject json) {
+        this.reqType = json.optString("req_type", null);
+        this.key = json.optString("key", null);
+        this.value = json.optString("value", null);
+        this.message = json.optString("message", null);
+        this.id = json.optString("id", null);
+        this.table = json.optString("table", null);
+        this.proto = json.optString("proto", null);
+        this.requestId = json.optLong("rid", 0L);
+        this.version = json.optLong("ver", 0L);
+        this.epoch = json.optLong("epoch", 0L);
+        JSONArray array = json.optJSONArray("items");
+        if (array != null) {
+            this.items = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                items.add(new Message(array.getJSONObject(i)));
+            }
+        }
     }
 
     // Builder pattern for easy message creation
@@ -42,64 +83,171 @@ public class Message {
                 .setValue(value);
     }
 
+    public static Message ping() {
+        return new Message().setReqType("ping");
+    }
+
+    // Opens a connection to a slave and proposes a wire format
+    public static Message hello(String proto) {
+        return new Message()
+                .setReqType("hello")
+                .setProto(proto);
+    }
+
     // Setters (fluent API)
     public Message setReqType(String reqType) {
-        json.put("req_type", reqType);
+        this.reqType = reqType;
         return this;
     }
 
     public Message setKey(String key) {
-        json.put("key", key);
+        this.key = key;
         return this;
     }
 
     public Message setValue(String value) {
-        json.put("value", value);
+        this.value = value;
         return this;
     }
 
     public Message setMessage(String message) {
-        json.put("message", message);
+        this.message = message;
         return this;
     }
 
     public Message setId(String id) {
-        json.put("id", id);
+        this.id = id;
         return this;
     }
 
     public Message setTable(String table) {
-        json.put("table", table);
+        this.table = table;
+        return this;
+    }
+
+    // Wire format requested/accepted during the handshake ("json" or "binary")
+    public Message setProto(String proto) {
+        this.proto = proto;
+        return this;
+    }
+
+    // Correlates a response with its request on a multiplexed connection
+    public Message setRequestId(long requestId) {
+        this.requestId = requestId;
+        return this;
+    }
+
+    // Version of a stored value (assigned by the coordinator, 0 if unknown)
+    public Message setVersion(long version) {
+        this.version = version;
+        return this;
+    }
+
+    // Ring version the sender routed by (smart clients), or announced by the coordinator
+    public Message setEpoch(long epoch) {
+        this.epoch = epoch;
+        return this;
+    }
+
+    // Per-key requests or replies of a batch
+    public Message setItems(List<Message> items) {
+        this.items = items;
         return this;
     }
 
     // Getters
     public String getReqType() {
-        return json.optString("req_type", "");
+        return reqType == null ? "" : reqType;
     }
 
     public String getKey() {
-        return json.optString("key", "");
+        return key == null ? "" : key;
     }
 
     public String getValue() {
-        return json.optString("value", "");
+        return value == null ? "" : value;
     }
 
     public String getMessage() {
-        return json.optString("message", "");
+        return message == null ? "" : message;
     }
 
     public String getId() {
-        return json.optString("id", "");
+        return id == null ? "" : id;
     }
 
     public String getTable() {
-        return json.optString("table", "");
+        return table == null ? "" : table;
+    }
+
+    public String getProto() {
+        return proto == null ? "" : proto;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public List<Message> getItems() {
+        return items == null ? Collections.emptyList() : items;
+    }
+
+    // Raw accessors for MessageCodec (null when the field is not set)
+    String rawKey() {
+        return key;
+    }
+
+    String rawValue() {
+        return value;
+    }
+
+    String rawMessage() {
+        return message;
+    }
+
+    String rawId() {
+        return id;
+    }
+
+    List<Message> rawItems() {
+        return items;
     }
 
+    /**
+     * JSON encoding, used on JSON connections and for logging
+     */
     @Override
     public String toString() {
-        return json.toString();
+        return toJson().toString();
+    }
+
+    private JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        if (reqType != null) json.put("req_type", reqType);
+        if (key != null) json.put("key", key);
+        if (value != null) json.put("value", value);
+        if (message != null) json.put("message", message);
+        if (id != null) json.put("id", id);
+        if (table != null) json.put("table", table);
+        if (proto != null) json.put("proto", proto);
+        if (requestId != 0L) json.put("rid", requestId);
+        if (version != 0L) json.put("ver", version);
+        if (epoch != 0L) json.put("epoch", epoch);
+        if (items != null) {
+            JSONArray array = new JSONArray();
+            for (Message item : items) {
+                array.put(item.toJson());
+            }
+            json.put("items", array);
+        }
+        return json;
     }
 }
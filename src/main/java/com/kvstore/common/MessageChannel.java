@@ -0,0 +1,96 @@
+package com.kvstore.common;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blocking message transport over a socket
+ * Starts in JSON line mode (used for handshakes) and can be switched to
+ * binary frames once both sides have agreed on it
+ */
+public class MessageChannel implements Closeable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[][] readBuffer = { new byte[512] };
+    private volatile boolean binary;
+
+    public MessageChannel(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Read the next message; returns null when the peer closes the connection
+     * Not thread-safe: use from a single reader thread
+     */
+    public Message read() throws IOException {
+        if (binary) {
+            return MessageCodec.read(in, readBuffer);
+        }
+        String line = readLine();
+        while (line != null && line.isEmpty()) {
+            line = readLine();
+        }
+        return line == null ? null : new Message(line);
+    }
+
+    /**
+     * Write and flush one message; safe to call from several threads
+     */
+    public void write(Message message) throws IOException {
+        synchronized (out) {
+            if (binary) {
+                MessageCodec.write(out, message);
+            } else {
+                out.write(message.toString().getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+            out.flush();
+        }
+    }
+
+    private String readLine() throws IOException {
+        byte[] buffer = readBuffer[0];
+        int length = 0;
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (length == buffer.length) {
+                if (length >= MessageCodec.MAX_FRAME_SIZE) {
+                    throw new IOException("Line exceeds " + MessageCodec.MAX_FRAME_SIZE + " bytes");
+                }
+                byte[] grown = new byte[length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+                readBuffer[0] = grown;
+            }
+            buffer[length++] = (byte) b;
+        }
+        if (b < 0 && length == 0) {
+            return null;
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
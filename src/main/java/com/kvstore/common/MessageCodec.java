@@ -0,0 +1,400 @@
+package com.kvstore.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of Message
+ *
+ * Frame layout (big-endian):
+ *   int32   frame length (bytes that follow)
+ *   byte    protocol version
+ *   byte    opcode (request type)
+ *   byte    field flags (which optional fields follow)
+ *   byte    table flag (-1 none, otherwise the replica rank: 0 own, 1 prev, ...)
+ *   varint  request id
+ *   then, for each flagged string field: varint length + UTF-8 bytes
+ *   varint  value version (if flagged)
+ *   varint  item count, then per item: varint length + item body (if flagged)
+ *   varint  ring epoch (if flagged)
+ * Optional trailing fields come last, so older decoders ignore them.
+ *
+ * Strings are encoded straight into the destination buffer, so encoding
+ * allocates nothing beyond the frame itself.
+ */
+public final class MessageCodec {
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+
+    public static final byte VERSION = 1;
+    public static final int MAX_FRAME_SIZE = Config.getInt("nio.maxFrameBytes", 4 * 1024 * 1024);
+    // Items one batch frame may carry; the other half is headroom for JSON, which encodes larger
+    public static final int MAX_BATCH_BYTES = MAX_FRAME_SIZE / 2;
+
+    // Opcodes
+    private static final byte OP_OTHER = 0;
+    private static final String[] OPCODES = {
+            null, "get", "put", "update", "delete", "ping", "ack", "data", "heartbeat", "hello"
+    };
+
+    // Field flags
+    private static final int F_REQ_TYPE = 1;
+    private static final int F_KEY = 1 << 1;
+    private static final int F_VALUE = 1 << 2;
+    private static final int F_MESSAGE = 1 << 3;
+    private static final int F_ID = 1 << 4;
+    private static final int F_VERSION = 1 << 5;
+    private static final int F_ITEMS = 1 << 6;
+    private static final int F_EPOCH = 1 << 7;
+
+    private static final byte TABLE_NONE = -1;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Wire format this process asks for in handshakes (kvstore.protocol)
+     */
+    public static String preferredProtocol() {
+        return BINARY.equalsIgnoreCase(Config.getString("protocol", BINARY)) ? BINARY : JSON;
+    }
+
+    /**
+     * Server side of the handshake: wire format to use given what the peer asked for
+     */
+    public static String negotiate(String requested) {
+        return BINARY.equals(requested) && BINARY.equals(preferredProtocol()) ? BINARY : JSON;
+    }
+
+    /**
+     * Encode a message as a complete frame, including the length prefix
+     */
+    public static byte[] encode(Message message) {
+        int bodyLength = bodyLength(message);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bodyLength);
+        buffer.putInt(bodyLength);
+        writeBody(message, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Encode a message (with length prefix) into an existing buffer
+     */
+    public static void encode(Message message, ByteBuffer buffer) {
+        buffer.putInt(bodyLength(message));
+        writeBody(message, buffer);
+    }
+
+    /**
+     * Size of the frame body, excluding the 4-byte length prefix
+     */
+    public static int bodyLength(Message message) {
+        int length = 4 + varintLength(message.getRequestId());
+        if (opcode(message.getReqType()) == OP_OTHER && !message.getReqType().isEmpty()) {
+            length += stringLength(message.getReqType());
+        }
+        length += stringLength(message.rawKey());
+        length += stringLength(message.rawValue());
+        length += stringLength(message.rawMessage());
+        length += stringLength(message.rawId());
+        if (message.getVersion() != 0L) {
+            length += varintLength(message.getVersion());
+        }
+        if (message.rawItems() != null) {
+            length += varintLength(message.rawItems().size());
+            for (Message item : message.rawItems()) {
+                length += itemLength(item);
+            }
+        }
+        if (message.getEpoch() != 0L) {
+            length += varintLength(message.getEpoch());
+        }
+        return length;
+    }
+
+    /**
+     * Bytes an item adds to a batch frame (its length prefix included)
+     */
+    public static int itemLength(Message item) {
+        int length = bodyLength(item);
+        return varintLength(length) + length;
+    }
+
+    /**
+     * Cut a batch into consecutive runs of at most MAX_BATCH_BYTES each, so
+     * that no frame outgrows what the peer accepts; an item too large on its
+     * own gets a run to itself
+     */
+    public static List<List<Message>> splitBatch(List<Message> items) {
+        List<List<Message>> parts = new ArrayList<>();
+        int start = 0;
+        int bytes = 0;
+        for (int i = 0; i < items.size(); i++) {
+            int length = itemLength(items.get(i));
+            if (i > start && bytes + length > MAX_BATCH_BYTES) {
+                parts.add(items.subList(start, i));
+                start = i;
+                bytes = 0;
+            }
+            bytes += length;
+        }
+        if (start < items.size()) {
+            parts.add(items.subList(start, items.size()));
+        }
+        return parts;
+    }
+
+    private static void writeBody(Message message, ByteBuffer buffer) {
+        String reqType = message.getReqType();
+        byte opcode = opcode(reqType);
+
+        int flags = 0;
+        if (opcode == OP_OTHER && !reqType.isEmpty()) flags |= F_REQ_TYPE;
+        if (message.rawKey() != null) flags |= F_KEY;
+        if (message.rawValue() != null) flags |= F_VALUE;
+        if (message.rawMessage() != null) flags |= F_MESSAGE;
+        if (message.rawId() != null) flags |= F_ID;
+        if (message.getVersion() != 0L) flags |= F_VERSION;
+        if (message.rawItems() != null) flags |= F_ITEMS;
+        if (message.getEpoch() != 0L) flags |= F_EPOCH;
+
+        buffer.put(VERSION);
+        buffer.put(opcode);
+        buffer.put((byte) flags);
+        buffer.put(tableFlag(message.getTable()));
+        writeVarint(buffer, message.getRequestId());
+
+        if ((flags & F_REQ_TYPE) != 0) writeString(buffer, reqType);
+        if ((flags & F_KEY) != 0) writeString(buffer, message.rawKey());
+        if ((flags & F_VALUE) != 0) writeString(buffer, message.rawValue());
+        if ((flags & F_MESSAGE) != 0) writeString(buffer, message.rawMessage());
+        if ((flags & F_ID) != 0) writeString(buffer, message.rawId());
+        if ((flags & F_VERSION) != 0) writeVarint(buffer, message.getVersion());
+        if ((flags & F_ITEMS) != 0) {
+            writeVarint(buffer, message.rawItems().size());
+            for (Message item : message.rawItems()) {
+                writeVarint(buffer, bodyLength(item));
+                writeBody(item, buffer);
+            }
+        }
+        if ((flags & F_EPOCH) != 0) writeVarint(buffer, message.getEpoch());
+    }
+
+    /**
+     * Decode a frame body (the bytes after the length prefix)
+     */
+    public static Message decode(byte[] frame, int offset, int length) throws ProtocolException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame, offset, length);
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new ProtocolException("Unsupported protocol version " + version);
+            }
+            byte opcode = buffer.get();
+            int flags = buffer.get() & 0xFF;
+            byte table = buffer.get();
+
+            Message message = new Message().setRequestId(readVarint(buffer));
+            if (opcode > OP_OTHER && opcode < OPCODES.length) {
+                message.setReqType(OPCODES[opcode]);
+            } else if (opcode != OP_OTHER) {
+                throw new ProtocolException("Unknown opcode " + opcode);
+            }
+            if (table < TABLE_NONE) {
+                throw new ProtocolException("Invalid table flag " + table);
+            }
+            if (table != TABLE_NONE) {
+                message.setTable(tableName(table));
+            }
+
+            if ((flags & F_REQ_TYPE) != 0) message.setReqType(readString(buffer, frame));
+            if ((flags & F_KEY) != 0) message.setKey(readString(buffer, frame));
+            if ((flags & F_VALUE) != 0) message.setValue(readString(buffer, frame));
+            if ((flags & F_MESSAGE) != 0) message.setMessage(readString(buffer, frame));
+            if ((flags & F_ID) != 0) message.setId(readString(buffer, frame));
+            if ((flags & F_VERSION) != 0) message.setVersion(readVarint(buffer));
+            if ((flags & F_ITEMS) != 0) {
+                int count = (int) readVarint(buffer);
+                if (count < 0 || count > buffer.remaining()) {
+                    throw new ProtocolException("Invalid item count " + count);
+                }
+                List<Message> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int itemLength = (int) readVarint(buffer);
+                    int start = buffer.position();
+                    items.add(decode(frame, start, itemLength));
+                    buffer.position(start + itemLength);
+                }
+                message.setItems(items);
+            }
+            if ((flags & F_EPOCH) != 0) message.setEpoch(readVarint(buffer));
+            return message;
+        } catch (RuntimeException e) {
+            throw new ProtocolException("Malformed frame: " + e);
+        }
+    }
+
+    /**
+     * Read one frame from a stream; returns null at end of stream
+     * @param scratch reusable buffer, replaced by a larger one when needed (scratch[0])
+     */
+    public static Message read(InputStream in, byte[][] scratch) throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) {
+            return null;
+        }
+        int length = (b0 << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+        if (scratch[0].length < length) {
+            scratch[0] = new byte[Math.max(length, scratch[0].length * 2)];
+        }
+        byte[] frame = scratch[0];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(frame, read, length - read);
+            if (n < 0) {
+                throw new ProtocolException("Truncated frame");
+            }
+            read += n;
+        }
+        return decode(frame, 0, length);
+    }
+
+    public static void write(OutputStream out, Message message) throws IOException {
+        out.write(encode(message));
+    }
+
+    /**
+     * True if a datagram/frame is JSON rather than binary
+     */
+    public static boolean looksLikeJson(byte[] data, int offset, int length) {
+        return length > 0 && data[offset] == '{';
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new ProtocolException("Truncated frame header");
+        }
+        return b;
+    }
+
+    private static byte opcode(String reqType) {
+        for (byte i = 1; i < OPCODES.length; i++) {
+            if (OPCODES[i].equals(reqType)) {
+                return i;
+            }
+        }
+        return OP_OTHER;
+    }
+
+    private static byte tableFlag(String table) {
+        return table.isEmpty() ? TABLE_NONE : (byte) ReplicaTable.rank(table);
+    }
+
+    private static String tableName(byte flag) {
+        return ReplicaTable.name(flag);
+    }
+
+    // Variable-length unsigned integers (7 bits per byte)
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 64);
+        return value;
+    }
+
+    // UTF-8 strings written without an intermediate byte[]
+
+    private static int stringLength(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int bytes = utf8Length(s);
+        return varintLength(bytes) + bytes;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void writeString(ByteBuffer buffer, String s) {
+        writeVarint(buffer, utf8Length(s));
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Lone surrogates are written as '?' like String.getBytes would
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] frame) {
+        int length = (int) readVarint(buffer);
+        int start = buffer.position();
+        buffer.position(start + length);
+        return new String(frame, start, length, StandardCharsets.UTF_8);
+    }
+}
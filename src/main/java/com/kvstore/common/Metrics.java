@@ -0,0 +1,111 @@
+package com.kvstore.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics registry of one server: latency histograms, counters and gauges
+ * Components look their histograms and counters up once and record into them
+ * directly (lock-free); gauges are read only when the metrics are reported.
+ * Reported through the "stats" request and, every kvstore.metrics.logIntervalMs,
+ * to the server's log.
+ */
+public class Metrics {
+    private static final long LOG_INTERVAL_MS = Config.getLong("metrics.logIntervalMs", 60000);
+
+    private final String name;
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<?>> gauges = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reporter;
+
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    public LatencyHistogram histogram(String metric) {
+        return histograms.computeIfAbsent(metric, k -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String metric) {
+        return counters.computeIfAbsent(metric, k -> new LongAdder());
+    }
+
+    /**
+     * Register a value computed when the metrics are reported
+     */
+    public void gauge(String metric, Supplier<?> value) {
+        gauges.put(metric, value);
+    }
+
+    /**
+     * Drop every metric under a prefix (e.g. a slave that left the ring)
+     */
+    public void removeAll(String prefix) {
+        histograms.keySet().removeIf(metric -> metric.startsWith(prefix));
+        counters.keySet().removeIf(metric -> metric.startsWith(prefix));
+        gauges.keySet().removeIf(metric -> metric.startsWith(prefix));
+    }
+
+    /**
+     * All metrics by name: histograms as summaries in microseconds
+     */
+    public Map<String, String> values() {
+        Map<String, String> values = new TreeMap<>();
+        histograms.forEach((metric, histogram) -> values.put(metric, histogram.snapshot().toString()));
+        counters.forEach((metric, counter) -> values.put(metric, String.valueOf(counter.sum())));
+        gauges.forEach((metric, gauge) -> {
+            try {
+                values.put(metric, String.valueOf(gauge.get()));
+            } catch (RuntimeException e) {
+                values.put(metric, "error: " + e.getMessage());
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Reply to a "stats" request: one item per metric (key = name, value = reading)
+     */
+    public Message describe() {
+        List<Message> items = new ArrayList<>();
+        values().forEach((metric, value) -> items.add(new Message().setKey(metric).setValue(value)));
+        return Message.data(name).setItems(items);
+    }
+
+    public void display() {
+        StringBuilder dump = new StringBuilder("=== Metrics (" + name + ") ===");
+        values().forEach((metric, value) -> dump.append("\n  ").append(metric).append(": ").append(value));
+        dump.append("\n=============================================");
+        Log.info(dump.toString());
+    }
+
+    /**
+     * Start logging the metrics periodically (unless the interval is 0)
+     */
+    public void start() {
+        if (LOG_INTERVAL_MS <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MetricsReporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::display, LOG_INTERVAL_MS, LOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+}
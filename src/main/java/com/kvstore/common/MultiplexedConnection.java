@@ -0,0 +1,154 @@
+package com.kvstore.common;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived TCP connection that multiplexes many requests over one socket
+ * Every request carries a request id, so the peer can answer in any order;
+ * a dedicated reader thread matches the replies back to the waiting futures
+ * Used by the coordinator's slave pool and by the client library.
+ */
+public class MultiplexedConnection {
+    /**
+     * Exchange run once after connecting, before the reader thread starts;
+     * it may switch the channel to binary frames
+     */
+    @FunctionalInterface
+    public interface Handshake {
+        void perform(MessageChannel channel, String peer) throws IOException;
+    }
+
+    /**
+     * Propose the preferred wire format with a hello; peers that predate the
+     * binary protocol answer with unknown_request and the connection stays JSON
+     */
+    public static final Handshake HELLO = (channel, peer) -> {
+        channel.write(Message.hello(MessageCodec.preferredProtocol()));
+        Message reply = channel.read();
+        if (reply == null) {
+            throw new EOFException(peer + " closed the connection during handshake");
+        }
+        channel.setBinary(MessageCodec.BINARY.equals(reply.getProto()));
+    };
+
+    private final String address;
+    private final String peer;
+    private final Socket socket;
+    private final MessageChannel channel;
+    private final Map<Long, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+
+    /**
+     * @param peer description of the other side for error messages, e.g. "Slave host:port"
+     */
+    public MultiplexedConnection(String host, int port, int connectTimeoutMs, String peer,
+                                 Handshake handshake) throws IOException {
+        this.address = host + ":" + port;
+        this.peer = peer;
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.setKeepAlive(true);
+        this.socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+        this.channel = new MessageChannel(socket);
+
+        socket.setSoTimeout(connectTimeoutMs);
+        try {
+            handshake.perform(channel, peer);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        socket.setSoTimeout(0);
+
+        Thread reader = new Thread(this::readLoop, "ConnectionReader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Send a request and return a future completed by the matching reply
+     */
+    public CompletableFuture<Message> send(Message request) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (!open.get()) {
+            future.completeExceptionally(new IOException("Connection to " + address + " is closed"));
+            return future;
+        }
+
+        long requestId = nextRequestId.incrementAndGet();
+        request.setRequestId(requestId);
+        pending.put(requestId, future);
+        inFlight.incrementAndGet();
+
+        future.whenComplete((reply, error) -> {
+            pending.remove(requestId);
+            inFlight.decrementAndGet();
+        });
+
+        try {
+            channel.write(request);
+        } catch (IOException e) {
+            close(new IOException("Write to " + address + " failed: " + e.getMessage()));
+        }
+        // Connection may have been closed while the request was being registered
+        if (!open.get()) {
+            future.completeExceptionally(new IOException("Connection to " + address + " is closed"));
+        }
+        return future;
+    }
+
+    private void readLoop() {
+        try {
+            Message reply;
+            while ((reply = channel.read()) != null) {
+                CompletableFuture<Message> future = pending.get(reply.getRequestId());
+                if (future != null) {
+                    future.complete(reply);
+                }
+            }
+            close(new EOFException(peer + " closed the connection"));
+        } catch (Exception e) {
+            close(e);
+        }
+    }
+
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void close() {
+        close(new IOException("Connection to " + address + " closed"));
+    }
+
+    private void close(Exception cause) {
+        if (!open.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closing
+        }
+        // Fail every caller still waiting on this socket
+        for (CompletableFuture<Message> future : pending.values()) {
+            future.completeExceptionally(cause);
+        }
+    }
+}
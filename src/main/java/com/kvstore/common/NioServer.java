@@ -0,0 +1,446 @@
+package com.kvstore.common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP server built on selector event loops
+ * - A fixed number of I/O threads, each owning one Selector
+ * - One direct read buffer and one direct write buffer per I/O thread, reused for every socket
+ * - Frames (JSON lines or binary, negotiated by a hello) are decoded on the I/O thread
+ *   and handed to the Handler
+ * Handlers must not block the I/O thread; hand heavy work to a separate executor.
+ */
+public class NioServer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BACKLOG = Config.getInt("nio.backlog", 1024);
+
+    /**
+     * Callback invoked on the I/O thread for each decoded message
+     */
+    public interface Handler {
+        void onMessage(Connection connection, Message message);
+
+        default void onOpen(Connection connection) {
+        }
+
+        default void onClose(Connection connection) {
+        }
+    }
+
+    private final String name;
+    private final Handler handler;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    public NioServer(String name, int ioThreads, Handler handler) {
+        this.name = name;
+        this.handler = handler;
+        this.loops = new EventLoop[Math.max(1, ioThreads)];
+        this.nextLoop = new AtomicInteger();
+    }
+
+    /**
+     * Bind and start the I/O threads, then run the accept loop on the calling thread
+     */
+    public void start(String ipAddress, int port) throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], name + "-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(InetAddress.getByName(ipAddress), port), BACKLOG);
+
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                // Spread connections across the I/O threads
+                loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+            } catch (IOException e) {
+                if (running) {
+                    Log.warn("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.warn("Error closing server channel: " + e.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+    }
+
+    /**
+     * One client socket; send() may be called from any thread
+     */
+    public static class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final Queue<byte[]> writeQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private byte[] frame = new byte[256];
+        private int frameLength;
+        private byte[] pendingWrite;
+        private int pendingOffset;
+        private SelectionKey key;
+        private volatile boolean binary;
+        private volatile boolean readPaused;
+        private volatile Object attachment;
+
+        private Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        public void send(Message message) {
+            byte[] bytes = binary
+                    ? MessageCodec.encode(message)
+                    : (message.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+            writeQueue.add(bytes);
+            // One pending flush task per connection is enough
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.requestFlush(this);
+            }
+        }
+
+        public String getRemoteAddress() {
+            try {
+                return String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+
+        /**
+         * Switch the wire format after a handshake run by the handler itself
+         * (call on the I/O thread, before the peer sends in the new format)
+         */
+        public void setBinary(boolean binary) {
+            this.binary = binary;
+        }
+
+        /**
+         * Stop or resume reading from the socket (flow control); frames already
+         * read are still delivered. May be called from any thread.
+         */
+        public void setReadPaused(boolean paused) {
+            readPaused = paused;
+            loop.execute(() -> loop.updateInterest(this));
+        }
+
+        public boolean isReadPaused() {
+            return readPaused;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        public void close() {
+            loop.execute(() -> loop.close(this));
+        }
+
+        private void append(ByteBuffer src, int length) {
+            if (frameLength + length > frame.length) {
+                byte[] grown = new byte[Math.max(frame.length * 2, frameLength + length)];
+                System.arraycopy(frame, 0, grown, 0, frameLength);
+                frame = grown;
+            }
+            src.get(frame, frameLength, length);
+            frameLength += length;
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean active = true;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    handler.onOpen(connection);
+                } catch (IOException e) {
+                    Log.warn("Error registering connection: " + e.getMessage());
+                }
+            });
+        }
+
+        void requestFlush(Connection connection) {
+            execute(() -> {
+                connection.flushScheduled.set(false);
+                flush(connection);
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void stop() {
+            active = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (active) {
+                try {
+                    selector.select();
+                    runTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.warn("[NIO] Event loop error: " + e.getMessage());
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                close((Connection) key.attachment());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void read(Connection connection) {
+            try {
+                while (true) {
+                    readBuffer.clear();
+                    int n = connection.channel.read(readBuffer);
+                    if (n < 0) {
+                        close(connection);
+                        return;
+                    }
+                    if (n == 0) {
+                        return;
+                    }
+                    readBuffer.flip();
+                    decodeFrames(connection);
+                    if (n < BUFFER_SIZE || connection.readPaused) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+
+        /**
+         * Split the bytes just read into frames: newline-terminated JSON, or
+         * length-prefixed binary once the connection has negotiated it
+         */
+        private void decodeFrames(Connection connection) throws IOException {
+            while (readBuffer.hasRemaining()) {
+                Message message = connection.binary ? decodeBinary(connection) : decodeLine(connection);
+                if (message == null) {
+                    continue;
+                }
+                if ("hello".equals(message.getReqType())) {
+                    negotiateProtocol(connection, message);
+                    continue;
+                }
+                try {
+                    handler.onMessage(connection, message);
+                } catch (Exception e) {
+                    Log.warn("[NIO] Error handling message from " + connection.getRemoteAddress() +
+                             ": " + e.getMessage());
+                }
+            }
+        }
+
+        private Message decodeLine(Connection connection) throws IOException {
+            int start = readBuffer.position();
+            int end = start;
+            int limit = readBuffer.limit();
+            while (end < limit && readBuffer.get(end) != '\n') {
+                end++;
+            }
+
+            connection.append(readBuffer, end - start);
+            if (connection.frameLength > MessageCodec.MAX_FRAME_SIZE) {
+                throw new IOException("Frame exceeds " + MessageCodec.MAX_FRAME_SIZE + " bytes");
+            }
+            if (end == limit) {
+                return null; // Partial frame, wait for more bytes
+            }
+            readBuffer.get(); // Skip '\n'
+
+            int length = connection.frameLength;
+            connection.frameLength = 0;
+            if (length > 0 && connection.frame[length - 1] == '\r') {
+                length--;
+            }
+            if (length == 0) {
+                return null;
+            }
+            String line = new String(connection.frame, 0, length, StandardCharsets.UTF_8);
+            try {
+                return new Message(line);
+            } catch (Exception e) {
+                Log.warn("[NIO] Bad frame from " + connection.getRemoteAddress() + ": " + e.getMessage());
+                connection.send(Message.ack("parse_error"));
+                return null;
+            }
+        }
+
+        private Message decodeBinary(Connection connection) throws IOException {
+            // Length prefix first, then the body it announces
+            if (connection.frameLength < 4) {
+                connection.append(readBuffer, Math.min(4 - connection.frameLength, readBuffer.remaining()));
+                if (connection.frameLength < 4) {
+                    return null;
+                }
+            }
+            byte[] frame = connection.frame;
+            int bodyLength = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16)
+                    | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+            if (bodyLength <= 0 || bodyLength > MessageCodec.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + bodyLength);
+            }
+
+            int missing = 4 + bodyLength - connection.frameLength;
+            connection.append(readBuffer, Math.min(missing, readBuffer.remaining()));
+            if (connection.frameLength < 4 + bodyLength) {
+                return null;
+            }
+            connection.frameLength = 0;
+            return MessageCodec.decode(connection.frame, 4, bodyLength);
+        }
+
+        /**
+         * Answer a hello in JSON, then switch the connection to the agreed format
+         */
+        private void negotiateProtocol(Connection connection, Message hello) {
+            String proto = MessageCodec.negotiate(hello.getProto());
+            connection.send(Message.ack("hello").setProto(proto).setRequestId(hello.getRequestId()));
+            connection.binary = MessageCodec.BINARY.equals(proto);
+        }
+
+        private void flush(Connection connection) {
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+            try {
+                while (true) {
+                    if (connection.pendingWrite == null) {
+                        connection.pendingWrite = connection.writeQueue.poll();
+                        connection.pendingOffset = 0;
+                        if (connection.pendingWrite == null) {
+                            break;
+                        }
+                    }
+
+                    // Stage the next chunk in the shared direct buffer
+                    writeBuffer.clear();
+                    int chunk = Math.min(writeBuffer.capacity(), connection.pendingWrite.length - connection.pendingOffset);
+                    writeBuffer.put(connection.pendingWrite, connection.pendingOffset, chunk);
+                    writeBuffer.flip();
+                    int written = connection.channel.write(writeBuffer);
+                    connection.pendingOffset += written;
+                    if (connection.pendingOffset == connection.pendingWrite.length) {
+                        connection.pendingWrite = null;
+                    }
+                    if (written < chunk) {
+                        // Socket buffer full; resume when writable
+                        connection.key.interestOps(readInterest(connection) | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                connection.key.interestOps(readInterest(connection));
+            } catch (IOException | CancelledKeyException e) {
+                close(connection);
+            }
+        }
+
+        private int readInterest(Connection connection) {
+            return connection.readPaused ? 0 : SelectionKey.OP_READ;
+        }
+
+        void updateInterest(Connection connection) {
+            if (connection.key == null || !connection.key.isValid()) {
+                return;
+            }
+            int ops = readInterest(connection);
+            if (connection.pendingWrite != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            connection.key.interestOps(ops);
+        }
+
+        void close(Connection connection) {
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            handler.onClose(connection);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.kvstore.common;
+
+/**
+ * Names of the replica partitions a slave keeps
+ * Rank 0 ("own") holds keys the slave is primary for, rank 1 ("prev") the keys
+ * it holds the first replica of, rank k ("replica-k") those it holds the k-th
+ * replica of (its position in each key's preference list)
+ */
+public final class ReplicaTable {
+    public static final int MAX_RANK = 126;
+
+    private static final String OWN = "own";
+    private static final String PREV = "prev";
+    private static final String REPLICA_PREFIX = "replica-";
+
+    private ReplicaTable() {
+    }
+
+    public static String name(int rank) {
+        if (rank == 0) {
+            return OWN;
+        }
+        return rank == 1 ? PREV : REPLICA_PREFIX + rank;
+    }
+
+    /**
+     * Parse a table name; unknown names map to rank 1 like the old PREV fallback
+     */
+    public static int rank(String table) {
+        if (OWN.equalsIgnoreCase(table)) {
+            return 0;
+        }
+        if (table != null && table.startsWith(REPLICA_PREFIX)) {
+            try {
+                int rank = Integer.parseInt(table.substring(REPLICA_PREFIX.length()));
+                if (rank >= 0 && rank <= MAX_RANK) {
+                    return rank;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        return 1;
+    }
+}
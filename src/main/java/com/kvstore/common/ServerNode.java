@@ -4,19 +4,19 @@ package com.kvstore.common;
  * Represents a server node in the distributed system
  */
 public class ServerNode {
-    private final int hashPosition;
+    private final long hashPosition;
     private final String ipAddress;
     private final int port;
     private final String address; // ip:port
 
-    public ServerNode(int hashPosition, String ipAddress, int port) {
+    public ServerNode(long hashPosition, String ipAddress, int port) {
         this.hashPosition = hashPosition;
         this.ipAddress = ipAddress;
         this.port = port;
         this.address = ipAddress + ":" + port;
     }
 
-    public ServerNode(int hashPosition, String address) {
+    public ServerNode(long hashPosition, String address) {
         this.hashPosition = hashPosition;
         this.address = address;
         String[] parts = address.split(":");
@@ -24,7 +24,7 @@ public class ServerNode {
         this.port = Integer.parseInt(parts[1]);
     }
 
-    public int getHashPosition() {
+    public long getHashPosition() {
         return hashPosition;
     }
 
@@ -0,0 +1,30 @@
+package com.kvstore.common;
+
+/**
+ * A value together with the version of the write that stored it
+ * Versions are assigned by the coordinator and grow with every write, so of
+ * two copies of a key the one with the higher version is the newer.
+ * Version 0 means unknown (written before versions existed).
+ */
+public final class Versioned {
+    private final String value;
+    private final long version;
+
+    public Versioned(String value, long version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return value + " (v" + version + ")";
+    }
+}
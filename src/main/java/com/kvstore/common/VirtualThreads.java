@@ -0,0 +1,45 @@
+package com.kvstore.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (JDK 21+) from code built for Java 11
+ * The executor factory is looked up by reflection; on older runtimes
+ * isSupported() is false and callers fall back to something else.
+ */
+public final class VirtualThreads {
+    private static final Method NEW_PER_TASK_EXECUTOR = lookup();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Executor starting one virtual thread per task
+     * @throws UnsupportedOperationException on runtimes without virtual threads
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later (running " +
+                                                    System.getProperty("java.version") + ")");
+        }
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads unavailable: " + e, e);
+        }
+    }
+}
@@ -8,31 +8,133 @@ import java.util.concurrent.*;
 /**
  * Coordination Server (Master Node)
  * - Routes client requests to appropriate slave servers
+ * - Hands smart clients a versioned ring map so they can read from slaves directly
  * - Maintains hash ring of slave servers
- * - Caches frequently accessed data (LRU cache)
+ * - Caches frequently accessed data (versioned W-TinyLFU KeyCache)
+ * - Collapses concurrent cache misses for one key into a single slave read
  * - Monitors slave health via heartbeat
+ * - Replicates each key to REPLICATION_FACTOR servers
  * - Handles server failures and data migration
+ *
+ * Connections are served by a virtual thread each (JDK 21+), by NIO event
+ * loops, or by one platform thread each (kvstore.coordinator.mode); the
+ * default picks virtual threads when the runtime has them, NIO otherwise.
  */
 public class CoordinationServer {
     private static final int DEFAULT_PORT = 8080;
-    private static final int CACHE_SIZE = 4;
-    private static final int THREAD_POOL_SIZE = 10;
+    private static final long CACHE_MAX_ENTRIES = Config.getLong("cache.maxEntries", 100000);
+    private static final long CACHE_MAX_BYTES = Config.getLong("cache.maxBytes", 0);
+    private static final String SERVER_MODE = Config.getString("coordinator.mode", "auto"); // auto | virtual | nio | blocking
+    private static final int IO_THREADS = Config.getInt("coordinator.ioThreads", 2);
+    private static final int REQUEST_THREADS = Math.max(1, Config.getInt("coordinator.requestThreads", 512));
+    private static final int REQUEST_QUEUE_SIZE = Math.max(1, Config.getInt("coordinator.requestQueueSize", 10000));
+    static final int REPLICATION_FACTOR = Math.max(1, Config.getInt("replication.factor", 2));
 
     private final String ipAddress;
     private final int port;
+    private final Metrics metrics;
     private final HashRing hashRing;
-    private final LRUCache<String, String> cache;
+    private final KeyCache cache;
+    private final RequestCoalescer<String, Message> coalescer;
+    private final SlaveConnectionPool slavePool;
+    private final SlaveFilters slaveFilters;
+    private final ReplicaWriter replicaWriter;
+    private final RingMap ringMap;
     private final HeartbeatMonitor heartbeatMonitor;
-    private final ExecutorService threadPool;
+    private final RequestProcessor processor;
+    private final String mode;
+    private final ExecutorService threadPool; // One task per connection; null in NIO mode
+    private final ExecutorService requestPool;
     private ServerSocket serverSocket;
+    private NioServer nioServer;
 
     public CoordinationServer(String ipAddress, int port) {
         this.ipAddress = ipAddress;
         this.port = port;
+        this.metrics = new Metrics("coordinator");
         this.hashRing = new HashRing();
-        this.cache = new LRUCache<>(CACHE_SIZE);
-        this.heartbeatMonitor = new HeartbeatMonitor(hashRing);
-        this.threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        if (Config.getBoolean("ring.migrate", false)) {
+            hashRing.enableMigrationFromLegacy();
+        }
+        this.cache = new KeyCache(CACHE_MAX_ENTRIES, CACHE_MAX_BYTES);
+        this.coalescer = new RequestCoalescer<>();
+        this.slavePool = new SlaveConnectionPool(metrics);
+        this.slaveFilters = new SlaveFilters(hashRing, slavePool, REPLICATION_FACTOR);
+        this.replicaWriter = new ReplicaWriter(slavePool, slaveFilters);
+        this.ringMap = new RingMap(hashRing, slavePool, REPLICATION_FACTOR);
+        this.heartbeatMonitor = new HeartbeatMonitor(hashRing, slavePool, ringMap, metrics);
+        this.processor = new RequestProcessor(hashRing, cache, coalescer, slavePool, replicaWriter, slaveFilters, ringMap,
+                                              REPLICATION_FACTOR, metrics);
+        this.mode = resolveMode();
+        if ("virtual".equals(mode)) {
+            // Requests block on slave round trips; a virtual thread each costs next to nothing
+            this.threadPool = VirtualThreads.newPerTaskExecutor();
+            this.requestPool = VirtualThreads.newPerTaskExecutor();
+        } else {
+            this.threadPool = "blocking".equals(mode) ? Executors.newCachedThreadPool() : null;
+            this.requestPool = newBoundedRequestPool();
+        }
+        registerGauges();
+    }
+
+    /**
+     * Request pool without virtual threads: requests block on slave round
+     * trips, so threads are started on demand up to REQUEST_THREADS (and stop
+     * again when idle) rather than kept few; beyond that requests wait in a
+     * bounded queue, and once it is full they are refused and answered
+     * server_busy instead of piling up
+     */
+    private static ExecutorService newBoundedRequestPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REQUEST_QUEUE_SIZE));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Expose the counters the components keep anyway (read only when reported)
+     */
+    private void registerGauges() {
+        metrics.gauge("cache.size", cache::size);
+        metrics.gauge("cache.hits", cache::getHitCount);
+        metrics.gauge("cache.misses", cache::getMissCount);
+        metrics.gauge("cache.hitRatio", () -> {
+            long hits = cache.getHitCount();
+            long total = hits + cache.getMissCount();
+            return String.format("%.3f", total == 0 ? 0.0 : (double) hits / total);
+        });
+        metrics.gauge("cache.negativeHits", cache::getNegativeHitCount);
+        metrics.gauge("coalescer.loads", coalescer::getLoadCount);
+        metrics.gauge("coalescer.collapsed", coalescer::getCollapsedCount);
+        metrics.gauge("coalescer.inFlight", coalescer::getInFlight);
+        metrics.gauge("bloom.definiteMisses", slaveFilters::getDefiniteMisses);
+        metrics.gauge("bloom.falsePositives", slaveFilters::getFalsePositives);
+        metrics.gauge("bloom.falsePositiveRate", () -> String.format("%.4f", slaveFilters.getFalsePositiveRate()));
+        metrics.gauge("ring.servers", hashRing::getServerCount);
+        metrics.gauge("ring.epoch", ringMap::getEpoch);
+        if (requestPool instanceof ThreadPoolExecutor) {
+            metrics.gauge("coordinator.requestQueue", () -> ((ThreadPoolExecutor) requestPool).getQueue().size());
+        }
+    }
+
+    /**
+     * Connection handling mode: virtual threads where available unless configured otherwise
+     */
+    private static String resolveMode() {
+        String configured = SERVER_MODE.toLowerCase();
+        switch (configured) {
+            case "nio":
+            case "blocking":
+                return configured;
+            case "virtual":
+                if (VirtualThreads.isSupported()) {
+                    return configured;
+                }
+                Log.warn("Virtual threads need JDK 21 or later; using NIO mode");
+                return "nio";
+            default:
+                return VirtualThreads.isSupported() ? "virtual" : "nio";
+        }
     }
 
     public void start() throws IOException {
@@ -42,20 +144,51 @@ public class CoordinationServer {
         // Start heartbeat monitor thread
         new Thread(heartbeatMonitor, "HeartbeatMonitor").start();
 
+        // Start fetching the slaves' key filters
+        slaveFilters.start();
+
+        // Log the metrics periodically
+        metrics.start();
+
         // Start timer thread for failure detection
         new Thread(this::timerThread, "TimerThread").start();
 
-        // Create server socket
+        Log.info("================================");
+        Log.info("Coordination Server Started");
+        Log.info("================================");
+        Log.info("IP: " + ipAddress);
+        Log.info("Port: " + port);
+        Log.info("Cache Size: " + CACHE_MAX_ENTRIES + " entries" +
+                 (CACHE_MAX_BYTES > 0 ? ", " + CACHE_MAX_BYTES + " bytes" : ""));
+        Log.info("Replication Factor: " + REPLICATION_FACTOR);
+        Log.info("Write Policy: " + replicaWriter.getPolicy());
+        Log.info("Mode: " + describeMode());
+        Log.info("================================");
+        Log.info("Ready to accept connections...");
+
+        if ("nio".equals(mode)) {
+            serveNio();
+        } else {
+            serveThreadPerConnection();
+        }
+    }
+
+    private String describeMode() {
+        switch (mode) {
+            case "virtual":
+                return "virtual threads (one per connection and per request)";
+            case "nio":
+                return "nio, " + IO_THREADS + " I/O threads, " + REQUEST_THREADS + " request threads";
+            default:
+                return "blocking (one thread per connection), " + REQUEST_THREADS + " request threads";
+        }
+    }
+
+    /**
+     * Virtual or blocking mode: each connection is served by its own thread
+     */
+    private void serveThreadPerConnection() throws IOException {
         serverSocket = new ServerSocket(port, 50, InetAddress.getByName(ipAddress));
-        System.out.println("================================");
-        System.out.println("Coordination Server Started");
-        System.out.println("================================");
-        System.out.println("IP: " + ipAddress);
-        System.out.println("Port: " + port);
-        System.out.println("Cache Size: " + CACHE_SIZE);
-        System.out.println("================================");
-        System.out.println("Ready to accept connections...");
-        System.out.println();
 
         // Accept connections in loop
         while (!Thread.currentThread().isInterrupted()) {
@@ -63,18 +196,26 @@ public class CoordinationServer {
                 Socket clientSocket = serverSocket.accept();
                 String clientAddress = clientSocket.getInetAddress().getHostAddress() +
                                       ":" + clientSocket.getPort();
-                System.out.println("New connection from: " + clientAddress);
+                Log.debug(() -> "New connection from: " + clientAddress);
 
                 // Handle each connection in separate thread
-                threadPool.submit(new ConnectionHandler(clientSocket, hashRing, cache, ipAddress + ":" + port));
+                threadPool.submit(new ConnectionHandler(clientSocket, processor, requestPool));
             } catch (IOException e) {
                 if (!serverSocket.isClosed()) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
+                    Log.warn("Error accepting connection: " + e.getMessage());
                 }
             }
         }
     }
 
+    /**
+     * NIO mode: IO_THREADS selector loops serve every connection; requests run on the request pool
+     */
+    private void serveNio() throws IOException {
+        nioServer = new NioServer("CoordinatorNio", IO_THREADS, new NioConnectionHandler(processor, requestPool));
+        nioServer.start(ipAddress, port);
+    }
+
     /**
      * Timer thread that periodically checks for failed slaves
      */
@@ -82,7 +223,7 @@ public class CoordinationServer {
         while (!Thread.currentThread().isInterrupted()) {
             try {
                 Thread.sleep(30000); // Check every 30 seconds
-                System.out.println("\n[TIMER] Waking up to check heartbeats...");
+                Log.debug("[TIMER] Waking up to check heartbeats...");
                 heartbeatMonitor.checkForFailures();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -98,23 +239,33 @@ public class CoordinationServer {
         try (PrintWriter writer = new PrintWriter(new FileWriter("cs_config.txt"))) {
             writer.println(ipAddress);
             writer.println(port);
-            System.out.println("Configuration written to cs_config.txt");
+            Log.info("Configuration written to cs_config.txt");
         } catch (IOException e) {
-            System.err.println("Failed to write config file: " + e.getMessage());
+            Log.warn("Failed to write config file: " + e.getMessage());
         }
     }
 
     public void shutdown() {
-        System.out.println("\nShutting down Coordination Server...");
+        Log.info("Shutting down Coordination Server...");
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
-            threadPool.shutdown();
+            if (nioServer != null) {
+                nioServer.shutdown();
+            }
+            if (threadPool != null) {
+                threadPool.shutdown();
+            }
+            requestPool.shutdown();
             heartbeatMonitor.shutdown();
+            slaveFilters.shutdown();
+            slavePool.shutdown();
+            metrics.shutdown();
         } catch (IOException e) {
-            System.err.println("Error during shutdown: " + e.getMessage());
+            Log.warn("Error during shutdown: " + e.getMessage());
         }
+        Log.flush(1000);
     }
 
     public static void main(String[] args) {
@@ -135,8 +286,8 @@ public class CoordinationServer {
         try {
             server.start();
         } catch (IOException e) {
-            System.err.println("Failed to start server: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Failed to start server: " + e.getMessage(), e);
+            Log.flush(1000);
         }
     }
 }
@@ -3,31 +3,55 @@ package com.kvstore.coordinator;
 import com.kvstore.common.*;
 import java.io.IOException;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Monitors heartbeat messages from slave servers
  * Detects failures when no heartbeat received
+ * Records the gap between consecutive heartbeats of a slave (heartbeat.gap)
+ * and how long the quietest slave has been silent (heartbeat.maxSilenceMs).
  */
 public class HeartbeatMonitor implements Runnable {
     private static final int UDP_PORT = 3769;
     private static final int BUFFER_SIZE = 1024;
 
     private final HashRing hashRing;
+    private final SlaveConnectionPool slavePool;
+    private final RingMap ringMap;
     private final ConcurrentHashMap<String, Integer> heartbeatCount;
+    private final ConcurrentHashMap<String, Long> lastHeartbeat = new ConcurrentHashMap<>(); // System.nanoTime()
+    private final LatencyHistogram heartbeatGap;
     private DatagramSocket udpSocket;
     private volatile boolean running = true;
 
-    public HeartbeatMonitor(HashRing hashRing) {
+    public HeartbeatMonitor(HashRing hashRing, SlaveConnectionPool slavePool, RingMap ringMap, Metrics metrics) {
         this.hashRing = hashRing;
+        this.slavePool = slavePool;
+        this.ringMap = ringMap;
         this.heartbeatCount = new ConcurrentHashMap<>();
+        this.heartbeatGap = metrics.histogram("heartbeat.gap");
+        metrics.gauge("heartbeat.maxSilenceMs", this::getMaxSilenceMs);
+    }
+
+    /**
+     * Time since the last heartbeat of the slave heard from least recently
+     */
+    public long getMaxSilenceMs() {
+        long now = System.nanoTime();
+        long oldest = now;
+        for (long seen : lastHeartbeat.values()) {
+            oldest = Math.min(oldest, seen);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(now - oldest);
     }
 
     @Override
     public void run() {
         try {
             udpSocket = new DatagramSocket(UDP_PORT);
-            System.out.println("[HEARTBEAT] Listening on UDP port " + UDP_PORT);
+            Log.info("[HEARTBEAT] Listening on UDP port " + UDP_PORT);
 
             byte[] buffer = new byte[BUFFER_SIZE];
 
@@ -36,22 +60,21 @@ public class HeartbeatMonitor implements Runnable {
                     DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                     udpSocket.receive(packet);
 
-                    String received = new String(packet.getData(), 0, packet.getLength());
-                    processHeartbeat(received);
+                    processHeartbeat(packet.getData(), packet.getLength());
 
                 } catch (SocketException e) {
                     if (running) {
-                        System.err.println("[HEARTBEAT] Socket error: " + e.getMessage());
+                        Log.warn("[HEARTBEAT] Socket error: " + e.getMessage());
                     }
                     break;
                 } catch (IOException e) {
                     if (running) {
-                        System.err.println("[HEARTBEAT] IO error: " + e.getMessage());
+                        Log.warn("[HEARTBEAT] IO error: " + e.getMessage());
                     }
                 }
             }
         } catch (SocketException e) {
-            System.err.println("[HEARTBEAT] Failed to create UDP socket: " + e.getMessage());
+            Log.error("[HEARTBEAT] Failed to create UDP socket: " + e.getMessage());
         } finally {
             if (udpSocket != null && !udpSocket.isClosed()) {
                 udpSocket.close();
@@ -59,17 +82,24 @@ public class HeartbeatMonitor implements Runnable {
         }
     }
 
-    private void processHeartbeat(String messageStr) {
+    private void processHeartbeat(byte[] data, int length) {
         try {
-            Message message = new Message(messageStr);
+            // Older slaves send JSON, newer ones a binary frame
+            Message message = MessageCodec.looksLikeJson(data, 0, length)
+                    ? new Message(new String(data, 0, length, StandardCharsets.UTF_8))
+                    : MessageCodec.decode(data, 4, length - 4);
             if ("heartbeat".equals(message.getReqType())) {
                 String address = message.getMessage();
                 heartbeatCount.merge(address, 1, Integer::sum);
-                System.out.println("[HEARTBEAT] Received from " + address +
-                                 " (count: " + heartbeatCount.get(address) + ")");
+                long now = System.nanoTime();
+                Long previous = lastHeartbeat.put(address, now);
+                if (previous != null) {
+                    heartbeatGap.record(now - previous);
+                }
+                Log.debug(() -> "[HEARTBEAT] Received from " + address + " (count: " + heartbeatCount.get(address) + ")");
             }
         } catch (Exception e) {
-            System.err.println("[HEARTBEAT] Error processing heartbeat: " + e.getMessage());
+            Log.warn("[HEARTBEAT] Error processing heartbeat: " + e.getMessage());
         }
     }
 
@@ -77,42 +107,42 @@ public class HeartbeatMonitor implements Runnable {
      * Check for server failures (called by timer thread)
      */
     public void checkForFailures() {
-        System.out.println("\n=== Heartbeat Check ===");
-
         if (heartbeatCount.isEmpty()) {
-            System.out.println("No slave servers registered yet");
-            System.out.println("=======================\n");
+            Log.debug("[HEARTBEAT] Check: no slave servers registered yet");
             return;
         }
 
-        // Display current counts
-        heartbeatCount.forEach((address, count) ->
-            System.out.println(address + ": " + count + " heartbeats"));
+        // Current counts (every interval, so only at debug level)
+        Log.debug(() -> "[HEARTBEAT] Check: " + heartbeatCount);
 
         // Check for failures (count = 0)
         heartbeatCount.forEach((address, count) -> {
             if (count == 0) {
-                System.out.println("\n[FAILURE DETECTED] Server " + address + " has failed!");
+                Log.warn("[FAILURE DETECTED] Server " + address + " has failed!");
                 handleServerFailure(address);
             }
         });
 
         // Reset counts for next interval
         heartbeatCount.replaceAll((address, count) -> 0);
-
-        System.out.println("=======================\n");
     }
 
     private void handleServerFailure(String address) {
-        // Remove from hash ring
-        int hash = ConsistentHash.hash(address);
-        hashRing.delete(hash);
+        // Remove from hash ring (all virtual nodes)
+        hashRing.removeServer(address);
 
         // Remove from heartbeat map
         heartbeatCount.remove(address);
+        lastHeartbeat.remove(address);
+
+        // Drop pooled connections to the dead server
+        slavePool.removeServer(address);
+
+        // Smart clients still routing to it get stale_ring from the others
+        ringMap.announce();
 
-        System.out.println("[RECOVERY] Server " + address + " removed from ring");
-        System.out.println("[RECOVERY] System continues with remaining servers");
+        Log.info("[RECOVERY] Server " + address + " removed from ring");
+        Log.info("[RECOVERY] System continues with remaining servers");
 
         // In production, would trigger data migration here
         // For simplicity, relying on replication for fault tolerance
@@ -0,0 +1,123 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Coordinator read cache: recent values (tagged with their write version)
+ * plus recently missing keys (NegativeCache)
+ *
+ * Coherence with writes:
+ * - a write invalidates the key both before it is sent and after it completes;
+ * - a GET takes a stamp before asking the slaves and may only fill the cache
+ *   if no invalidation happened since. Stamps are counters per stripe of keys,
+ *   so evicting entries never loses them, and an unrelated write can at worst
+ *   keep one fill out;
+ * - a fill never replaces a cached value with a higher version, so a replica
+ *   still holding the old value cannot undo a newer fill.
+ */
+public class KeyCache {
+    private static final int STRIPES = 4096;
+
+    private final ConcurrentCache<String, Versioned> values;
+    private final NegativeCache missing = new NegativeCache();
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+    /**
+     * @param maxEntries largest number of cached values
+     * @param maxBytes   approximate byte bound on cached keys and values (0 for none)
+     */
+    public KeyCache(long maxEntries, long maxBytes) {
+        this.values = new ConcurrentCache<>(maxEntries, maxBytes, KeyCache::entryBytes);
+    }
+
+    // Approximate heap footprint of a cached entry (two strings, version and map overhead)
+    private static long entryBytes(String key, Versioned value) {
+        return 2L * (key.length() + value.getValue().length()) + 120;
+    }
+
+    /**
+     * Cached value of a key, or null
+     */
+    public String get(String key) {
+        Versioned cached = values.get(key);
+        return cached == null ? null : cached.getValue();
+    }
+
+    /**
+     * True if the key was recently found missing
+     */
+    public boolean isMissing(String key) {
+        return missing.contains(key);
+    }
+
+    /**
+     * Stamp to pass to fill() or fillMissing(); take it before the slaves are asked
+     */
+    public long stamp(String key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * Cache a value read from a slave, unless the key was written since the
+     * stamp was taken or a newer version is already cached
+     */
+    public void fill(String key, String value, long version, long stamp) {
+        int stripe = stripe(key);
+        values.putIf(key, new Versioned(value, version),
+                (current, fresh) -> stamps.get(stripe) == stamp &&
+                                    (current == null || current.getVersion() <= fresh.getVersion()));
+    }
+
+    /**
+     * Remember that the slaves do not have the key, unless it was written
+     * since the stamp was taken
+     */
+    public void fillMissing(String key, long stamp) {
+        int stripe = stripe(key);
+        if (stamps.get(stripe) != stamp) {
+            return;
+        }
+        missing.put(key);
+        // A write that raced with the put has bumped the stamp: drop the entry again
+        if (stamps.get(stripe) != stamp) {
+            missing.remove(key);
+        }
+    }
+
+    /**
+     * Forget everything about a key; call before sending a write and again
+     * once it completed (whatever its outcome)
+     */
+    public void invalidate(String key) {
+        stamps.incrementAndGet(stripe(key));
+        values.remove(key);
+        missing.remove(key);
+    }
+
+    public long size() {
+        return values.size();
+    }
+
+    public long getHitCount() {
+        return values.getHitCount();
+    }
+
+    public long getMissCount() {
+        return values.getMissCount();
+    }
+
+    public long getNegativeHitCount() {
+        return missing.getHitCount();
+    }
+
+    public void display() {
+        values.display();
+        missing.display();
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,65 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Short-lived cache of keys the slaves reported missing (key_error)
+ * Bounded like the value cache (W-TinyLFU); each entry expires after TTL_MS.
+ * Used through KeyCache, which keeps misses that raced with a write out.
+ */
+public class NegativeCache {
+    private static final long MAX_ENTRIES = Config.getLong("negcache.maxEntries", 10000);
+    private static final long TTL_MS = Config.getLong("negcache.ttlMs", 2000);
+
+    private final ConcurrentCache<String, Long> expiries; // Key -> expiry (System.nanoTime)
+    private final LongAdder hits = new LongAdder();
+
+    public NegativeCache() {
+        this.expiries = new ConcurrentCache<>(MAX_ENTRIES);
+    }
+
+    public boolean isEnabled() {
+        return MAX_ENTRIES > 0 && TTL_MS > 0;
+    }
+
+    /**
+     * True if the key was recently found missing
+     */
+    public boolean contains(String key) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Long expiry = expiries.get(key);
+        if (expiry == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiry >= 0) {
+            expiries.remove(key);
+            return false;
+        }
+        hits.increment();
+        return true;
+    }
+
+    public void put(String key) {
+        if (isEnabled()) {
+            expiries.put(key, System.nanoTime() + TTL_MS * 1_000_000L);
+        }
+    }
+
+    public void remove(String key) {
+        expiries.remove(key);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public void display() {
+        if (isEnabled()) {
+            Log.info("=== Negative Cache (Size: " + expiries.size() + "/" + MAX_ENTRIES +
+                     ", TTL: " + TTL_MS + " ms, Hits: " + getHitCount() + ") ===");
+        }
+    }
+}
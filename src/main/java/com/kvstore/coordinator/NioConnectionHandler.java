@@ -0,0 +1,109 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event-loop front end of the Coordination Server (NIO mode)
+ * Runs the same handshake as ConnectionHandler, but no thread is tied to a
+ * connection: the I/O threads decode requests and hand them to the request
+ * pool, so idle clients cost only a socket and a little state.
+ *
+ * Unnumbered requests of a connection still run one at a time and are
+ * answered in order. Once MAX_IN_FLIGHT requests of a connection are
+ * outstanding, reading from it pauses until one completes (requests already
+ * read are still run).
+ */
+public class NioConnectionHandler implements NioServer.Handler {
+    private final RequestProcessor processor;
+    private final ExecutorService requestPool;
+
+    /**
+     * Per-connection state, attached to the connection
+     */
+    private final class Session {
+        final RequestPipeline pipeline = new RequestPipeline(requestPool);
+        final AtomicInteger inFlight = new AtomicInteger();
+        boolean client; // Identified as a client (only touched on the I/O thread)
+    }
+
+    public NioConnectionHandler(RequestProcessor processor, ExecutorService requestPool) {
+        this.processor = processor;
+        this.requestPool = requestPool;
+    }
+
+    @Override
+    public void onOpen(NioServer.Connection connection) {
+        Log.debug(() -> "New connection from: " + connection.getRemoteAddress());
+        connection.setAttachment(new Session());
+        connection.send(Message.ack("connected"));
+    }
+
+    @Override
+    public void onMessage(NioServer.Connection connection, Message message) {
+        Session session = (Session) connection.getAttachment();
+        if (session.client) {
+            submit(connection, session, message);
+        } else if ("client".equals(message.getId())) {
+            Log.debug("[CLIENT] Client connected");
+            // Clients that asked for the binary protocol switch after this ack
+            String proto = MessageCodec.negotiate(message.getProto());
+            connection.send(Message.ack("ready_to_serve").setProto(proto));
+            connection.setBinary(MessageCodec.BINARY.equals(proto));
+            session.client = true;
+        } else if ("slave_server".equals(message.getId())) {
+            // Registration announces the ring change to the slaves: off the I/O thread
+            String remoteAddress = connection.getRemoteAddress().replaceFirst("^.*/", "");
+            try {
+                requestPool.execute(() -> {
+                    connection.send(processor.registerSlave(message, remoteAddress));
+                    connection.close();
+                });
+            } catch (RejectedExecutionException e) {
+                connection.close();
+            }
+        } else {
+            connection.close();
+        }
+    }
+
+    private void submit(NioServer.Connection connection, Session session, Message request) {
+        long requestId = request.getRequestId();
+        long received = System.nanoTime();
+        if (session.inFlight.incrementAndGet() >= ConnectionHandler.MAX_IN_FLIGHT) {
+            connection.setReadPaused(true);
+        }
+
+        session.pipeline.execute(RequestPipeline.orderKey(request), () -> {
+            try {
+                Message reply = processor.process(request, received);
+                if (requestId != 0L) {
+                    reply.setRequestId(requestId);
+                }
+                connection.send(reply);
+            } finally {
+                completed(connection, session);
+            }
+        }, () -> {
+            completed(connection, session);
+            connection.send(busy(requestId));
+        });
+    }
+
+    // Checks the flag rather than the threshold crossing, so a pause racing with completions is still undone
+    private static void completed(NioServer.Connection connection, Session session) {
+        if (session.inFlight.decrementAndGet() < ConnectionHandler.MAX_IN_FLIGHT && connection.isReadPaused()) {
+            connection.setReadPaused(false);
+        }
+    }
+
+    private static Message busy(long requestId) {
+        Message busy = Message.ack("server_busy");
+        if (requestId != 0L) {
+            busy.setRequestId(requestId);
+        }
+        return busy;
+    }
+}
@@ -0,0 +1,238 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Sends one write to every replica of a key at the same time
+ * and decides success according to the configured write policy:
+ * - ALL:     every replica must acknowledge
+ * - PRIMARY: only the primary (first target) must acknowledge
+ * - QUORUM:  a majority of replicas must acknowledge
+ * Write latency is bounded by the slowest replica that must answer (and by
+ * WRITE_TIMEOUT_MS), not by the sum of the replica round trips.
+ * Every write is tagged with a version from VersionClock, which the slaves
+ * store with the value (or the delete's tombstone) and return on reads.
+ *
+ * Under PRIMARY and QUORUM an acknowledged write may be missing from some
+ * replicas, so reads must ask enough of them to overlap every write quorum
+ * (R + W > N) and keep the reply with the highest version; readQuorum() and
+ * isReadQuorum() give the read side of each policy.
+ */
+public class ReplicaWriter {
+    public enum Policy { ALL, PRIMARY, QUORUM }
+
+    static final long WRITE_TIMEOUT_MS = Config.getLong("write.timeoutMs", 5000);
+
+    private final SlaveConnectionPool slavePool;
+    private final SlaveFilters slaveFilters;
+    private final Policy policy;
+    private final VersionClock versionClock = new VersionClock();
+
+    public ReplicaWriter(SlaveConnectionPool slavePool, SlaveFilters slaveFilters) {
+        this(slavePool, slaveFilters, parsePolicy(Config.getString("write.policy", "all")));
+    }
+
+    public ReplicaWriter(SlaveConnectionPool slavePool, SlaveFilters slaveFilters, Policy policy) {
+        this.slavePool = slavePool;
+        this.slaveFilters = slaveFilters;
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Replicas a read should ask at first: one under ALL (every replica has
+     * every acknowledged write) and PRIMARY (the primary does, so it must be
+     * the one asked), N - W + 1 under QUORUM
+     */
+    public int readQuorum(int replicas) {
+        return policy == Policy.QUORUM ? replicas - (replicas / 2 + 1) + 1 : 1;
+    }
+
+    /**
+     * True if a read that got replies (value or key_error) from this many
+     * distinct replicas has seen the latest acknowledged write, so its answer
+     * may be cached; under PRIMARY only the primary's reply counts
+     */
+    public boolean isReadQuorum(int replies, boolean primaryReplied, int replicas) {
+        return policy == Policy.PRIMARY ? primaryReplied : replies >= readQuorum(replicas);
+    }
+
+    /**
+     * Issue requests.get(i) to targets.get(i) in parallel (index 0 is the primary)
+     * @param successAck ack message that counts as a successful write
+     * @return true if the write policy was satisfied before the timeout
+     */
+    public boolean write(List<ServerNode> targets, List<Message> requests, String successAck) {
+        int total = targets.size();
+        if (total == 0) {
+            return false;
+        }
+        int required = policy == Policy.QUORUM ? total / 2 + 1 : total;
+
+        CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+        AtomicInteger acks = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        long version = versionClock.next();
+
+        for (int i = 0; i < total; i++) {
+            ServerNode target = targets.get(i);
+            boolean primary = i == 0;
+            Message request = requests.get(i);
+            request.setVersion(version);
+            if ("put".equals(request.getReqType())) {
+                // Before sending, so the coordinator's filter never lags the slave
+                slaveFilters.recordWrite(target.getAddress(), ReplicaTable.rank(request.getTable()), request.getKey());
+            }
+            slavePool.callAsync(target, request).whenComplete((response, error) -> {
+                boolean ok = error == null && successAck.equals(response.getMessage());
+                if (!ok) {
+                    String reason = error != null ? String.valueOf(error.getMessage()) : response.getMessage();
+                    Log.warn("[WRITE] " + requests.get(0).getReqType() + " on " + target.getAddress() +
+                             " failed: " + reason);
+                }
+
+                if (policy == Policy.PRIMARY) {
+                    if (primary) {
+                        outcome.complete(ok);
+                    }
+                } else if (ok) {
+                    if (acks.incrementAndGet() >= required) {
+                        outcome.complete(true);
+                    }
+                } else if (failures.incrementAndGet() > total - required) {
+                    outcome.complete(false);
+                }
+            });
+        }
+
+        try {
+            return outcome.get(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.warn("[WRITE] Timed out after " + WRITE_TIMEOUT_MS + "ms (policy " + policy + ")");
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Write many keys at once: every slave involved gets one sub-batch holding
+     * all of its replicas of those keys (more than one if they would not fit a
+     * frame), and the sub-batches are sent in parallel
+     * Unlike write(), waits for every slave (or the timeout) before deciding.
+     * @param reqType  "put" or "delete"
+     * @param values   value of each key, or null for deletes
+     * @param replicas preference list of each key (index 0 is the primary)
+     * @return per key, true if the write policy was satisfied for it
+     */
+    public boolean[] writeBatch(String reqType, List<String> keys, List<String> values,
+                                List<List<ServerNode>> replicas) {
+        long version = versionClock.next();
+        String successAck = reqType + "_success";
+
+        // Slave -> (key index, rank) of each replica it holds
+        Map<ServerNode, List<int[]>> plan = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            for (int rank = 0; rank < replicas.get(i).size(); rank++) {
+                plan.computeIfAbsent(replicas.get(i).get(rank), s -> new ArrayList<>()).add(new int[]{i, rank});
+            }
+        }
+
+        AtomicIntegerArray acks = new AtomicIntegerArray(keys.size());
+        AtomicIntegerArray primaryAcks = new AtomicIntegerArray(keys.size());
+        List<CompletableFuture<Void>> pending = new ArrayList<>(plan.size());
+        for (Map.Entry<ServerNode, List<int[]>> entry : plan.entrySet()) {
+            ServerNode target = entry.getKey();
+            List<int[]> targetSlots = entry.getValue();
+            List<Message> targetItems = new ArrayList<>(targetSlots.size());
+            for (int[] slot : targetSlots) {
+                String key = keys.get(slot[0]);
+                Message item = values == null ? Message.request(reqType, key) : Message.request(reqType, key, values.get(slot[0]));
+                targetItems.add(item.setTable(ReplicaTable.name(slot[1])));
+                if ("put".equals(reqType)) {
+                    slaveFilters.recordWrite(target.getAddress(), slot[1], key);
+                }
+            }
+
+            // Sub-batches small enough for one frame each
+            int offset = 0;
+            for (List<Message> items : MessageCodec.splitBatch(targetItems)) {
+                List<int[]> slots = targetSlots.subList(offset, offset + items.size());
+                offset += items.size();
+                Message batch = new Message().setReqType("m" + reqType).setItems(items).setVersion(version);
+
+                pending.add(slavePool.callAsync(target, batch).handle((response, error) -> {
+                    List<Message> replies = error == null ? response.getItems() : new ArrayList<>();
+                    int failed = 0;
+                    for (int j = 0; j < slots.size(); j++) {
+                        int[] slot = slots.get(j);
+                        if (j < replies.size() && successAck.equals(replies.get(j).getMessage())) {
+                            acks.incrementAndGet(slot[0]);
+                            if (slot[1] == 0) {
+                                primaryAcks.set(slot[0], 1);
+                            }
+                        } else {
+                            failed++;
+                        }
+                    }
+                    if (failed > 0) {
+                        String reason = error != null ? String.valueOf(error.getMessage()) : failed + " of " + slots.size() + " keys";
+                        Log.warn("[WRITE] m" + reqType + " on " + target.getAddress() + " failed: " + reason);
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.warn("[WRITE] Batch timed out after " + WRITE_TIMEOUT_MS + "ms (policy " + policy + ")");
+        } catch (ExecutionException e) {
+            // Failures were counted per key
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean[] success = new boolean[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            int total = replicas.get(i).size();
+            if (total == 0) {
+                continue;
+            }
+            switch (policy) {
+                case PRIMARY:
+                    success[i] = primaryAcks.get(i) == 1;
+                    break;
+                case QUORUM:
+                    success[i] = acks.get(i) >= total / 2 + 1;
+                    break;
+                default:
+                    success[i] = acks.get(i) == total;
+            }
+        }
+        return success;
+    }
+
+    private static Policy parsePolicy(String name) {
+        try {
+            return Policy.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("[CONFIG] Unknown write policy '" + name + "', using ALL");
+            return Policy.ALL;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.Log;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent loads of the same key into one (single-flight)
+ * The first caller for a key runs the loader; callers arriving while it runs
+ * wait for and share its result instead of loading again.
+ *
+ * Each load is tagged with a generation (the key's KeyCache stamp). A caller
+ * only joins a load of the same generation: a load that started before a
+ * write to the key may return the old value, which must not be handed to a
+ * caller that arrived after the write.
+ */
+public class RequestCoalescer<K, V> {
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    private static final class Flight<V> {
+        final long generation;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Flight(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Load a key, or wait for the load of it already in progress
+     * @param generation caller's view of the key (joins only loads with the same one)
+     * @param loader     runs at most once per flight; may return null
+     */
+    public V load(K key, long generation, Supplier<V> loader) {
+        Flight<V> mine = new Flight<>(generation);
+        while (true) {
+            Flight<V> current = flights.putIfAbsent(key, mine);
+            if (current == null) {
+                break;
+            }
+            if (current.generation == generation) {
+                collapsed.increment();
+                return await(current);
+            }
+            // Started before a write to the key: take its place for later callers
+            if (flights.replace(key, current, mine)) {
+                break;
+            }
+        }
+
+        loads.increment();
+        try {
+            V value = loader.get();
+            mine.result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, mine);
+        }
+    }
+
+    private V await(Flight<V> flight) {
+        try {
+            return flight.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads actually run
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Callers served by another caller's load
+     */
+    public long getCollapsedCount() {
+        return collapsed.sum();
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    public void display() {
+        long total = loads.sum() + collapsed.sum();
+        Log.info(String.format("=== Coalesced Reads (Loads: %d, Collapsed: %d (%.1f%%), In flight: %d) ===",
+                loads.sum(), collapsed.sum(), total == 0 ? 0.0 : 100.0 * collapsed.sum() / total, flights.size()));
+    }
+}
@@ -0,0 +1,101 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.Message;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the requests of one client connection on the shared request pool
+ * Requests with the same order key run one after another, in the order they
+ * were submitted; the rest run concurrently. Used by both front ends.
+ */
+final class RequestPipeline {
+    private static final Object UNNUMBERED = new Object();
+
+    private final Executor pool;
+    private final Map<Object, Deque<Task>> queues = new HashMap<>(); // Tasks waiting behind a running one
+
+    private static final class Task {
+        final Runnable run;
+        final Runnable rejected;
+
+        Task(Runnable run, Runnable rejected) {
+            this.run = run;
+            this.rejected = rejected;
+        }
+    }
+
+    RequestPipeline(Executor pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Order key of a request: unnumbered requests all share one (they are
+     * answered in order), numbered single-key requests queue behind the same
+     * key, batches run unordered (null)
+     */
+    static Object orderKey(Message request) {
+        if (request.getRequestId() == 0L) {
+            return UNNUMBERED;
+        }
+        return request.getItems().isEmpty() && !request.getKey().isEmpty() ? request.getKey() : null;
+    }
+
+    /**
+     * @param orderKey null to run without ordering
+     * @param rejected run instead of the task if the pool refuses it
+     */
+    void execute(Object orderKey, Runnable run, Runnable rejected) {
+        Task task = new Task(run, rejected);
+        if (orderKey == null) {
+            submit(null, task);
+            return;
+        }
+        synchronized (queues) {
+            Deque<Task> waiting = queues.get(orderKey);
+            if (waiting != null) {
+                waiting.add(task);
+                return;
+            }
+            queues.put(orderKey, new ArrayDeque<>());
+        }
+        submit(orderKey, task);
+    }
+
+    private void submit(Object orderKey, Task task) {
+        try {
+            pool.execute(() -> {
+                try {
+                    task.run.run();
+                } finally {
+                    next(orderKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.rejected.run();
+            next(orderKey);
+        }
+    }
+
+    // Start the task queued behind the one that just finished
+    private void next(Object orderKey) {
+        if (orderKey == null) {
+            return;
+        }
+        Task following;
+        synchronized (queues) {
+            Deque<Task> waiting = queues.get(orderKey);
+            following = waiting.poll();
+            if (following == null) {
+                queues.remove(orderKey);
+            }
+        }
+        if (following != null) {
+            submit(orderKey, following);
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes client requests and slave registrations and builds the replies
+ * Shared by the blocking ConnectionHandler and the NIO front end
+ * (NioConnectionHandler); holds no per-connection state.
+ */
+public class RequestProcessor {
+    private static final boolean READ_FROM_REPLICAS = Config.getBoolean("read.fromReplicas", false);
+    private static final int MAX_BATCH_KEYS = Config.getInt("batch.maxKeys", 10000);
+
+    private final HashRing hashRing;
+    private final KeyCache cache;
+    private final RequestCoalescer<String, Message> coalescer;
+    private final SlaveConnectionPool slavePool;
+    private final ReplicaWriter replicaWriter;
+    private final SlaveFilters slaveFilters;
+    private final RingMap ringMap;
+    private final int replicationFactor;
+    private final Metrics metrics;
+    private final Map<String, LatencyHistogram> opLatency = new HashMap<>(); // By request type (read-only)
+    private final LatencyHistogram queueLatency;
+    private final LatencyHistogram ringLookup;
+    private final LatencyHistogram cacheLookup;
+    private final LongAdder errors;
+
+    public RequestProcessor(HashRing hashRing, KeyCache cache, RequestCoalescer<String, Message> coalescer,
+                            SlaveConnectionPool slavePool, ReplicaWriter replicaWriter, SlaveFilters slaveFilters,
+                            RingMap ringMap, int replicationFactor, Metrics metrics) {
+        this.hashRing = hashRing;
+        this.cache = cache;
+        this.coalescer = coalescer;
+        this.slavePool = slavePool;
+        this.replicaWriter = replicaWriter;
+        this.slaveFilters = slaveFilters;
+        this.ringMap = ringMap;
+        this.replicationFactor = replicationFactor;
+        this.metrics = metrics;
+        for (String op : new String[] {"get", "put", "update", "delete", "mget", "mput", "mdelete"}) {
+            opLatency.put(op, metrics.histogram("op." + op));
+        }
+        this.queueLatency = metrics.histogram("coordinator.queue");
+        this.ringLookup = metrics.histogram("ring.lookup");
+        this.cacheLookup = metrics.histogram("cache.lookup");
+        this.errors = metrics.counter("op.errors");
+    }
+
+    /**
+     * Execute a request that waited in a connection's pipeline since receivedNanos
+     */
+    public Message process(Message reqMsg, long receivedNanos) {
+        queueLatency.recordSince(receivedNanos);
+        return process(reqMsg);
+    }
+
+    /**
+     * Execute one client request and build its reply
+     */
+    public Message process(Message reqMsg) {
+        Log.debug(() -> "[CLIENT] Received: " + reqMsg);
+        long start = System.nanoTime();
+        Message reply;
+        try {
+            String reqType = reqMsg.getReqType();
+            String key = reqMsg.getKey();
+
+            switch (reqType) {
+                case "get":
+                    reply = handleGet(key);
+                    break;
+                case "put":
+                    reply = handlePut(key, reqMsg.getValue());
+                    break;
+                case "update":
+                    reply = handleUpdate(key, reqMsg.getValue());
+                    break;
+                case "delete":
+                    reply = handleDelete(key);
+                    break;
+                case "mget":
+                case "mput":
+                case "mdelete":
+                    reply = handleBatch(reqType, reqMsg.getItems());
+                    break;
+                case "ring":
+                    // Smart clients: ring map for routing reads straight to the slaves
+                    reply = ringMap.describe();
+                    break;
+                case "dump":
+                    // Debugging: write the coordinator's state to its log
+                    dumpState();
+                    reply = Message.ack("dump_written");
+                    break;
+                case "stats":
+                    reply = metrics.describe();
+                    break;
+                default:
+                    reply = Message.ack("unknown_request");
+            }
+
+            LatencyHistogram latency = opLatency.get(reqType);
+            if (latency != null) {
+                latency.recordSince(start);
+            }
+        } catch (Exception e) {
+            Log.warn("[CLIENT] Error processing request: " + e.getMessage());
+            errors.increment();
+            reply = Message.ack("parse_error");
+        }
+        return reply;
+    }
+
+    /**
+     * Log the ring, cache, coalescer, filter and metrics state (on request, not per request)
+     */
+    private void dumpState() {
+        hashRing.display();
+        cache.display();
+        coalescer.display();
+        slaveFilters.display();
+        metrics.display();
+    }
+
+    /**
+     * Servers holding a key, primary first (the lookup is timed)
+     */
+    private List<ServerNode> preferenceList(long hash) {
+        long start = System.nanoTime();
+        List<ServerNode> replicas = hashRing.getPreferenceList(hash, replicationFactor);
+        ringLookup.recordSince(start);
+        return replicas;
+    }
+
+    /**
+     * Handle GET request
+     */
+    private Message handleGet(String key) {
+        // Check cache first (one lookup)
+        long start = System.nanoTime();
+        String cached = cache.get(key);
+        cacheLookup.recordSince(start);
+        if (cached != null) {
+            Log.debug(() -> "[CACHE HIT] Key '" + key + "' found in cache");
+            return Message.data(cached);
+        }
+
+        if (cache.isMissing(key)) {
+            Log.debug(() -> "[CACHE HIT] Key '" + key + "' recently found missing");
+            return Message.ack("key_error");
+        }
+
+        // Concurrent misses for the same key share a single slave fetch
+        long stamp = cache.stamp(key);
+        Message reply = coalescer.load(key, stamp, () -> fetch(key, stamp));
+        return "data".equals(reply.getReqType()) ? Message.data(reply.getMessage()) : Message.ack(reply.getMessage());
+    }
+
+    /**
+     * Read a key from its replicas and fill the cache
+     * @param stamp cache stamp taken before the read
+     * @return the reply for the client
+     */
+    private Message fetch(String key, long stamp) {
+        Log.debug(() -> "[CACHE MISS] Key '" + key + "' not in cache, fetching from slave...");
+
+        // Calculate hash and find the servers holding the key
+        long hash = hashRing.hash(key);
+        List<ServerNode> replicas = preferenceList(hash);
+
+        if (replicas.isEmpty()) {
+            return Message.ack("no_servers_available");
+        }
+
+        // No replica's key filter contains the key: it is definitely absent
+        // (not while keys may still sit at their legacy ring location)
+        Boolean present = hashRing.getMigrationSource() == null ? slaveFilters.mightContain(replicas, key) : null;
+        if (Boolean.FALSE.equals(present)) {
+            Log.debug(() -> "[BLOOM] Key '" + key + "' definitely absent, skipping slaves");
+            return Message.ack("key_error");
+        }
+
+        // Ask as many replicas as the write policy needs (R + W > N) and keep
+        // the newest reply; replicas that do not answer are replaced by the next
+        int total = replicas.size();
+        int first = firstReadRank(total);
+        Message newest = null;
+        int replies = 0;
+        boolean primaryReplied = false;
+        int next = 0;
+        while (next < total && !replicaWriter.isReadQuorum(replies, primaryReplied, total)) {
+            int wave = Math.min(total - next, Math.max(1, replicaWriter.readQuorum(total) - replies));
+            int[] ranks = new int[wave];
+            List<CompletableFuture<Message>> calls = new ArrayList<>(wave);
+            for (int k = 0; k < wave; k++) {
+                int rank = (first + next++) % total;
+                ServerNode server = replicas.get(rank);
+                if (Log.isDebugEnabled()) {
+                    Log.debug("[GET] Hash(" + key + ") = " + hash + " -> Server at position " +
+                              server.getHashPosition() + " (" + ReplicaTable.name(rank) + ")");
+                }
+                ranks[k] = rank;
+                calls.add(slavePool.callAsync(server, Message.request("get", key).setTable(ReplicaTable.name(rank))));
+            }
+            for (int k = 0; k < wave; k++) {
+                Message respMsg = await(calls.get(k), replicas.get(ranks[k]), "get from");
+                boolean found = respMsg != null && "data".equals(respMsg.getReqType());
+                if (found || (respMsg != null && "key_error".equals(respMsg.getMessage()))) {
+                    replies++;
+                    primaryReplied |= ranks[k] == 0;
+                    if (found && (newest == null || respMsg.getVersion() > newest.getVersion())) {
+                        newest = respMsg;
+                    }
+                }
+            }
+        }
+        // Only an answer from replicas overlapping every write quorum may be
+        // cached; a partial read could have found an older value
+        boolean complete = replicaWriter.isReadQuorum(replies, primaryReplied, total);
+        String value = newest == null ? null : newest.getMessage();
+        long version = newest == null ? 0 : newest.getVersion();
+
+        if (value == null) {
+            value = migrateKey(key, replicas);
+            version = 0;
+        }
+
+        if (value != null) {
+            // Store in cache for future requests (unless a write got in between)
+            if (complete) {
+                cache.fill(key, value, version, stamp);
+            }
+            return Message.data(value);
+        } else {
+            if (Boolean.TRUE.equals(present)) {
+                slaveFilters.recordFalsePositive();
+            }
+            // A miss from fewer replicas (say, after failing over from the
+            // primary) may only mean that they missed the write
+            if (complete) {
+                cache.fillMissing(key, stamp);
+            }
+            return Message.ack("key_error");
+        }
+    }
+
+    /**
+     * Rank a read starts at: a random replica to spread read load when
+     * read.fromReplicas is on, except under the PRIMARY write policy, where
+     * only the primary is sure to hold the latest write
+     */
+    private int firstReadRank(int replicas) {
+        boolean spread = READ_FROM_REPLICAS && replicaWriter.getPolicy() != ReplicaWriter.Policy.PRIMARY;
+        return spread ? ThreadLocalRandom.current().nextInt(replicas) : 0;
+    }
+
+    /**
+     * Handle PUT request (insert new key-value)
+     */
+    private Message handlePut(String key, String value) {
+        long hash = hashRing.hash(key);
+        List<ServerNode> replicas = preferenceList(hash);
+
+        if (replicas.isEmpty()) {
+            return Message.ack("insufficient_servers");
+        }
+
+        if (Log.isDebugEnabled()) {
+            Log.debug("[PUT] Hash(" + key + ") = " + hash);
+            for (int rank = 0; rank < replicas.size(); rank++) {
+                Log.debug("[PUT] " + (rank == 0 ? "Primary" : "Replica") + ": " + replicas.get(rank).getAddress() +
+                          " (pos " + replicas.get(rank).getHashPosition() + ")");
+            }
+        }
+
+        // Store on every replica in parallel (primary in OWN table, others by rank)
+        cache.invalidate(key);
+        boolean success = replicaWriter.write(replicas, replicaRequests(replicas, "put", key, value), "put_success");
+        cache.invalidate(key);
+
+        if (success) {
+            return Message.ack("put_success");
+        } else {
+            return Message.ack("put_failed");
+        }
+    }
+
+    /**
+     * Handle UPDATE request
+     */
+    private Message handleUpdate(String key, String value) {
+        long hash = hashRing.hash(key);
+        List<ServerNode> replicas = preferenceList(hash);
+
+        if (replicas.isEmpty()) {
+            return Message.ack("insufficient_servers");
+        }
+
+        // A key still in its old location has to move before it can be updated
+        migrateKey(key, replicas);
+
+        // Update on all replicas in parallel; the cache is invalidated around
+        // the write, so no GET can fill it with the old value meanwhile
+        cache.invalidate(key);
+        boolean success = replicaWriter.write(replicas, replicaRequests(replicas, "update", key, value), "update_success");
+        cache.invalidate(key);
+
+        if (success) {
+            return Message.ack("update_success");
+        } else {
+            return Message.ack("update_failed");
+        }
+    }
+
+    /**
+     * Handle DELETE request
+     */
+    private Message handleDelete(String key) {
+        long hash = hashRing.hash(key);
+        List<ServerNode> replicas = preferenceList(hash);
+
+        if (replicas.isEmpty()) {
+            return Message.ack("insufficient_servers");
+        }
+
+        // Delete from all replicas in parallel
+        cache.invalidate(key);
+        boolean success = replicaWriter.write(replicas, replicaRequests(replicas, "delete", key, null), "delete_success");
+        success |= removeLegacyCopies(key, replicas);
+        cache.invalidate(key);
+
+        if (success) {
+            return Message.ack("delete_success");
+        } else {
+            return Message.ack("delete_failed");
+        }
+    }
+
+    /**
+     * Handle MGET / MPUT / MDELETE: one item per key, answered with one item
+     * per key in the same order
+     */
+    private Message handleBatch(String reqType, List<Message> items) {
+        if (items.size() > MAX_BATCH_KEYS) {
+            return Message.ack("batch_too_large");
+        }
+        List<String> keys = new ArrayList<>(items.size());
+        for (Message item : items) {
+            keys.add(item.getKey());
+        }
+
+        List<Message> results;
+        if ("mget".equals(reqType)) {
+            results = multiGet(keys);
+        } else {
+            List<String> values = null;
+            if ("mput".equals(reqType)) {
+                values = new ArrayList<>(items.size());
+                for (Message item : items) {
+                    values.add(item.getValue());
+                }
+            }
+            results = multiWrite(reqType.substring(1), keys, values);
+        }
+        Log.debug(() -> "[BATCH] " + reqType + " of " + keys.size() + " keys");
+        return new Message().setReqType("batch").setItems(results);
+    }
+
+    /**
+     * Look many keys up: cache first, then one mget per slave, all in parallel
+     * Each key is asked of as many replicas as a single GET would be, and the
+     * newest reply wins. Keys that did not get enough replies are retried one
+     * by one (with failover). Once the reply holds MAX_BATCH_BYTES the keys
+     * left are answered batch_overflow, for the client to ask again.
+     */
+    private List<Message> multiGet(List<String> keys) {
+        Message[] results = new Message[keys.size()];
+        long[] stamps = new long[keys.size()];
+        Boolean[] present = new Boolean[keys.size()];
+        int[] replicaCounts = new int[keys.size()];
+        Map<ServerNode, List<int[]>> plan = new LinkedHashMap<>(); // Slave -> (key index, rank) it is asked for
+        Map<ServerNode, List<Message>> requests = new LinkedHashMap<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            String cached = cache.get(key);
+            if (cached != null) {
+                results[i] = Message.data(cached);
+                continue;
+            }
+            if (cache.isMissing(key)) {
+                results[i] = Message.ack("key_error");
+                continue;
+            }
+            stamps[i] = cache.stamp(key);
+            List<ServerNode> replicas = preferenceList(hashRing.hash(key));
+            if (replicas.isEmpty()) {
+                results[i] = Message.ack("no_servers_available");
+                continue;
+            }
+            present[i] = hashRing.getMigrationSource() == null ? slaveFilters.mightContain(replicas, key) : null;
+            if (Boolean.FALSE.equals(present[i])) {
+                results[i] = Message.ack("key_error");
+                continue;
+            }
+            replicaCounts[i] = replicas.size();
+            int first = firstReadRank(replicas.size());
+            for (int k = 0; k < replicaWriter.readQuorum(replicas.size()); k++) {
+                int rank = (first + k) % replicas.size();
+                ServerNode server = replicas.get(rank);
+                plan.computeIfAbsent(server, s -> new ArrayList<>()).add(new int[] {i, rank});
+                requests.computeIfAbsent(server, s -> new ArrayList<>())
+                        .add(Message.request("get", key).setTable(ReplicaTable.name(rank)));
+            }
+        }
+
+        // One mget per slave, or several when the keys would not fit one frame
+        List<ServerNode> targets = new ArrayList<>();
+        List<List<int[]>> targetSlots = new ArrayList<>();
+        List<CompletableFuture<Message>> replies = new ArrayList<>();
+        for (Map.Entry<ServerNode, List<Message>> entry : requests.entrySet()) {
+            int offset = 0;
+            for (List<Message> items : MessageCodec.splitBatch(entry.getValue())) {
+                targets.add(entry.getKey());
+                targetSlots.add(plan.get(entry.getKey()).subList(offset, offset + items.size()));
+                offset += items.size();
+                replies.add(slavePool.callAsync(entry.getKey(), new Message().setReqType("mget").setItems(items)));
+            }
+        }
+
+        int[] replyCounts = new int[keys.size()];
+        boolean[] primaryReplied = new boolean[keys.size()];
+        Message[] newest = new Message[keys.size()];
+        for (int t = 0; t < targets.size(); t++) {
+            Message reply = await(replies.get(t), targets.get(t), "mget from");
+            List<Message> items = reply == null ? new ArrayList<>() : reply.getItems();
+            List<int[]> slots = targetSlots.get(t);
+            for (int j = 0; j < slots.size() && j < items.size(); j++) {
+                int i = slots.get(j)[0];
+                Message item = items.get(j);
+                boolean found = "data".equals(item.getReqType());
+                // batch_overflow counts as no reply
+                if (found || "key_error".equals(item.getMessage())) {
+                    replyCounts[i]++;
+                    primaryReplied[i] |= slots.get(j)[1] == 0;
+                    if (found && (newest[i] == null || item.getVersion() > newest[i].getVersion())) {
+                        newest[i] = item;
+                    }
+                }
+            }
+        }
+
+        List<Message> items = new ArrayList<>(keys.size());
+        int bytes = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (bytes > MessageCodec.MAX_BATCH_BYTES) {
+                // The reply is full; the client asks for the rest again
+                items.add(Message.ack("batch_overflow").setKey(key));
+                continue;
+            }
+            if (results[i] == null) {
+                results[i] = resolve(key, stamps[i], present[i], newest[i],
+                                     replicaWriter.isReadQuorum(replyCounts[i], primaryReplied[i], replicaCounts[i]));
+            }
+            Message item = results[i].setKey(key);
+            bytes += MessageCodec.itemLength(item);
+            items.add(bytes > MessageCodec.MAX_BATCH_BYTES && !items.isEmpty() ? Message.ack("batch_overflow").setKey(key) : item);
+        }
+        return items;
+    }
+
+    /**
+     * Answer of one mget key from the replies it got
+     * @param quorum whether enough replicas replied for the policy
+     */
+    private Message resolve(String key, long stamp, Boolean present, Message newest, boolean quorum) {
+        if (!quorum) {
+            // Too few replicas answered: the single-key path fails over to the others
+            return fetch(key, stamp);
+        } else if (newest != null) {
+            cache.fill(key, newest.getMessage(), newest.getVersion(), stamp);
+            return Message.data(newest.getMessage());
+        } else if (hashRing.getMigrationSource() == null) {
+            if (Boolean.TRUE.equals(present)) {
+                slaveFilters.recordFalsePositive();
+            }
+            cache.fillMissing(key, stamp);
+            return Message.ack("key_error");
+        }
+        // May still need migrating
+        return fetch(key, stamp);
+    }
+
+    /**
+     * Put or delete many keys: one sub-batch per slave, sent in parallel
+     * @param values value of each key, or null for deletes
+     */
+    private List<Message> multiWrite(String reqType, List<String> keys, List<String> values) {
+        List<List<ServerNode>> replicas = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            replicas.add(preferenceList(hashRing.hash(key)));
+            cache.invalidate(key);
+        }
+
+        boolean[] success = replicaWriter.writeBatch(reqType, keys, values, replicas);
+
+        List<Message> items = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            boolean ok = success[i];
+            if ("delete".equals(reqType)) {
+                ok |= removeLegacyCopies(key, replicas.get(i));
+            }
+            cache.invalidate(key);
+            String status = replicas.get(i).isEmpty() ? "insufficient_servers" : reqType + (ok ? "_success" : "_failed");
+            items.add(Message.ack(status).setKey(key));
+        }
+        return items;
+    }
+
+    /**
+     * One request per replica, addressed to the table matching its rank
+     */
+    private List<Message> replicaRequests(List<ServerNode> replicas, String reqType, String key, String value) {
+        List<Message> requests = new ArrayList<>(replicas.size());
+        for (int rank = 0; rank < replicas.size(); rank++) {
+            Message request = value == null ? Message.request(reqType, key) : Message.request(reqType, key, value);
+            requests.add(request.setTable(ReplicaTable.name(rank)));
+        }
+        return requests;
+    }
+
+    /**
+     * Migration mode (kvstore.ring.migrate): look the key up where the legacy ring
+     * placed it and, if found, copy it to its current replicas and drop the old copies
+     * @return the migrated value, or null when there is nothing to migrate
+     */
+    private String migrateKey(String key, List<ServerNode> replicas) {
+        List<ServerNode> legacyReplicas = legacyReplicas(key);
+        String value = null;
+        for (int rank = 0; rank < legacyReplicas.size() && value == null; rank++) {
+            if (!isMoved(legacyReplicas, replicas, rank)) {
+                continue;
+            }
+            Message respMsg = callSlave(legacyReplicas.get(rank),
+                    Message.request("get", key).setTable(ReplicaTable.name(rank)), "migrate from");
+            if (respMsg != null && "data".equals(respMsg.getReqType())) {
+                value = respMsg.getMessage();
+            }
+        }
+        if (value == null) {
+            return null;
+        }
+
+        Log.info("[MIGRATE] Moving '" + key + "' to its 64-bit ring replicas");
+        if (replicaWriter.write(replicas, replicaRequests(replicas, "put", key, value), "put_success")) {
+            removeLegacyCopies(key, replicas);
+        }
+        return value;
+    }
+
+    /**
+     * Delete the copies of a key held only under the legacy placement
+     * @return true if at least one old copy was removed
+     */
+    private boolean removeLegacyCopies(String key, List<ServerNode> replicas) {
+        List<ServerNode> legacyReplicas = legacyReplicas(key);
+        boolean removed = false;
+        for (int rank = 0; rank < legacyReplicas.size(); rank++) {
+            if (isMoved(legacyReplicas, replicas, rank)) {
+                Message respMsg = callSlave(legacyReplicas.get(rank),
+                        Message.request("delete", key).setTable(ReplicaTable.name(rank)), "migrate from");
+                removed |= respMsg != null && "delete_success".equals(respMsg.getMessage());
+            }
+        }
+        return removed;
+    }
+
+    private List<ServerNode> legacyReplicas(String key) {
+        HashRing legacyRing = hashRing.getMigrationSource();
+        if (legacyRing == null) {
+            return new ArrayList<>();
+        }
+        return legacyRing.getPreferenceList(legacyRing.hash(key), replicationFactor);
+    }
+
+    // True if the legacy copy at this rank is not also the current copy (same server, same table)
+    private boolean isMoved(List<ServerNode> legacyReplicas, List<ServerNode> replicas, int rank) {
+        return rank >= replicas.size() || !replicas.get(rank).equals(legacyReplicas.get(rank));
+    }
+
+    /**
+     * Handle slave server registration
+     * @param remoteAddress used when the slave does not name its own address
+     * @return the reply for the slave
+     */
+    public Message registerSlave(Message message, String remoteAddress) {
+        String address = message.getMessage();
+        if (address == null || address.isEmpty()) {
+            address = remoteAddress;
+        }
+
+        int weight = parseWeight(message.getValue());
+        int positions = hashRing.addServer(address, weight);
+
+        Log.info("[SLAVE] Registered: " + address + " (weight " + weight + ", " + positions + " positions)");
+        ringMap.announce(address);
+        return Message.ack("registration_successful").setEpoch(ringMap.getEpoch());
+    }
+
+    /**
+     * Capacity weight announced by the slave (older slaves send none)
+     */
+    private int parseWeight(String weight) {
+        try {
+            return weight.isEmpty() ? 1 : Math.max(1, Integer.parseInt(weight));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    // Helper for slave communication (over pooled connections)
+    // Writes fan out through ReplicaWriter
+
+    private Message callSlave(ServerNode server, Message request, String action) {
+        try {
+            return slavePool.call(server, request);
+        } catch (IOException e) {
+            Log.error("[ERROR] Failed to " + action + " slave " + server.getAddress() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Reply of a call already sent with callAsync, or null if it failed
+    private static Message await(CompletableFuture<Message> call, ServerNode server, String action) {
+        try {
+            return call.join();
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            Log.error("[ERROR] Failed to " + action + " slave " + server.getAddress() + ": " + cause.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned view of the hash ring for smart clients
+ * Clients fetch the ring once, route reads straight to the slaves and tag each
+ * request with the epoch they routed by. Every ring change is announced to the
+ * slaves, which answer requests routed by an older epoch with stale_ring so
+ * the client fetches the ring again.
+ *
+ * Epochs start at the coordinator's start time (shifted like VersionClock),
+ * so they keep growing across coordinator restarts.
+ */
+public class RingMap {
+    private final HashRing hashRing;
+    private final SlaveConnectionPool slavePool;
+    private final int replicationFactor;
+    private final long base = System.currentTimeMillis() << 20;
+
+    public RingMap(HashRing hashRing, SlaveConnectionPool slavePool, int replicationFactor) {
+        this.hashRing = hashRing;
+        this.slavePool = slavePool;
+        this.replicationFactor = replicationFactor;
+    }
+
+    public long getEpoch() {
+        return base + hashRing.getEpoch();
+    }
+
+    /**
+     * Reply to a client's "ring" request: the hash algorithm, the replication
+     * factor (value) and one item per slave with its positions
+     * Unavailable while keys are being migrated from the legacy ring, since
+     * only the coordinator knows to look for them there.
+     */
+    public Message describe() {
+        if (hashRing.getMigrationSource() != null) {
+            return Message.ack("ring_unavailable");
+        }
+        // Epoch first: a change in between leaves a newer ring under an older epoch, never the reverse
+        long epoch = getEpoch();
+        List<Message> servers = new ArrayList<>();
+        for (Map.Entry<String, List<Long>> entry : hashRing.getTokens().entrySet()) {
+            StringBuilder positions = new StringBuilder();
+            for (long position : entry.getValue()) {
+                if (positions.length() > 0) {
+                    positions.append(',');
+                }
+                positions.append(position);
+            }
+            servers.add(new Message().setKey(entry.getKey()).setValue(positions.toString()));
+        }
+        return Message.data(hashRing.getAlgorithm().name())
+                .setValue(String.valueOf(replicationFactor))
+                .setEpoch(epoch)
+                .setItems(servers);
+    }
+
+    /**
+     * Tell every slave on the ring the current epoch (after a change)
+     * Best effort: a slave that misses it keeps serving clients with older
+     * maps until their periodic refresh.
+     */
+    public void announce() {
+        announce(null);
+    }
+
+    /**
+     * Announce to every slave except one that already knows the epoch
+     * (a registering slave gets it in its reply and is not listening yet)
+     */
+    public void announce(String except) {
+        long epoch = getEpoch();
+        for (String address : hashRing.getTokens().keySet()) {
+            if (address.equals(except)) {
+                continue;
+            }
+            slavePool.callAsync(new ServerNode(0, address), new Message().setReqType("ring_epoch").setEpoch(epoch))
+                    .whenComplete((reply, error) -> {
+                        if (error != null) {
+                            Log.warn("[RING] Failed to announce epoch to " + address + ": " + error.getMessage());
+                        }
+                    });
+        }
+        Log.info("[RING] Announced epoch " + epoch);
+    }
+}
@@ -0,0 +1,52 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pooled connection from the coordinator to one slave
+ * Adds the bookkeeping the pool needs for idle eviction and health checks
+ * on top of the shared multiplexed transport
+ */
+public class SlaveConnection extends MultiplexedConnection {
+    private final ServerNode server;
+    private volatile long lastUsed;
+    private volatile long lastChecked;
+
+    public SlaveConnection(ServerNode server, int connectTimeoutMs) throws IOException {
+        super(server.getIpAddress(), server.getPort(), connectTimeoutMs,
+              "Slave " + server.getAddress(), HELLO);
+        this.server = server;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Send a request and return a future completed by the matching response
+     */
+    @Override
+    public CompletableFuture<Message> send(Message request) {
+        lastUsed = System.currentTimeMillis();
+        return super.send(request);
+    }
+
+    /**
+     * Health check round trip; does not count as use for idle eviction
+     */
+    public CompletableFuture<Message> ping() {
+        lastChecked = System.currentTimeMillis();
+        return super.send(Message.ping());
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public long getLastChecked() {
+        return lastChecked;
+    }
+
+    public ServerNode getServer() {
+        return server;
+    }
+}
@@ -0,0 +1,229 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of persistent connections from the coordinator to each slave server
+ * - Up to MAX_CONNECTIONS sockets per slave, each multiplexing many requests
+ * - Sockets are opened on connector threads, never on the caller's
+ * - Idle connections are evicted after IDLE_TIMEOUT_MS
+ * - Connections idle for HEALTH_CHECK_INTERVAL_MS are pinged asynchronously and dropped if unhealthy
+ * - Round trip latency and failures are recorded per slave (slave.<address>.rpc / .errors)
+ */
+public class SlaveConnectionPool {
+    private static final int MAX_CONNECTIONS = Config.getInt("pool.maxConnections", 4);
+    private static final int MAX_IN_FLIGHT = Config.getInt("pool.maxInFlight", 32);
+    private static final int CONNECT_TIMEOUT_MS = Config.getInt("pool.connectTimeoutMs", 2000);
+    private static final long REQUEST_TIMEOUT_MS = Config.getLong("pool.requestTimeoutMs", 5000);
+    private static final long IDLE_TIMEOUT_MS = Config.getLong("pool.idleTimeoutMs", 60000);
+    private static final long HEALTH_CHECK_INTERVAL_MS = Config.getLong("pool.healthCheckIntervalMs", 10000);
+
+    private final Map<String, List<SlaveConnection>> pools;
+    private final Map<String, CompletableFuture<SlaveConnection>> opening = new ConcurrentHashMap<>();
+    private final Map<String, SlaveStats> stats = new ConcurrentHashMap<>();
+    private final Metrics metrics;
+    private final ScheduledExecutorService maintenance;
+    private final ExecutorService connector;
+
+    private static final class SlaveStats {
+        final LatencyHistogram latency;
+        final LongAdder errors;
+
+        SlaveStats(Metrics metrics, String address) {
+            this.latency = metrics.histogram("slave." + address + ".rpc");
+            this.errors = metrics.counter("slave." + address + ".errors");
+        }
+    }
+
+    public SlaveConnectionPool(Metrics metrics) {
+        this.pools = new ConcurrentHashMap<>();
+        this.metrics = metrics;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SlavePoolMaintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        this.connector = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "SlavePoolConnector");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance.scheduleWithFixedDelay(this::evictAndCheck,
+                HEALTH_CHECK_INTERVAL_MS, HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send a request to a slave and wait for its response
+     * @throws IOException if the slave is unreachable or does not answer in time
+     */
+    public Message call(ServerNode server, Message request) throws IOException {
+        try {
+            return callAsync(server, request).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + server.getAddress());
+        }
+    }
+
+    /**
+     * Send a request without blocking; the future fails with an IOException if
+     * the slave is unreachable or does not answer within the request timeout
+     * A request that times out is failed on its connection too, so it stops
+     * counting as in flight there.
+     */
+    public CompletableFuture<Message> callAsync(ServerNode server, Message request) {
+        SlaveStats slave = statsFor(server.getAddress());
+        long start = System.nanoTime();
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        acquire(server).whenComplete((connection, connectError) -> {
+            if (connectError != null) {
+                slave.errors.increment();
+                result.completeExceptionally(connectError);
+                return;
+            }
+            connection.send(request).orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((reply, error) -> {
+                if (error == null) {
+                    slave.latency.recordSince(start);
+                    result.complete(reply);
+                } else {
+                    slave.errors.increment();
+                    result.completeExceptionally(error instanceof TimeoutException
+                            ? new IOException("Timed out after " + REQUEST_TIMEOUT_MS + "ms waiting for " + server.getAddress())
+                            : error);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Pick the least loaded open connection; while all are busy and the pool
+     * is under the size limit, another one is opened in the background
+     * Only a caller that finds no open connection waits for the new one, and
+     * the connect and handshake never run on the caller's thread.
+     */
+    private CompletableFuture<SlaveConnection> acquire(ServerNode server) {
+        List<SlaveConnection> connections = pools.computeIfAbsent(server.getAddress(),
+                address -> new CopyOnWriteArrayList<>());
+
+        SlaveConnection best = null;
+        for (SlaveConnection connection : connections) {
+            if (!connection.isOpen()) {
+                connections.remove(connection);
+            } else if (best == null || connection.getInFlight() < best.getInFlight()) {
+                best = connection;
+            }
+        }
+
+        if (best != null && (best.getInFlight() < MAX_IN_FLIGHT || connections.size() >= MAX_CONNECTIONS)) {
+            return CompletableFuture.completedFuture(best);
+        }
+        CompletableFuture<SlaveConnection> opened = open(server, connections);
+        return best != null ? CompletableFuture.completedFuture(best) : opened;
+    }
+
+    /**
+     * Open a connection on the connector threads; one open at a time per slave,
+     * concurrent callers share it
+     */
+    private CompletableFuture<SlaveConnection> open(ServerNode server, List<SlaveConnection> connections) {
+        String address = server.getAddress();
+        CompletableFuture<SlaveConnection> fresh = new CompletableFuture<>();
+        CompletableFuture<SlaveConnection> current = opening.putIfAbsent(address, fresh);
+        if (current != null) {
+            return current;
+        }
+        try {
+            connector.execute(() -> {
+                try {
+                    SlaveConnection connection = new SlaveConnection(server, CONNECT_TIMEOUT_MS);
+                    connections.add(connection);
+                    Log.info("[POOL] Opened connection to " + address +
+                             " (" + connections.size() + "/" + MAX_CONNECTIONS + ")");
+                    opening.remove(address, fresh);
+                    fresh.complete(connection);
+                } catch (IOException e) {
+                    opening.remove(address, fresh);
+                    fresh.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            opening.remove(address, fresh);
+            fresh.completeExceptionally(new IOException("Connection pool is shut down"));
+        }
+        return fresh;
+    }
+
+    private SlaveStats statsFor(String address) {
+        SlaveStats slave = stats.get(address);
+        return slave != null ? slave : stats.computeIfAbsent(address, a -> new SlaveStats(metrics, a));
+    }
+
+    /**
+     * Close and forget all connections to a slave (e.g. after it failed), and its metrics
+     */
+    public void removeServer(String address) {
+        stats.remove(address);
+        metrics.removeAll("slave." + address + ".");
+        List<SlaveConnection> connections = pools.remove(address);
+        if (connections != null) {
+            connections.forEach(SlaveConnection::close);
+            Log.info("[POOL] Closed " + connections.size() + " connection(s) to " + address);
+        }
+    }
+
+    /**
+     * Evict idle connections and ping the ones that have been quiet for a while
+     */
+    private void evictAndCheck() {
+        long now = System.currentTimeMillis();
+        pools.forEach((address, connections) -> {
+            for (SlaveConnection connection : connections) {
+                long idle = now - connection.getLastUsed();
+                if (!connection.isOpen()) {
+                    connections.remove(connection);
+                } else if (connection.getInFlight() == 0 && idle >= IDLE_TIMEOUT_MS) {
+                    connections.remove(connection);
+                    connection.close();
+                    Log.info("[POOL] Evicted idle connection to " + address);
+                } else if (now - Math.max(connection.getLastUsed(), connection.getLastChecked())
+                        >= HEALTH_CHECK_INTERVAL_MS) {
+                    checkHealth(connection);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ping without waiting for the reply, so one hung slave cannot hold up
+     * eviction and checks for the others; the connection is closed when the
+     * pong is wrong or does not arrive within the connect timeout
+     */
+    private void checkHealth(SlaveConnection connection) {
+        String address = connection.getServer().getAddress();
+        connection.ping().orTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((pong, error) -> {
+            if (error == null && "pong".equals(pong.getMessage())) {
+                return;
+            }
+            String reason = error instanceof TimeoutException ? "no reply within " + CONNECT_TIMEOUT_MS + "ms"
+                    : error != null ? error.getMessage()
+                    : "unexpected reply " + pong.getMessage();
+            Log.warn("[POOL] Health check failed for " + address + ": " + reason);
+            connection.close();
+        });
+    }
+
+    public void shutdown() {
+        maintenance.shutdownNow();
+        connector.shutdownNow();
+        pools.keySet().forEach(this::removeServer);
+    }
+}
@@ -0,0 +1,202 @@
+package com.kvstore.coordinator;
+
+import com.kvstore.common.*;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coordinator copies of the slaves' per-table key filters (bloom filters)
+ * Lets a GET for an absent key be answered without a slave round trip.
+ *
+ * Every REFRESH_MS each slave table's filter is fetched again. Keys written
+ * through the coordinator are added to its copy before the write is sent, so
+ * a key the slave stores is never reported absent:
+ * - the filter replaced by a refresh is kept as "previous" until the next one,
+ *   covering writes that were still in flight when the slave serialized its
+ *   filter (REFRESH_MS is longer than the write timeout, so they have landed by then);
+ * - a table is only trusted once it has both copies, and is dropped whenever a
+ *   refresh fails.
+ */
+public class SlaveFilters {
+    private static final boolean ENABLED = Config.getBoolean("bloom.enabled", true);
+    private static final long REFRESH_MS = Math.max(Config.getLong("bloom.refreshMs", 10000),
+            2 * ReplicaWriter.WRITE_TIMEOUT_MS);
+
+    private final HashRing hashRing;
+    private final SlaveConnectionPool slavePool;
+    private final int replicationFactor;
+    private final Map<String, TableFilter> filters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+    private final LongAdder definiteMisses = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public SlaveFilters(HashRing hashRing, SlaveConnectionPool slavePool, int replicationFactor) {
+        this.hashRing = hashRing;
+        this.slavePool = slavePool;
+        this.replicationFactor = replicationFactor;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "BloomRefresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Filter of one slave table
+     */
+    private static final class TableFilter {
+        volatile BloomFilter current;
+        volatile BloomFilter previous;
+
+        synchronized void install(BloomFilter fresh) {
+            previous = current;
+            current = fresh;
+        }
+
+        synchronized void reset() {
+            previous = null;
+            current = null;
+        }
+    }
+
+    public void start() {
+        if (ENABLED) {
+            refresher.scheduleWithFixedDelay(this::refreshAll, REFRESH_MS, REFRESH_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Check a key against the filters of all its replicas (index = rank)
+     * @return FALSE if no replica can hold the key, TRUE if one might,
+     *         null if some replica's filter is not available
+     */
+    public Boolean mightContain(List<ServerNode> replicas, String key) {
+        if (!ENABLED) {
+            return null;
+        }
+        long hash = BloomFilter.hash(key);
+        for (int rank = 0; rank < replicas.size(); rank++) {
+            TableFilter table = filters.get(tableKey(replicas.get(rank).getAddress(), rank));
+            if (table == null) {
+                return null;
+            }
+            BloomFilter current = table.current;
+            BloomFilter previous = table.previous;
+            if (current == null || previous == null) {
+                return null;
+            }
+            if (current.mightContainHash(hash) || previous.mightContainHash(hash)) {
+                return Boolean.TRUE;
+            }
+        }
+        definiteMisses.increment();
+        return Boolean.FALSE;
+    }
+
+    /**
+     * A key the filters passed turned out to be absent
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * Note a key about to be written to a slave table (before the request is sent)
+     */
+    public void recordWrite(String address, int rank, String key) {
+        if (!ENABLED) {
+            return;
+        }
+        TableFilter table = filters.get(tableKey(address, rank));
+        BloomFilter current = table == null ? null : table.current;
+        if (current != null) {
+            current.add(key);
+        }
+    }
+
+    public long getDefiniteMisses() {
+        return definiteMisses.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Observed false positive rate: absent keys the filters let through,
+     * out of all absent keys looked up
+     */
+    public double getFalsePositiveRate() {
+        long fp = falsePositives.sum();
+        long total = fp + definiteMisses.sum();
+        return total == 0 ? 0.0 : (double) fp / total;
+    }
+
+    /**
+     * Mean false positive rate implied by how full the current filters are
+     */
+    public double getEstimatedFalsePositiveRate() {
+        double sum = 0;
+        int count = 0;
+        for (TableFilter table : filters.values()) {
+            BloomFilter current = table.current;
+            if (current != null) {
+                sum += current.estimatedFalsePositiveRate();
+                count++;
+            }
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    public void display() {
+        if (!ENABLED) {
+            return;
+        }
+        Log.info(String.format("=== Bloom Filters (%d tables, definite misses: %d, false positives: %d, " +
+                "FP rate: %.2f%%, estimated: %.2f%%) ===", filters.size(), getDefiniteMisses(), getFalsePositives(),
+                100 * getFalsePositiveRate(), 100 * getEstimatedFalsePositiveRate()));
+    }
+
+    private void refreshAll() {
+        try {
+            Set<String> servers = hashRing.getOwnership().keySet();
+            filters.keySet().removeIf(tableKey -> !servers.contains(tableKey.substring(0, tableKey.lastIndexOf('#'))));
+            for (String address : servers) {
+                for (int rank = 0; rank < replicationFactor; rank++) {
+                    refresh(address, rank);
+                }
+            }
+        } catch (Exception e) {
+            Log.warn("[BLOOM] Refresh failed: " + e.getMessage());
+        }
+    }
+
+    private void refresh(String address, int rank) {
+        TableFilter table = filters.computeIfAbsent(tableKey(address, rank), k -> new TableFilter());
+        try {
+            Message reply = slavePool.call(new ServerNode(0, address),
+                    new Message().setReqType("bloom").setTable(ReplicaTable.name(rank)));
+            if ("data".equals(reply.getReqType())) {
+                table.install(BloomFilter.fromBytes(Base64.getDecoder().decode(reply.getMessage())));
+                return;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.warn("[BLOOM] Could not fetch filter from " + address + ": " + e.getMessage());
+        }
+        // Older slave, filter too large, or unreachable: always ask the slave
+        table.reset();
+    }
+
+    private static String tableKey(String address, int rank) {
+        return address + "#" + rank;
+    }
+}
@@ -0,0 +1,21 @@
+package com.kvstore.coordinator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues increasing write versions
+ * A version is the wall clock in milliseconds shifted left by 20 bits, bumped
+ * by one whenever that would not be larger than the last version issued.
+ * Versions therefore keep growing across coordinator restarts as long as the
+ * clock does not jump back.
+ */
+final class VersionClock {
+    private static final int COUNTER_BITS = 20;
+
+    private final AtomicLong last = new AtomicLong();
+
+    long next() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        return last.accumulateAndGet(now, (previous, time) -> Math.max(previous + 1, time));
+    }
+}
@@ -1,36 +1,295 @@
 package com.kvstore.slave;
 
+import com.kvstore.common.Config;
+import com.kvstore.common.Log;
+import com.kvstore.common.ReplicaTable;
+import com.kvstore.common.Versioned;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Data storage for slave server
- * Maintains two tables:
- * - OWN table: Primary data this server is responsible for
- * - PREV table: Replica data from predecessor server
+ * Maintains one table per replica rank, the position of this server in a
+ * key's preference list (the first distinct servers clockwise from the key):
+ * - OWN table (rank 0): keys this server is the primary for
+ * - PREV table (rank 1): keys it holds the first replica of
+ * - replica-k table (rank k): keys it holds the k-th replica of
+ * With virtual nodes a rank table is not one contiguous range: it collects
+ * the keys of every arc where this server comes k-th, and the servers ahead
+ * of it differ from arc to arc, so a table is never handed over as a unit
+ * when the ring changes.
+ *
+ * The tables live in a StorageEngine: MemoryEngine keeps them on the heap,
+ * LsmEngine keeps them in sorted files on disk for datasets larger than RAM.
+ *
+ * With a WriteAheadLog attached, every successful mutation is logged and the
+ * tables are rebuilt from the log on startup. A mutation and its log append
+ * happen under a lock striped by key, so each key's log order matches the
+ * order its changes were applied; waiting for the disk happens outside it.
+ *
+ * snapshot() checkpoints the engine while writers keep going and then deletes
+ * the log segments the previous checkpoint covers, so recovery opens the
+ * engine and replays only the log written after it, and can still fall back
+ * to the previous snapshot if the newest is damaged.
+ *
+ * Values are stored together with the version the coordinator gave their
+ * write, encoded in front of the value (VERSION_MARK, version, VERSION_MARK),
+ * so engines, log and snapshots need no format change; values written
+ * before versions existed are read as version 0. A put or update carrying a
+ * lower version than the stored value lost a race with a newer write (or is
+ * a late retry of it) and is skipped, but still reported as applied.
+ * Deletes carry a version too and leave a tombstone with it, so a put older
+ * than the delete that arrives after it is skipped instead of bringing the
+ * key back. Tombstones are logged with the delete and rebuilt on replay; they
+ * are dropped once a snapshot covers their delete (a restart would not bring
+ * them back either) or after TOMBSTONE_TTL_MS, long enough to outlast any
+ * delayed or retried write.
+ *
+ * Each table also keeps a KeyFilter (bloom filter of its keys) that the
+ * coordinator fetches to answer GETs for absent keys without asking us.
  */
 public class DataStore {
-    private final ConcurrentHashMap<String, String> ownTable;
-    private final ConcurrentHashMap<String, String> prevTable;
+    private static final int LOCK_STRIPES = 256;
+    private static final boolean FILTERS_ENABLED = Config.getBoolean("bloom.enabled", true);
+    private static final double FILTER_FP_RATE = Config.getDouble("bloom.fpRate", 0.01);
+    private static final char VERSION_MARK = '\u0000';
+    private static final long TOMBSTONE_TTL_MS = Config.getLong("tombstone.ttlMs", 600000);
+
+    private final StorageEngine engine;
+    private final WriteAheadLog wal;
+    private final Object[] locks;
+    private final Map<Integer, KeyFilter> filters = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<String, Tombstone>> tombstones = new ConcurrentHashMap<>();
+    private long snapshotLsn;
+    private long previousSnapshotLsn;
+
+    // Version of a delete, kept so older writes arriving after it are skipped
+    private static final class Tombstone {
+        final long version;
+        final long lsn; // 0 without a log
+        final long createdAt = System.currentTimeMillis();
+
+        Tombstone(long version, long lsn) {
+            this.version = version;
+            this.lsn = lsn;
+        }
+    }
 
     public DataStore() {
-        this.ownTable = new ConcurrentHashMap<>();
-        this.prevTable = new ConcurrentHashMap<>();
+        this(new MemoryEngine(null), null);
+    }
+
+    /**
+     * @param engine where the tables are stored
+     * @param wal    log of mutations, or null to rely on the engine alone
+     */
+    public DataStore(StorageEngine engine, WriteAheadLog wal) {
+        this.engine = engine;
+        this.wal = wal;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Open the engine and replay the write-ahead log written after its last
+     * checkpoint (call once, before serving)
+     */
+    public void recover() throws IOException {
+        long start = System.currentTimeMillis();
+        snapshotLsn = engine.open();
+        previousSnapshotLsn = snapshotLsn;
+        if (wal == null) {
+            return;
+        }
+        long replayed = wal.recover(snapshotLsn, entry -> {
+            if (entry.op == WriteAheadLog.PUT) {
+                engine.put(entry.rank, entry.key, entry.value);
+                tombstones(entry.rank).remove(entry.key);
+            } else {
+                engine.remove(entry.rank, entry.key);
+                if (entry.value != null) {
+                    tombstones(entry.rank).merge(entry.key, new Tombstone(decode(entry.value).getVersion(), entry.lsn),
+                            (kept, logged) -> kept.version >= logged.version ? kept : logged);
+                }
+            }
+        });
+        Log.info("[WAL] Replayed " + replayed + " records in " + (System.currentTimeMillis() - start) +
+                 "ms (fsync " + wal.getPolicy() + ")");
+    }
+
+    /**
+     * Build the key filters of every table (call once after recover())
+     */
+    public void buildFilters() {
+        if (!FILTERS_ENABLED) {
+            return;
+        }
+        for (int rank : engine.ranks()) {
+            filter(rank).rebuild(engine.size(rank), keys -> engine.forEach(rank, (key, value) -> keys.accept(key)));
+        }
+    }
+
+    /**
+     * Rebuild the key filters that have filled up or hold many deleted keys
+     */
+    public void maintainFilters() {
+        filters.forEach((rank, filter) -> {
+            if (filter.needsRebuild()) {
+                long start = System.currentTimeMillis();
+                long size = engine.size(rank);
+                filter.rebuild(size, keys -> engine.forEach(rank, (key, value) -> keys.accept(key)));
+                Log.info("[BLOOM] Rebuilt " + ReplicaTable.name(rank) + " filter for " + size + " keys in " +
+                         (System.currentTimeMillis() - start) + "ms");
+            }
+        });
+    }
+
+    /**
+     * Serialized key filter of a table, or null when filters are disabled
+     */
+    public byte[] keyFilter(String table) {
+        return FILTERS_ENABLED ? filter(ReplicaTable.rank(table)).toBytes() : null;
+    }
+
+    private KeyFilter filter(int rank) {
+        return filters.computeIfAbsent(rank, r -> new KeyFilter(FILTER_FP_RATE));
+    }
+
+    /**
+     * Checkpoint the engine if at least minRecords mutations were logged since
+     * the last checkpoint, then drop the log segments the previous checkpoint
+     * covers (recovery can fall back to it while the log reaches back there)
+     * Writers are not blocked: records logged while the checkpoint is written
+     * are replayed over it on recovery.
+     * @return LSN covered by the new checkpoint, or 0 if none was taken
+     */
+    public synchronized long snapshot(long minRecords) throws IOException {
+        if (wal == null || wal.lastLsn() - snapshotLsn < Math.max(1, minRecords)) {
+            return 0;
+        }
+        // Every record up to lsn is already applied to the engine
+        long lsn = wal.rollover();
+        engine.checkpoint(lsn);
+        int truncated = wal.truncateBefore(previousSnapshotLsn);
+        previousSnapshotLsn = lsn;
+        snapshotLsn = lsn;
+        int dropped = dropTombstones(lsn);
+        Log.info("[SNAPSHOT] Checkpoint at LSN " + lsn + " removed " + truncated + " log segments and " +
+                 dropped + " tombstones");
+        return lsn;
+    }
+
+    /**
+     * Drop tombstones older than TOMBSTONE_TTL_MS
+     * @return number of tombstones dropped
+     */
+    public int purgeTombstones() {
+        return dropTombstones(0);
+    }
+
+    // Drops tombstones whose delete is covered by the checkpoint at coveredLsn
+    // (0 for none) or that have expired
+    private int dropTombstones(long coveredLsn) {
+        long expired = System.currentTimeMillis() - TOMBSTONE_TTL_MS;
+        int dropped = 0;
+        for (Map<String, Tombstone> table : tombstones.values()) {
+            for (Map.Entry<String, Tombstone> entry : table.entrySet()) {
+                Tombstone tombstone = entry.getValue();
+                if (((coveredLsn > 0 && tombstone.lsn <= coveredLsn) || tombstone.createdAt <= expired) &&
+                        table.remove(entry.getKey(), tombstone)) {
+                    dropped++;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Number of tombstones currently kept
+     */
+    public long getTombstoneCount() {
+        long count = 0;
+        for (Map<String, Tombstone> table : tombstones.values()) {
+            count += table.size();
+        }
+        return count;
+    }
+
+    /**
+     * Flush and close the write-ahead log and the engine
+     */
+    public void close() throws IOException {
+        if (wal != null) {
+            wal.close();
+        }
+        engine.close();
+    }
+
+    public String describeEngine() {
+        return engine.describe();
     }
 
     /**
      * Get value from specified table
      */
     public String get(String key, String table) {
-        ConcurrentHashMap<String, String> targetTable = getTable(table);
-        return targetTable.get(key);
+        Versioned entry = getVersioned(key, table);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Get value and its version from specified table
+     */
+    public Versioned getVersioned(String key, String table) {
+        return decode(engine.get(ReplicaTable.rank(table), key));
     }
 
     /**
      * Put key-value in specified table
      */
     public void put(String key, String value, String table) {
-        ConcurrentHashMap<String, String> targetTable = getTable(table);
-        targetTable.put(key, value);
+        put(key, value, 0, table);
+    }
+
+    /**
+     * Put key-value, written with the given version (0 if unknown), in specified table
+     */
+    public void put(String key, String value, long version, String table) {
+        commit(applyPut(key, value, version, ReplicaTable.rank(table)));
+    }
+
+    /**
+     * Put a batch of key-values (tables.get(i) names the table of keys.get(i)),
+     * all written with the given version
+     * Waits for the log once, for the whole batch.
+     */
+    public void putAll(List<String> keys, List<String> values, List<String> tables, long version) {
+        long lsn = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            lsn = Math.max(lsn, applyPut(keys.get(i), values.get(i), version, ReplicaTable.rank(tables.get(i))));
+        }
+        commit(lsn);
+    }
+
+    // Returns the LSN to commit (0 without a log)
+    private long applyPut(String key, String value, long version, int rank) {
+        synchronized (lockFor(key)) {
+            if (isNewer(engine.get(rank, key), version) || deletedAfter(rank, key, version)) {
+                return skipped();
+            }
+            String stored = encode(value, version);
+            engine.put(rank, key, stored);
+            tombstones(rank).remove(key);
+            if (FILTERS_ENABLED) {
+                filter(rank).add(key);
+            }
+            return wal != null ? wal.append(WriteAheadLog.PUT, rank, key, stored) : 0;
+        }
     }
 
     /**
@@ -38,12 +297,34 @@ public class DataStore {
      * Returns true if key exists, false otherwise
      */
     public boolean update(String key, String value, String table) {
-        ConcurrentHashMap<String, String> targetTable = getTable(table);
-        if (targetTable.containsKey(key)) {
-            targetTable.put(key, value);
-            return true;
+        return update(key, value, 0, table);
+    }
+
+    /**
+     * Update key-value, written with the given version (0 if unknown), in specified table
+     * Returns true if key exists, false otherwise
+     */
+    public boolean update(String key, String value, long version, String table) {
+        int rank = ReplicaTable.rank(table);
+        String stored = encode(value, version);
+        long lsn = 0;
+        synchronized (lockFor(key)) {
+            String existing = engine.get(rank, key);
+            if (existing == null) {
+                return false;
+            }
+            if (isNewer(existing, version)) {
+                lsn = skipped();
+            } else {
+                engine.put(rank, key, stored);
+                if (wal != null) {
+                    // Logged as the resulting value so replay is idempotent
+                    lsn = wal.append(WriteAheadLog.PUT, rank, key, stored);
+                }
+            }
         }
-        return false;
+        commit(lsn);
+        return true;
     }
 
     /**
@@ -51,46 +332,169 @@ public class DataStore {
      * Returns true if key existed, false otherwise
      */
     public boolean delete(String key, String table) {
-        ConcurrentHashMap<String, String> targetTable = getTable(table);
-        return targetTable.remove(key) != null;
+        return delete(key, 0, table);
     }
 
     /**
-     * Check if key exists in specified table
+     * Delete key, written with the given version (0 if unknown), from specified table
+     * Returns true if key existed, false otherwise
      */
-    public boolean containsKey(String key, String table) {
-        ConcurrentHashMap<String, String> targetTable = getTable(table);
-        return targetTable.containsKey(key);
+    public boolean delete(String key, long version, String table) {
+        long result = applyDelete(key, version, ReplicaTable.rank(table));
+        commit(result >= 0 ? result : -result - 1);
+        return result >= 0;
     }
 
     /**
-     * Get the appropriate table (OWN or PREV)
+     * Delete a batch of keys (tables.get(i) names the table of keys.get(i)),
+     * all written with the given version
+     * Waits for the log once, for the whole batch.
+     * @return per key, true if it existed
      */
-    private ConcurrentHashMap<String, String> getTable(String table) {
-        return "own".equalsIgnoreCase(table) ? ownTable : prevTable;
+    public boolean[] deleteAll(List<String> keys, List<String> tables, long version) {
+        boolean[] existed = new boolean[keys.size()];
+        long lsn = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            long result = applyDelete(keys.get(i), version, ReplicaTable.rank(tables.get(i)));
+            existed[i] = result >= 0;
+            lsn = Math.max(lsn, result >= 0 ? result : -result - 1);
+        }
+        commit(lsn);
+        return existed;
+    }
+
+    // Returns the LSN to commit (0 without a log), or -(LSN + 1) if the key did
+    // not exist. A versioned delete of an absent key still leaves a tombstone:
+    // the put it overtook may arrive later. Unversioned deletes (e.g. removing
+    // migrated legacy copies) always apply and leave none.
+    private long applyDelete(String key, long version, int rank) {
+        synchronized (lockFor(key)) {
+            String existing = engine.get(rank, key);
+            if (version > 0 && isNewer(existing, version)) {
+                return skipped();
+            }
+            boolean existed = existing != null && engine.remove(rank, key);
+            if (existed && FILTERS_ENABLED) {
+                filter(rank).removed();
+            }
+            boolean remember = version > 0 && !deletedAfter(rank, key, version - 1);
+            if (!existed && !remember) {
+                return -1;
+            }
+            long lsn = wal != null
+                    ? wal.append(WriteAheadLog.DELETE, rank, key, version > 0 ? encode("", version) : null)
+                    : 0;
+            if (remember) {
+                tombstones(rank).put(key, new Tombstone(version, lsn));
+            }
+            return existed ? lsn : -lsn - 1;
+        }
     }
 
     /**
-     * Display contents of both tables (for debugging)
+     * Check if key exists in specified table
      */
-    public void display() {
-        System.out.println("\n=== Data Store Contents ===");
-        System.out.println("OWN Table (Primary): " + ownTable.size() + " entries");
-        ownTable.forEach((k, v) -> System.out.println("  " + k + " = " + v));
+    public boolean containsKey(String key, String table) {
+        return engine.get(ReplicaTable.rank(table), key) != null;
+    }
 
-        System.out.println("PREV Table (Replica): " + prevTable.size() + " entries");
-        prevTable.forEach((k, v) -> System.out.println("  " + k + " = " + v));
-        System.out.println("===========================\n");
+    // Stored form of a value; unversioned values are kept as they are unless
+    // they could be mistaken for an encoded one
+    private static String encode(String value, long version) {
+        if (version == 0 && (value.isEmpty() || value.charAt(0) != VERSION_MARK)) {
+            return value;
+        }
+        return VERSION_MARK + Long.toString(version, 36) + VERSION_MARK + value;
+    }
+
+    private static Versioned decode(String stored) {
+        if (stored == null) {
+            return null;
+        }
+        if (!stored.isEmpty() && stored.charAt(0) == VERSION_MARK) {
+            int end = stored.indexOf(VERSION_MARK, 1);
+            if (end > 1) {
+                try {
+                    return new Versioned(stored.substring(end + 1), Long.parseLong(stored.substring(1, end), 36));
+                } catch (NumberFormatException e) {
+                    // Not written by encode(): a plain value
+                }
+            }
+        }
+        return new Versioned(stored, 0);
+    }
+
+    // True if the stored value was written with a higher version than version
+    private static boolean isNewer(String stored, long version) {
+        return stored != null && !stored.isEmpty() && stored.charAt(0) == VERSION_MARK &&
+               decode(stored).getVersion() > version;
+    }
+
+    // True if the key's tombstone was written with a higher version than version
+    private boolean deletedAfter(int rank, String key, long version) {
+        Map<String, Tombstone> table = tombstones.get(rank);
+        Tombstone tombstone = table == null ? null : table.get(key);
+        return tombstone != null && tombstone.version > version;
+    }
+
+    private Map<String, Tombstone> tombstones(int rank) {
+        return tombstones.computeIfAbsent(rank, r -> new ConcurrentHashMap<>());
+    }
+
+    // LSN to wait for before acknowledging a skipped write: the newer write
+    // that superseded it may not be durable yet
+    private long skipped() {
+        return wal != null ? wal.lastLsn() : 0;
+    }
+
+    private void commit(long lsn) {
+        if (wal != null) {
+            wal.commit(lsn);
+        }
+    }
+
+    private Object lockFor(String key) {
+        return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * Display contents of all tables (for debugging)
+     */
+    public void display() {
+        StringBuilder dump = new StringBuilder("=== Data Store Contents ===");
+        for (int rank : engine.ranks()) {
+            String label = rank == 0 ? "Primary" : "Replica";
+            dump.append('\n').append(ReplicaTable.name(rank).toUpperCase()).append(" Table (").append(label)
+                .append("): ").append(engine.size(rank)).append(" entries");
+            engine.forEach(rank, (k, v) -> dump.append("\n  ").append(k).append(" = ").append(decode(v)));
+        }
+        dump.append("\n===========================");
+        Log.info(dump.toString());
     }
 
     /**
      * Get statistics
      */
     public int getOwnTableSize() {
-        return ownTable.size();
+        return getTableSize(0);
     }
 
     public int getPrevTableSize() {
-        return prevTable.size();
+        return getTableSize(1);
+    }
+
+    public int getTableSize(int rank) {
+        return (int) Math.min(Integer.MAX_VALUE, engine.size(rank));
+    }
+
+    /**
+     * Entries per table, by table name
+     */
+    public Map<String, Long> getTableSizes() {
+        Map<String, Long> sizes = new TreeMap<>();
+        for (int rank : engine.ranks()) {
+            sizes.put(ReplicaTable.name(rank), engine.size(rank));
+        }
+        return sizes;
     }
 }
@@ -0,0 +1,27 @@
+package com.kvstore.slave;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fsync of a directory, so files created, renamed or deleted in it survive a
+ * power loss (syncing a file does not persist its directory entry)
+ */
+final class DirectorySync {
+    // Windows cannot open a directory as a channel; NTFS journals the metadata
+    private static final boolean SUPPORTED = !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    private DirectorySync() {
+    }
+
+    static void force(Path directory) throws IOException {
+        if (!SUPPORTED) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
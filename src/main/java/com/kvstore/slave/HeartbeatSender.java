@@ -1,8 +1,11 @@
 package com.kvstore.slave;
 
+import com.kvstore.common.Log;
 import com.kvstore.common.Message;
+import com.kvstore.common.MessageCodec;
 import java.io.IOException;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Sends heartbeat messages to Coordination Server
@@ -28,7 +31,7 @@ public class HeartbeatSender implements Runnable {
         try (DatagramSocket socket = new DatagramSocket()) {
             InetAddress csAddress = InetAddress.getByName("127.0.0.1");
 
-            System.out.println("[HEARTBEAT] Starting heartbeat sender (every " + (HEARTBEAT_INTERVAL/1000) + "s)");
+            Log.info("[HEARTBEAT] Starting heartbeat sender (every " + (HEARTBEAT_INTERVAL/1000) + "s)");
 
             while (running) {
                 try {
@@ -37,7 +40,9 @@ public class HeartbeatSender implements Runnable {
                             .setReqType("heartbeat")
                             .setMessage(address);
 
-                    byte[] buffer = heartbeat.toString().getBytes();
+                    byte[] buffer = MessageCodec.BINARY.equals(MessageCodec.preferredProtocol())
+                            ? MessageCodec.encode(heartbeat)
+                            : heartbeat.toString().getBytes(StandardCharsets.UTF_8);
                     DatagramPacket packet = new DatagramPacket(
                             buffer,
                             buffer.length,
@@ -47,7 +52,7 @@ public class HeartbeatSender implements Runnable {
 
                     // Send heartbeat
                     socket.send(packet);
-                    System.out.println("[HEARTBEAT] Sent to CS");
+                    Log.debug("[HEARTBEAT] Sent to CS");
 
                     // Wait for next interval
                     Thread.sleep(HEARTBEAT_INTERVAL);
@@ -56,16 +61,16 @@ public class HeartbeatSender implements Runnable {
                     Thread.currentThread().interrupt();
                     break;
                 } catch (IOException e) {
-                    System.err.println("[HEARTBEAT] Error sending heartbeat: " + e.getMessage());
+                    Log.warn("[HEARTBEAT] Error sending heartbeat: " + e.getMessage());
                 }
             }
         } catch (SocketException e) {
-            System.err.println("[HEARTBEAT] Failed to create UDP socket: " + e.getMessage());
+            Log.error("[HEARTBEAT] Failed to create UDP socket: " + e.getMessage());
         } catch (UnknownHostException e) {
-            System.err.println("[HEARTBEAT] Unknown host: " + e.getMessage());
+            Log.warn("[HEARTBEAT] Unknown host: " + e.getMessage());
         }
 
-        System.out.println("[HEARTBEAT] Heartbeat sender stopped");
+        Log.info("[HEARTBEAT] Heartbeat sender stopped");
     }
 
     public void shutdown() {
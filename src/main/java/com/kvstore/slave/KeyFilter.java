@@ -0,0 +1,78 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.BloomFilter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bloom filter over the keys of one DataStore table, published to the coordinator
+ * Keys are added as they are written. Deleted keys cannot be taken out of a
+ * bloom filter, so the filter is rebuilt from the table once many keys were
+ * deleted or the table has outgrown the size the filter was built for.
+ */
+final class KeyFilter {
+    private static final long MIN_CAPACITY = 1024;
+
+    private final double falsePositiveRate;
+    private volatile BloomFilter filter;
+    private volatile BloomFilter building; // Also receives adds while a rebuild scans the table
+    private volatile long capacity;
+    private final AtomicLong inserts = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+
+    KeyFilter(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+        this.capacity = MIN_CAPACITY;
+        this.filter = new BloomFilter(capacity, falsePositiveRate);
+    }
+
+    /**
+     * Record a key written to the table (call after the write is applied)
+     */
+    void add(String key) {
+        long hash = BloomFilter.hash(key);
+        // Read building before filter: a rebuild publishes filter before clearing building
+        BloomFilter next = building;
+        filter.addHash(hash);
+        if (next != null) {
+            next.addHash(hash);
+        }
+        inserts.incrementAndGet();
+    }
+
+    void removed() {
+        deletes.incrementAndGet();
+    }
+
+    /**
+     * True once the filter is over capacity or a third of its keys were deleted
+     */
+    boolean needsRebuild() {
+        return inserts.get() > capacity || deletes.get() > capacity / 3;
+    }
+
+    /**
+     * Replace the filter with one built from the table's current keys
+     * @param size current number of keys in the table
+     * @param scan feeds every key of the table to its argument
+     */
+    synchronized void rebuild(long size, Consumer<Consumer<String>> scan) {
+        long newCapacity = Math.max(MIN_CAPACITY, size * 2);
+        BloomFilter next = new BloomFilter(newCapacity, falsePositiveRate);
+        building = next;
+        long[] scanned = new long[1];
+        scan.accept(key -> {
+            next.add(key);
+            scanned[0]++;
+        });
+        capacity = newCapacity;
+        inserts.set(scanned[0]);
+        deletes.set(0);
+        filter = next;
+        building = null;
+    }
+
+    byte[] toBytes() {
+        return filter.toBytes();
+    }
+}
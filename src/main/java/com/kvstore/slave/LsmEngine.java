@@ -0,0 +1,791 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.Config;
+import com.kvstore.common.Log;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Log-structured merge-tree storage engine for datasets larger than the heap
+ *
+ * Writes go to a sorted in-memory memtable. Once it reaches MEMTABLE_BYTES it is
+ * frozen and a background thread writes it out as an immutable SSTable in
+ * level 0. When level 0 holds L0_COMPACTION_TRIGGER tables they are merged into
+ * level 1, and each deeper level n is kept under LEVEL_BASE_BYTES * 10^(n-1) by
+ * merging one of its tables at a time into level n+1. Tables of level 1 and
+ * below never overlap, so a lookup checks the memtables, the level-0 tables
+ * (newest first) and at most one table per deeper level, and a per-table bloom
+ * filter skips most tables that do not hold the key.
+ *
+ * All ranks share one sorted key space with the rank as a one-character key
+ * prefix. Deletes are written as tombstones, which are dropped once compaction
+ * reaches the deepest populated level.
+ *
+ * The live tables are listed in a MANIFEST file, rewritten atomically on every
+ * change together with the LSN of the last checkpoint and the number of live
+ * keys per rank in those tables. Each memtable counts how many keys its writes
+ * added or removed per rank, and the count moves to the tables when it is
+ * flushed, so size() never has to scan.
+ *
+ * Lookups and scans pin the Version they read, and every installed Version
+ * holds a reference on its tables. A table replaced by compaction is closed
+ * and deleted once the last Version listing it has been replaced and
+ * released by its readers, however long a scan takes.
+ */
+public class LsmEngine implements StorageEngine {
+    // Marks a deleted key in memtables and merge output; compared by identity
+    static final String TOMBSTONE = new String("<tombstone>");
+
+    private static final long MEMTABLE_BYTES = Config.getLong("lsm.memtableBytes", 16L << 20);
+    private static final int L0_COMPACTION_TRIGGER = Config.getInt("lsm.l0CompactionTrigger", 4);
+    private static final long LEVEL_BASE_BYTES = Config.getLong("lsm.levelBaseBytes", 64L << 20);
+    private static final long TARGET_FILE_BYTES = Config.getLong("lsm.targetFileBytes", 8L << 20);
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    private static final int MAX_IMMUTABLE_MEMTABLES = 4; // Writers stall beyond this many unflushed memtables
+    private static final int LEVEL_MULTIPLIER = 10;
+    private static final int MAX_LEVELS = 7;
+    private static final String MANIFEST = "MANIFEST";
+
+    private final Path directory;
+    private final ScheduledThreadPoolExecutor background;
+    private final ReentrantReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    private final Object stall = new Object();
+    private final Set<Integer> ranks = new ConcurrentSkipListSet<>();
+    private final String[] compactPointers = new String[MAX_LEVELS];
+
+    private volatile Memtable active = new Memtable();
+    private volatile List<Memtable> immutables = Collections.emptyList(); // Newest first
+    private volatile Version version = Version.empty();
+    private volatile Map<Integer, Long> tableCounts = Collections.emptyMap(); // Live keys per rank in the tables
+    private volatile boolean closed;
+    private long nextFileNumber = 1;
+    private long checkpointLsn;
+
+    public LsmEngine(Path directory) {
+        this.directory = directory;
+        this.background = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "LsmCompactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        background.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        ranks.add(0);
+        ranks.add(1);
+    }
+
+    /**
+     * Memtable: sorted map from internal key to value or TOMBSTONE
+     */
+    private static final class Memtable {
+        final ConcurrentSkipListMap<String, String> entries = new ConcurrentSkipListMap<>();
+        final AtomicLong bytes = new AtomicLong();
+        final Map<Integer, AtomicLong> deltas = new ConcurrentHashMap<>(); // Live keys added (or removed) per rank
+
+        long delta(int rank) {
+            AtomicLong delta = deltas.get(rank);
+            return delta == null ? 0 : delta.get();
+        }
+    }
+
+    /**
+     * Immutable set of live tables: levels.get(0) is newest first, deeper
+     * levels are sorted by first key
+     * refs counts the engine (while this is the current version) and the
+     * readers pinning it; once it drops to zero it can never be pinned again.
+     */
+    private static final class Version {
+        final List<List<SSTable>> levels;
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        private Version(List<List<SSTable>> levels) {
+            this.levels = levels;
+        }
+
+        boolean pin() {
+            while (true) {
+                int n = refs.get();
+                if (n == 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        static Version empty() {
+            List<List<SSTable>> levels = new ArrayList<>();
+            for (int i = 0; i < MAX_LEVELS; i++) {
+                levels.add(Collections.emptyList());
+            }
+            return new Version(Collections.unmodifiableList(levels));
+        }
+
+        Version withLevel0(SSTable table) {
+            List<SSTable> level0 = new ArrayList<>(levels.get(0).size() + 1);
+            level0.add(table);
+            level0.addAll(levels.get(0));
+            return with(0, level0);
+        }
+
+        Version with(int level, List<SSTable> tables) {
+            List<List<SSTable>> copy = new ArrayList<>(levels);
+            if (level > 0) {
+                tables.sort(Comparator.comparing(t -> t.firstKey));
+            }
+            copy.set(level, Collections.unmodifiableList(tables));
+            return new Version(Collections.unmodifiableList(copy));
+        }
+
+        long levelBytes(int level) {
+            long bytes = 0;
+            for (SSTable table : levels.get(level)) {
+                bytes += table.fileSize;
+            }
+            return bytes;
+        }
+
+        List<SSTable> all() {
+            List<SSTable> all = new ArrayList<>();
+            levels.forEach(all::addAll);
+            return all;
+        }
+    }
+
+    @Override
+    public synchronized long open() throws IOException {
+        Files.createDirectories(directory);
+        Path manifest = directory.resolve(MANIFEST);
+        Version loaded = Version.empty();
+        Set<Long> live = new HashSet<>();
+        Map<Integer, Long> counts = new TreeMap<>();
+        boolean counted = false;
+        if (Files.exists(manifest)) {
+            List<List<SSTable>> levels = new ArrayList<>();
+            for (int i = 0; i < MAX_LEVELS; i++) {
+                levels.add(new ArrayList<>());
+            }
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                switch (parts[0]) {
+                    case "lsn":
+                        checkpointLsn = Long.parseLong(parts[1]);
+                        break;
+                    case "next":
+                        nextFileNumber = Long.parseLong(parts[1]);
+                        break;
+                    case "ranks":
+                        for (String rank : parts[1].split(",")) {
+                            ranks.add(Integer.parseInt(rank));
+                        }
+                        break;
+                    case "count":
+                        counts.put(Integer.parseInt(parts[1]), Long.parseLong(parts[2]));
+                        counted = true;
+                        break;
+                    case "table":
+                        long number = Long.parseLong(parts[2]);
+                        levels.get(Integer.parseInt(parts[1])).add(SSTable.open(directory, number));
+                        live.add(number);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            for (int level = 0; level < MAX_LEVELS; level++) {
+                loaded = loaded.with(level, levels.get(level));
+            }
+        }
+
+        // Tables left behind by a flush or compaction that never reached the manifest
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{sst,tmp}")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(".tmp") || !live.contains(Long.parseLong(name.substring(0, name.indexOf('.'))))) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+
+        List<SSTable> tables = loaded.all();
+        tables.forEach(SSTable::retain);
+        version = loaded;
+        if (!counted && !tables.isEmpty()) {
+            // Manifest written before key counts were kept: count the tables once
+            for (int rank : ranks) {
+                long[] count = new long[1];
+                forEach(rank, (key, value) -> count[0]++);
+                counts.put(rank, count[0]);
+            }
+        }
+        tableCounts = Collections.unmodifiableMap(counts);
+        long bytes = tables.stream().mapToLong(t -> t.fileSize).sum();
+        Log.info("[LSM] Opened " + tables.size() + " tables (" + (bytes >> 10) + " KB) at checkpoint LSN " +
+                 checkpointLsn);
+        return checkpointLsn;
+    }
+
+    @Override
+    public String get(int rank, String key) {
+        String value = lookup(internalKey(rank, key));
+        return value == TOMBSTONE ? null : value;
+    }
+
+    @Override
+    public void put(int rank, String key, String value) {
+        ranks.add(rank);
+        String internal = internalKey(rank, key);
+        String existing = lookup(internal);
+        write(rank, internal, value, existing == null || existing == TOMBSTONE ? 1 : 0);
+    }
+
+    @Override
+    public boolean remove(int rank, String key) {
+        String internal = internalKey(rank, key);
+        String existing = lookup(internal);
+        if (existing == null || existing == TOMBSTONE) {
+            return false;
+        }
+        write(rank, internal, TOMBSTONE, -1);
+        return true;
+    }
+
+    /**
+     * Flush every memtable and record lsn in the manifest
+     */
+    @Override
+    public void checkpoint(long lsn) throws IOException {
+        freezeMemtable(true);
+        Future<?> done = background.submit(() -> {
+            while (flushOldest()) {
+                // Drain every frozen memtable
+            }
+            checkpointLsn = lsn;
+            writeManifest(version, tableCounts);
+            return null;
+        });
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for checkpoint");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Checkpoint failed", e.getCause());
+        }
+        Log.info("[LSM] Checkpoint at LSN " + lsn + ": " + describeLevels(version));
+    }
+
+    @Override
+    public Set<Integer> ranks() {
+        return ranks;
+    }
+
+    /**
+     * Live keys counted in the tables plus what the memtables changed since;
+     * exact, as DataStore serializes the writers of a key
+     */
+    @Override
+    public long size(int rank) {
+        memtableLock.readLock().lock();
+        try {
+            long count = tableCounts.getOrDefault(rank, 0L) + active.delta(rank);
+            for (Memtable memtable : immutables) {
+                count += memtable.delta(rank);
+            }
+            return count;
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(int rank, BiConsumer<String, String> action) {
+        String from = String.valueOf((char) rank);
+        String to = String.valueOf((char) (rank + 1));
+        // Newest source first, so duplicates resolve to the latest value
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        sources.add(active.entries.subMap(from, to).entrySet().iterator());
+        for (Memtable memtable : immutables) {
+            sources.add(memtable.entries.subMap(from, to).entrySet().iterator());
+        }
+        Version current = pinVersion();
+        try {
+            for (List<SSTable> level : current.levels) {
+                for (SSTable table : level) {
+                    if (table.overlaps(from, to)) {
+                        sources.add(table.cursor(from));
+                    }
+                }
+            }
+            Iterator<Map.Entry<String, String>> merged = new MergingIterator(sources);
+            while (merged.hasNext()) {
+                Map.Entry<String, String> entry = merged.next();
+                if (entry.getKey().compareTo(to) >= 0) {
+                    break;
+                }
+                if (entry.getValue() != TOMBSTONE) {
+                    action.accept(entry.getKey().substring(1), entry.getValue());
+                }
+            }
+        } finally {
+            unpin(current);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "lsm (" + directory + ", memtable " + (MEMTABLE_BYTES >> 20) + " MB)";
+    }
+
+    /**
+     * Flush the memtable, finish background work and close every table
+     */
+    @Override
+    public void close() throws IOException {
+        freezeMemtable(true);
+        closed = true;
+        synchronized (stall) {
+            stall.notifyAll();
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SSTable table : version.all()) {
+            table.close();
+        }
+    }
+
+    private static String internalKey(int rank, String key) {
+        return (char) rank + key;
+    }
+
+    // Newest data wins: active memtable, frozen memtables, level 0, then deeper levels
+    private String lookup(String key) {
+        String value = active.entries.get(key);
+        if (value != null) {
+            return value;
+        }
+        for (Memtable memtable : immutables) {
+            value = memtable.entries.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        Version current = pinVersion();
+        try {
+            for (SSTable table : current.levels.get(0)) {
+                value = table.get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            for (int level = 1; level < MAX_LEVELS; level++) {
+                SSTable table = findTable(current.levels.get(level), key);
+                if (table != null && (value = table.get(key)) != null) {
+                    return value;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + directory, e);
+        } finally {
+            unpin(current);
+        }
+        return null;
+    }
+
+    // The current version, pinned so none of its tables is deleted until unpin
+    private Version pinVersion() {
+        while (true) {
+            Version current = version;
+            if (current.pin()) {
+                return current;
+            }
+            // Replaced and fully released in between: the new version is already published
+        }
+    }
+
+    private void unpin(Version pinned) {
+        if (pinned.refs.decrementAndGet() > 0) {
+            return;
+        }
+        for (SSTable table : pinned.all()) {
+            if (table.release()) {
+                try {
+                    table.close();
+                    Files.deleteIfExists(table.path);
+                } catch (IOException e) {
+                    Log.warn("[LSM] Failed to delete " + table.path + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // The only table of a non-overlapping level whose range can hold key
+    private static SSTable findTable(List<SSTable> level, String key) {
+        int low = 0;
+        int high = level.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            SSTable table = level.get(mid);
+            if (table.lastKey.compareTo(key) < 0) {
+                low = mid + 1;
+            } else if (table.firstKey.compareTo(key) > 0) {
+                high = mid - 1;
+            } else {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    // delta: change in the rank's live key count (the caller looked up the old value)
+    private void write(int rank, String key, String value, int delta) {
+        if (immutables.size() >= MAX_IMMUTABLE_MEMTABLES) {
+            awaitFlush();
+        }
+        long bytes;
+        memtableLock.readLock().lock();
+        try {
+            Memtable memtable = active;
+            memtable.entries.put(key, value);
+            if (delta != 0) {
+                memtable.deltas.computeIfAbsent(rank, r -> new AtomicLong()).addAndGet(delta);
+            }
+            bytes = memtable.bytes.addAndGet(2L * (key.length() + value.length()) + 64);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+        if (bytes >= MEMTABLE_BYTES) {
+            freezeMemtable(false);
+        }
+    }
+
+    // Back-pressure: flushing has fallen behind the write rate
+    private void awaitFlush() {
+        synchronized (stall) {
+            while (immutables.size() >= MAX_IMMUTABLE_MEMTABLES && !closed) {
+                try {
+                    stall.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Swap in a new active memtable and queue the old one for flushing
+     * @param force freeze even if the memtable is below MEMTABLE_BYTES
+     */
+    private void freezeMemtable(boolean force) {
+        memtableLock.writeLock().lock();
+        try {
+            Memtable frozen = active;
+            if (frozen.entries.isEmpty() || (!force && frozen.bytes.get() < MEMTABLE_BYTES)) {
+                return;
+            }
+            List<Memtable> pending = new ArrayList<>(immutables.size() + 1);
+            pending.add(frozen);
+            pending.addAll(immutables);
+            // Published before the new active memtable, so readers never miss the frozen one
+            immutables = Collections.unmodifiableList(pending);
+            active = new Memtable();
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        if (!closed) {
+            background.execute(this::flushAndCompact);
+        }
+    }
+
+    private void flushAndCompact() {
+        try {
+            while (flushOldest()) {
+                // Drain every frozen memtable
+            }
+            compact();
+        } catch (IOException | UncheckedIOException e) {
+            Log.warn("[LSM] Background flush/compaction failed: " + e.getMessage());
+            if (!closed) {
+                background.schedule(this::flushAndCompact, 1, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write the oldest frozen memtable to a level-0 table (background thread only)
+     * @return false if there was nothing to flush
+     */
+    private boolean flushOldest() throws IOException {
+        List<Memtable> pending = immutables;
+        if (pending.isEmpty()) {
+            return false;
+        }
+        Memtable oldest = pending.get(pending.size() - 1);
+        SSTable table;
+        try (SSTable.Writer writer = new SSTable.Writer(directory, nextFileNumber++, oldest.entries.size(),
+                BLOOM_FALSE_POSITIVE_RATE)) {
+            for (Map.Entry<String, String> entry : oldest.entries.entrySet()) {
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            table = writer.finish();
+        }
+        Map<Integer, Long> counts = new TreeMap<>(tableCounts);
+        oldest.deltas.forEach((rank, delta) -> counts.merge(rank, delta.get(), Long::sum));
+        commit(version.withLevel0(table), counts);
+
+        memtableLock.writeLock().lock();
+        try {
+            // Together, so size() never counts the memtable twice or not at all
+            tableCounts = Collections.unmodifiableMap(counts);
+            List<Memtable> remaining = new ArrayList<>(immutables);
+            remaining.remove(oldest);
+            immutables = Collections.unmodifiableList(remaining);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        synchronized (stall) {
+            stall.notifyAll();
+        }
+        return true;
+    }
+
+    // Merge until no level is over its limit (background thread only)
+    private void compact() throws IOException {
+        while (!closed) {
+            Version current = version;
+            if (current.levels.get(0).size() >= L0_COMPACTION_TRIGGER) {
+                compactInto(current, 0, new ArrayList<>(current.levels.get(0)));
+                continue;
+            }
+            int level = oversizedLevel(current);
+            if (level < 0) {
+                return;
+            }
+            compactInto(current, level, Collections.singletonList(pickTable(current.levels.get(level), level)));
+        }
+    }
+
+    private int oversizedLevel(Version current) {
+        long limit = LEVEL_BASE_BYTES;
+        for (int level = 1; level < MAX_LEVELS - 1; level++) {
+            if (current.levelBytes(level) > limit) {
+                return level;
+            }
+            limit *= LEVEL_MULTIPLIER;
+        }
+        return -1;
+    }
+
+    // Round-robin through a level's key range so every table eventually moves down
+    private SSTable pickTable(List<SSTable> tables, int level) {
+        String pointer = compactPointers[level];
+        if (pointer != null) {
+            for (SSTable table : tables) {
+                if (table.firstKey.compareTo(pointer) > 0) {
+                    return table;
+                }
+            }
+        }
+        return tables.get(0);
+    }
+
+    /**
+     * Merge upper (tables of level, newest first) with the overlapping tables of
+     * level + 1 and replace both with the output
+     */
+    private void compactInto(Version current, int level, List<SSTable> upper) throws IOException {
+        long start = System.currentTimeMillis();
+        int target = level + 1;
+        String from = null;
+        String to = null;
+        for (SSTable table : upper) {
+            from = from == null || table.firstKey.compareTo(from) < 0 ? table.firstKey : from;
+            to = to == null || table.lastKey.compareTo(to) > 0 ? table.lastKey : to;
+        }
+        List<SSTable> lower = new ArrayList<>();
+        for (SSTable table : current.levels.get(target)) {
+            if (table.overlaps(from, to)) {
+                lower.add(table);
+            }
+        }
+        boolean bottom = true;
+        for (int deeper = target + 1; deeper < MAX_LEVELS; deeper++) {
+            bottom &= current.levels.get(deeper).isEmpty();
+        }
+
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        long inputEntries = 0;
+        long inputBytes = 0;
+        for (SSTable table : upper) {
+            sources.add(table.cursor(null));
+            inputEntries += table.entryCount;
+            inputBytes += table.fileSize;
+        }
+        for (SSTable table : lower) {
+            sources.add(table.cursor(null));
+            inputEntries += table.entryCount;
+            inputBytes += table.fileSize;
+        }
+        long entriesPerFile = Math.min(inputEntries,
+                inputEntries * TARGET_FILE_BYTES / Math.max(1, inputBytes) + SSTable.INDEX_INTERVAL);
+
+        List<SSTable> outputs = new ArrayList<>();
+        SSTable.Writer writer = null;
+        try {
+            Iterator<Map.Entry<String, String>> merged = new MergingIterator(sources);
+            while (merged.hasNext()) {
+                Map.Entry<String, String> entry = merged.next();
+                if (bottom && entry.getValue() == TOMBSTONE) {
+                    continue; // Nothing older left for the tombstone to hide
+                }
+                if (writer == null) {
+                    writer = new SSTable.Writer(directory, nextFileNumber++, entriesPerFile, BLOOM_FALSE_POSITIVE_RATE);
+                }
+                writer.add(entry.getKey(), entry.getValue());
+                if (writer.bytesWritten() >= TARGET_FILE_BYTES) {
+                    outputs.add(writer.finish());
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                outputs.add(writer.finish());
+                writer = null;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            if (writer != null) {
+                writer.close();
+            }
+            for (SSTable output : outputs) {
+                output.close();
+                Files.deleteIfExists(output.path);
+            }
+            throw e;
+        }
+
+        List<SSTable> remainingUpper = new ArrayList<>(current.levels.get(level));
+        remainingUpper.removeAll(upper);
+        List<SSTable> newLower = new ArrayList<>(current.levels.get(target));
+        newLower.removeAll(lower);
+        newLower.addAll(outputs);
+        commit(current.with(level, remainingUpper).with(target, newLower), tableCounts);
+        compactPointers[level] = to;
+
+        Log.info("[LSM] Compacted " + upper.size() + " L" + level + " + " + lower.size() + " L" + target +
+                 " tables into " + outputs.size() + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Record next (with the live key counts of its tables) in the manifest and
+     * publish it; the replaced version is released, so tables only it listed
+     * are deleted as soon as no reader pins it any more
+     */
+    private void commit(Version next, Map<Integer, Long> counts) throws IOException {
+        writeManifest(next, counts);
+        next.all().forEach(SSTable::retain);
+        Version replaced = version;
+        version = next;
+        unpin(replaced);
+    }
+
+    private void writeManifest(Version next, Map<Integer, Long> counts) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("lsn ").append(checkpointLsn).append('\n');
+        sb.append("next ").append(nextFileNumber).append('\n');
+        StringJoiner rankList = new StringJoiner(",");
+        ranks.forEach(rank -> rankList.add(String.valueOf(rank)));
+        sb.append("ranks ").append(rankList).append('\n');
+        counts.forEach((rank, count) -> sb.append("count ").append(rank).append(' ').append(count).append('\n'));
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            for (SSTable table : next.levels.get(level)) {
+                sb.append("table ").append(level).append(' ').append(table.number).append('\n');
+            }
+        }
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        // Also persists the entries of the tables it lists, renamed into place before it
+        DirectorySync.force(directory);
+    }
+
+    private static String describeLevels(Version current) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            List<SSTable> tables = current.levels.get(level);
+            if (!tables.isEmpty()) {
+                joiner.add("L" + level + "=" + tables.size() + " tables/" + (current.levelBytes(level) >> 10) + " KB");
+            }
+        }
+        return joiner.length() == 0 ? "no tables" : joiner.toString();
+    }
+
+    /**
+     * Merges sorted sources into one sorted stream; for equal keys only the
+     * entry of the earliest (newest) source is returned
+     */
+    private static final class MergingIterator implements Iterator<Map.Entry<String, String>> {
+        private final PriorityQueue<Source> heap = new PriorityQueue<>((a, b) -> {
+            int comparison = a.head.getKey().compareTo(b.head.getKey());
+            return comparison != 0 ? comparison : Integer.compare(a.priority, b.priority);
+        });
+
+        private static final class Source {
+            final int priority;
+            final Iterator<Map.Entry<String, String>> iterator;
+            Map.Entry<String, String> head;
+
+            Source(int priority, Iterator<Map.Entry<String, String>> iterator) {
+                this.priority = priority;
+                this.iterator = iterator;
+            }
+        }
+
+        MergingIterator(List<Iterator<Map.Entry<String, String>>> sources) {
+            for (int i = 0; i < sources.size(); i++) {
+                advance(new Source(i, sources.get(i)));
+            }
+        }
+
+        private void advance(Source source) {
+            if (source.iterator.hasNext()) {
+                source.head = source.iterator.next();
+                heap.add(source);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            Source top = heap.poll();
+            if (top == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> result = top.head;
+            advance(top);
+            while (!heap.isEmpty() && heap.peek().head.getKey().equals(result.getKey())) {
+                advance(heap.poll());
+            }
+            return result;
+        }
+    }
+}
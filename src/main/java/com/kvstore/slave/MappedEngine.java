@@ -0,0 +1,728 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.Config;
+import com.kvstore.common.ConsistentHash;
+import com.kvstore.common.Log;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Off-heap storage engine: an open-addressing hash index and slab-allocated
+ * records, both in memory-mapped files
+ *
+ * index.map is a linear-probing table of (64-bit key hash, record address)
+ * slots. data.map is split into PAGE_BYTES pages; each page holds slots of a
+ * single size class (64, 128, 256, ... bytes) and a record (int32 key length,
+ * int32 value length, key, value) goes into the smallest slot it fits. The
+ * heap only holds one bit per slot (the free bitmaps) and a few counters, so
+ * the stored keys and values never add to GC work.
+ *
+ * Writes are copy-on-write: a new record is written to a free slot before its
+ * index slot is switched over, so a killed process leaves every index slot
+ * pointing at a complete record. Writers are serialized by a StampedLock;
+ * readers use optimistic reads and only take the read lock when a write
+ * overlapped them.
+ *
+ * After a clean shutdown the files are used as they are and startup only
+ * rebuilds the free bitmaps. After a crash every record is checked against
+ * its index slot, bad slots are dropped, and the write-ahead log replays
+ * everything after the last checkpoint.
+ */
+public class MappedEngine implements StorageEngine {
+    private static final int PAGE_BYTES = Math.max(1 << 16, Config.getInt("mapped.pageBytes", 4 << 20));
+    private static final int INITIAL_CAPACITY = Config.getInt("mapped.initialCapacity", 1 << 16);
+    private static final int MAX_CAPACITY = 1 << 26; // Keeps the index within one mapping
+    private static final double MAX_LOAD = 0.7;
+    private static final int MIN_SLOT = 64;
+    private static final int HEADER_BYTES = 64; // Index file header and page header
+    private static final int INDEX_MAGIC = 0x4B564958; // "KVIX"
+    private static final int PAGE_MAGIC = 0x4B565047; // "KVPG"
+    private static final long EMPTY = 0;
+    private static final long DELETED = 1;
+    private static final int NOT_FOUND = -1;
+    private static final int SCAN_CHUNK = 4096; // Index slots copied per read-lock hold in forEach
+    private static final String INDEX_FILE = "index.map";
+    private static final String DATA_FILE = "data.map";
+    private static final String META_FILE = "meta";
+
+    private final Path directory;
+    private final int[] slotSizes;
+    private final StampedLock lock = new StampedLock();
+    private final Map<Integer, AtomicLong> counts = new ConcurrentSkipListMap<>();
+
+    private FileChannel dataChannel;
+    private volatile Index index;
+    private volatile MappedByteBuffer[] pages = new MappedByteBuffer[0];
+    private long checkpointLsn;
+
+    // Allocation state, only touched by writers
+    private int[] pageClass = new int[0];
+    private long[][] bitmaps = new long[0][];
+    private int[] freeSlots = new int[0];
+    private int[] searchHints = new int[0];
+    private final List<ArrayDeque<Integer>> classPages = new ArrayList<>(); // Pages that may have free slots
+    private final ArrayDeque<Integer> emptyPages = new ArrayDeque<>(); // Pages that may be reassigned
+    private final BitSet emptyQueued = new BitSet();
+
+    public MappedEngine(Path directory) {
+        this.directory = directory;
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = MIN_SLOT; size < PAGE_BYTES - HEADER_BYTES; size <<= 1) {
+            sizes.add(size);
+        }
+        sizes.add(PAGE_BYTES - HEADER_BYTES);
+        this.slotSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+        for (int i = 0; i < slotSizes.length; i++) {
+            classPages.add(new ArrayDeque<>());
+        }
+        counter(0);
+        counter(1);
+    }
+
+    /**
+     * Mapped hash table of (hash, address) slots
+     */
+    private static final class Index {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final int mask;
+        int live;
+        int deleted;
+
+        Index(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+
+        long hashAt(int slot) {
+            return buffer.getLong(HEADER_BYTES + slot * 16);
+        }
+
+        long addressAt(int slot) {
+            return buffer.getLong(HEADER_BYTES + slot * 16 + 8);
+        }
+
+        void setHash(int slot, long hash) {
+            buffer.putLong(HEADER_BYTES + slot * 16, hash);
+        }
+
+        void setAddress(int slot, long address) {
+            buffer.putLong(HEADER_BYTES + slot * 16 + 8, address);
+        }
+    }
+
+    @Override
+    public synchronized long open() throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        boolean clean = readMeta();
+        Path indexPath = directory.resolve(INDEX_FILE);
+        boolean fresh = !Files.exists(indexPath);
+        index = fresh ? createIndex(indexPath, capacityFor(INITIAL_CAPACITY)) : openIndex(indexPath);
+        dataChannel = FileChannel.open(directory.resolve(DATA_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int existingPages = (int) (dataChannel.size() / PAGE_BYTES);
+        for (int p = 0; p < existingPages; p++) {
+            MappedByteBuffer page = mapPage();
+            int sizeClass = page.getInt(4);
+            if (page.getInt(0) == PAGE_MAGIC && sizeClass >= 0 && sizeClass < slotSizes.length) {
+                resetPage(p, sizeClass);
+            } else {
+                pageClass[p] = -1; // Never formatted
+            }
+        }
+
+        boolean trusted = fresh || clean;
+        if (!trusted) {
+            counts.clear();
+            counter(0);
+            counter(1);
+        }
+        Index idx = index;
+        int dropped = 0;
+        for (int slot = 0; slot < idx.capacity; slot++) {
+            long hash = idx.hashAt(slot);
+            if (hash == EMPTY) {
+                continue;
+            }
+            if (hash != DELETED) {
+                long address = idx.addressAt(slot);
+                int rank = trusted ? 0 : validRank(address, hash);
+                if (rank >= 0 && claim(address)) {
+                    idx.live++;
+                    if (!trusted) {
+                        counter(rank).incrementAndGet();
+                    }
+                    continue;
+                }
+                idx.setHash(slot, DELETED);
+                dropped++;
+            }
+            idx.deleted++;
+        }
+        for (int p = 0; p < pages.length; p++) {
+            if (isEmptyPage(p)) {
+                queueEmpty(p);
+            } else if (freeSlots[p] > 0) {
+                classPages.get(pageClass[p]).add(p);
+            }
+        }
+        writeMeta(false);
+
+        Log.info("[MAPPED] Opened " + idx.live + " entries, " + pages.length + " pages (" +
+                 ((long) pages.length * PAGE_BYTES >> 20) + " MB) in " +
+                 (System.currentTimeMillis() - start) + "ms" +
+                 (trusted ? "" : " after unclean shutdown, dropped " + dropped + " slots"));
+        return checkpointLsn;
+    }
+
+    @Override
+    public String get(int rank, String key) {
+        String internal = internalKey(rank, key);
+        long hash = hashOf(internal);
+        byte[] keyBytes = internal.getBytes(StandardCharsets.UTF_8);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                String value = lookup(hash, keyBytes);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // Slots were rewritten underneath us; only a real error if nothing changed
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return lookup(hash, keyBytes);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void put(int rank, String key, String value) {
+        String internal = internalKey(rank, key);
+        long hash = hashOf(internal);
+        byte[] keyBytes = internal.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        long stamp = lock.writeLock();
+        try {
+            long address = writeRecord(keyBytes, valueBytes);
+            Index idx = index;
+            int slot = find(idx, hash, keyBytes);
+            if (slot != NOT_FOUND) {
+                long old = idx.addressAt(slot);
+                idx.setAddress(slot, address);
+                free(old);
+                return;
+            }
+            if (idx.live + idx.deleted + 1 > idx.capacity * MAX_LOAD) {
+                idx = rehash(idx);
+            }
+            insert(idx, hash, address);
+            counter(rank).incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to grow " + directory, e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean remove(int rank, String key) {
+        String internal = internalKey(rank, key);
+        long hash = hashOf(internal);
+        byte[] keyBytes = internal.getBytes(StandardCharsets.UTF_8);
+        long stamp = lock.writeLock();
+        try {
+            Index idx = index;
+            int slot = find(idx, hash, keyBytes);
+            if (slot == NOT_FOUND) {
+                return false;
+            }
+            long address = idx.addressAt(slot);
+            idx.setHash(slot, DELETED);
+            idx.live--;
+            idx.deleted++;
+            free(address);
+            counter(rank).decrementAndGet();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Force both files to disk and record lsn; writers keep going meanwhile,
+     * and whatever they change is replayed from the log after a crash
+     */
+    @Override
+    public void checkpoint(long lsn) throws IOException {
+        long start = System.currentTimeMillis();
+        MappedByteBuffer[] current = pages;
+        for (MappedByteBuffer page : current) {
+            page.force();
+        }
+        index.buffer.force();
+        dataChannel.force(true);
+        checkpointLsn = lsn;
+        writeMeta(false);
+        Log.info("[MAPPED] Checkpoint at LSN " + lsn + ": forced " + current.length + " pages in " +
+                 (System.currentTimeMillis() - start) + "ms");
+    }
+
+    @Override
+    public Set<Integer> ranks() {
+        return counts.keySet();
+    }
+
+    @Override
+    public long size(int rank) {
+        AtomicLong count = counts.get(rank);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Copies SCAN_CHUNK index slots at a time under the read lock and runs the
+     * action with the lock released, so writers wait for one chunk at most.
+     * Keys written during the scan may or may not be visited. A key that
+     * exists throughout is visited at least once: only a rehash moves keys
+     * between slots, and it restarts the scan on the new index, so keys may
+     * then be visited twice.
+     */
+    @Override
+    public void forEach(int rank, BiConsumer<String, String> action) {
+        List<String> chunk = new ArrayList<>(); // Key, value, key, value...
+        Index scanning = null;
+        int slot = 0;
+        while (true) {
+            long stamp = lock.readLock();
+            try {
+                Index idx = index;
+                if (idx != scanning) {
+                    scanning = idx;
+                    slot = 0;
+                }
+                if (slot >= idx.capacity) {
+                    return;
+                }
+                for (int end = Math.min(idx.capacity, slot + SCAN_CHUNK); slot < end; slot++) {
+                    if (isLive(idx.hashAt(slot))) {
+                        long address = idx.addressAt(slot);
+                        String key = readKey(address);
+                        if (key.charAt(0) == rank) {
+                            chunk.add(key.substring(1));
+                            chunk.add(readValue(address));
+                        }
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            for (int i = 0; i < chunk.size(); i += 2) {
+                action.accept(chunk.get(i), chunk.get(i + 1));
+            }
+            chunk.clear();
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "mapped (" + directory + ", " + (PAGE_BYTES >> 10) + " KB pages)";
+    }
+
+    /**
+     * Force everything to disk and mark the files clean, so the next open can
+     * skip validation
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            if (index == null) {
+                return;
+            }
+            for (MappedByteBuffer page : pages) {
+                page.force();
+            }
+            index.buffer.force();
+            dataChannel.force(true);
+            writeMeta(true);
+            index.channel.close();
+            dataChannel.close();
+            index = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static String internalKey(int rank, String key) {
+        return (char) rank + key;
+    }
+
+    // 0 and 1 mark empty and deleted slots
+    private static long hashOf(String internalKey) {
+        long hash = ConsistentHash.hash(internalKey);
+        return hash == EMPTY || hash == DELETED ? 2 : hash;
+    }
+
+    private static boolean isLive(long hash) {
+        return hash != EMPTY && hash != DELETED;
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = 16;
+        while (capacity < entries && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private AtomicLong counter(int rank) {
+        return counts.computeIfAbsent(rank, r -> new AtomicLong());
+    }
+
+    private String lookup(long hash, byte[] key) {
+        Index idx = index;
+        int slot = find(idx, hash, key);
+        return slot == NOT_FOUND ? null : readValue(idx.addressAt(slot));
+    }
+
+    private int find(Index idx, long hash, byte[] key) {
+        int slot = (int) hash & idx.mask;
+        for (int probes = 0; probes < idx.capacity; probes++) {
+            long h = idx.hashAt(slot);
+            if (h == EMPTY) {
+                return NOT_FOUND;
+            }
+            if (h == hash && keyEquals(idx.addressAt(slot), key)) {
+                return slot;
+            }
+            slot = (slot + 1) & idx.mask;
+        }
+        return NOT_FOUND;
+    }
+
+    // New keys take the first empty or deleted slot; the address is written before the hash publishes it
+    private static void insert(Index idx, long hash, long address) {
+        int slot = (int) hash & idx.mask;
+        long h;
+        while (isLive(h = idx.hashAt(slot))) {
+            slot = (slot + 1) & idx.mask;
+        }
+        if (h == DELETED) {
+            idx.deleted--;
+        }
+        idx.setAddress(slot, address);
+        idx.setHash(slot, hash);
+        idx.live++;
+    }
+
+    /**
+     * Copy the live slots into a new index file (twice as large when needed)
+     * and atomically replace the old one
+     */
+    private Index rehash(Index old) throws IOException {
+        int capacity = old.capacity;
+        while ((old.live + 1) * 2 > capacity * MAX_LOAD && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        if (old.live + 1 > capacity * MAX_LOAD) {
+            throw new IllegalStateException("Mapped index is full (" + old.live + " entries)");
+        }
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        Index fresh = createIndex(temp, capacity);
+        for (int slot = 0; slot < old.capacity; slot++) {
+            long hash = old.hashAt(slot);
+            if (isLive(hash)) {
+                insert(fresh, hash, old.addressAt(slot));
+            }
+        }
+        fresh.buffer.force();
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        DirectorySync.force(directory);
+        index = fresh;
+        old.channel.close();
+        return fresh;
+    }
+
+    private static Index createIndex(Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity * 16L);
+        buffer.putInt(0, INDEX_MAGIC);
+        buffer.putInt(4, capacity);
+        return new Index(channel, buffer, capacity);
+    }
+
+    private static Index openIndex(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        int capacity = buffer.getInt(4);
+        if (buffer.getInt(0) != INDEX_MAGIC || Integer.bitCount(capacity) != 1 ||
+            channel.size() != HEADER_BYTES + capacity * 16L) {
+            channel.close();
+            throw new IOException("Not a mapped index: " + path);
+        }
+        return new Index(channel, buffer, capacity);
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+        ByteBuffer page = pages[(int) (address >>> 32)];
+        int offset = (int) address;
+        if (page.getInt(offset) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (page.get(offset + 8 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readKey(long address) {
+        ByteBuffer page = pages[(int) (address >>> 32)];
+        int offset = (int) address;
+        return readString(page, offset + 8, page.getInt(offset));
+    }
+
+    private String readValue(long address) {
+        ByteBuffer page = pages[(int) (address >>> 32)];
+        int offset = (int) address;
+        int keyLength = page.getInt(offset);
+        int valueLength = page.getInt(offset + 4);
+        if (keyLength < 0 || valueLength < 0 || (long) offset + 8 + keyLength + valueLength > page.capacity()) {
+            throw new IllegalStateException("Corrupt record at " + Long.toHexString(address));
+        }
+        return readString(page, offset + 8 + keyLength, valueLength);
+    }
+
+    private static String readString(ByteBuffer page, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = page.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long writeRecord(byte[] key, byte[] value) throws IOException {
+        int size = 8 + key.length + value.length;
+        int sizeClass = 0;
+        while (sizeClass < slotSizes.length && slotSizes[sizeClass] < size) {
+            sizeClass++;
+        }
+        if (sizeClass == slotSizes.length) {
+            throw new IllegalArgumentException("Entry of " + size + " bytes exceeds the mapped page size");
+        }
+        long address = allocate(sizeClass);
+        ByteBuffer view = pages[(int) (address >>> 32)].duplicate();
+        view.position((int) address);
+        view.putInt(key.length).putInt(value.length).put(key).put(value);
+        return address;
+    }
+
+    private int slotCount(int sizeClass) {
+        return (PAGE_BYTES - HEADER_BYTES) / slotSizes[sizeClass];
+    }
+
+    private long allocate(int sizeClass) throws IOException {
+        ArrayDeque<Integer> candidates = classPages.get(sizeClass);
+        while (!candidates.isEmpty()) {
+            int p = candidates.peekFirst();
+            if (pageClass[p] == sizeClass && freeSlots[p] > 0) {
+                return takeSlot(p);
+            }
+            candidates.pollFirst();
+        }
+        int p = -1;
+        while (!emptyPages.isEmpty() && p < 0) {
+            int candidate = emptyPages.poll();
+            emptyQueued.clear(candidate);
+            p = isEmptyPage(candidate) ? candidate : -1;
+        }
+        if (p < 0) {
+            p = pages.length;
+            mapPage();
+        }
+        MappedByteBuffer page = pages[p];
+        page.putInt(0, PAGE_MAGIC);
+        page.putInt(4, sizeClass);
+        resetPage(p, sizeClass);
+        candidates.addFirst(p);
+        return takeSlot(p);
+    }
+
+    private boolean isEmptyPage(int p) {
+        return pageClass[p] < 0 || freeSlots[p] == slotCount(pageClass[p]);
+    }
+
+    // Extend the data file by one page and grow the per-page arrays
+    private MappedByteBuffer mapPage() throws IOException {
+        int p = pages.length;
+        MappedByteBuffer page = dataChannel.map(FileChannel.MapMode.READ_WRITE, (long) p * PAGE_BYTES, PAGE_BYTES);
+        if (p >= pageClass.length) {
+            int size = Math.max(16, pageClass.length * 2);
+            pageClass = Arrays.copyOf(pageClass, size);
+            bitmaps = Arrays.copyOf(bitmaps, size);
+            freeSlots = Arrays.copyOf(freeSlots, size);
+            searchHints = Arrays.copyOf(searchHints, size);
+        }
+        pageClass[p] = -1;
+        MappedByteBuffer[] grown = Arrays.copyOf(pages, p + 1);
+        grown[p] = page;
+        pages = grown;
+        return page;
+    }
+
+    // All slots free; bits past the last slot stay set so they are never handed out
+    private void resetPage(int p, int sizeClass) {
+        int slots = slotCount(sizeClass);
+        long[] bits = new long[(slots + 63) / 64];
+        if (slots % 64 != 0) {
+            bits[bits.length - 1] = -1L << (slots % 64);
+        }
+        pageClass[p] = sizeClass;
+        bitmaps[p] = bits;
+        freeSlots[p] = slots;
+        searchHints[p] = 0;
+    }
+
+    private long takeSlot(int p) {
+        long[] bits = bitmaps[p];
+        for (int n = 0; n < bits.length; n++) {
+            int word = (searchHints[p] + n) % bits.length;
+            long free = ~bits[word];
+            if (free != 0) {
+                int bit = Long.numberOfTrailingZeros(free);
+                bits[word] |= 1L << bit;
+                freeSlots[p]--;
+                searchHints[p] = word;
+                return ((long) p << 32) | (HEADER_BYTES + (word * 64 + bit) * slotSizes[pageClass[p]]);
+            }
+        }
+        throw new IllegalStateException("No free slot in page " + p);
+    }
+
+    private void free(long address) {
+        int p = (int) (address >>> 32);
+        int sizeClass = pageClass[p];
+        int slot = ((int) address - HEADER_BYTES) / slotSizes[sizeClass];
+        bitmaps[p][slot >>> 6] &= ~(1L << slot);
+        freeSlots[p]++;
+        if (freeSlots[p] == 1) {
+            classPages.get(sizeClass).addLast(p);
+        }
+        if (freeSlots[p] == slotCount(sizeClass)) {
+            queueEmpty(p);
+        }
+    }
+
+    private void queueEmpty(int p) {
+        if (!emptyQueued.get(p)) {
+            emptyQueued.set(p);
+            emptyPages.add(p);
+        }
+    }
+
+    // Mark an address as used while rebuilding the bitmaps; false if it is not a slot or already taken
+    private boolean claim(long address) {
+        int p = (int) (address >>> 32);
+        int offset = (int) address - HEADER_BYTES;
+        if (p < 0 || p >= pages.length || pageClass[p] < 0 || offset < 0) {
+            return false;
+        }
+        int slotSize = slotSizes[pageClass[p]];
+        int slot = offset / slotSize;
+        if (offset % slotSize != 0 || slot >= slotCount(pageClass[p]) ||
+            (bitmaps[p][slot >>> 6] & (1L << slot)) != 0) {
+            return false;
+        }
+        bitmaps[p][slot >>> 6] |= 1L << slot;
+        freeSlots[p]--;
+        return true;
+    }
+
+    // After a crash: rank of the record at address if it is intact and matches hash, else -1
+    private int validRank(long address, long hash) {
+        int p = (int) (address >>> 32);
+        int offset = (int) address;
+        if (p < 0 || p >= pages.length || pageClass[p] < 0 || offset < HEADER_BYTES) {
+            return -1;
+        }
+        ByteBuffer page = pages[p];
+        int slotSize = slotSizes[pageClass[p]];
+        if ((offset - HEADER_BYTES) % slotSize != 0 || offset + 8 > PAGE_BYTES) {
+            return -1;
+        }
+        int keyLength = page.getInt(offset);
+        int valueLength = page.getInt(offset + 4);
+        if (keyLength < 1 || valueLength < 0 || 8L + keyLength + valueLength > slotSize) {
+            return -1;
+        }
+        String key = readString(page, offset + 8, keyLength);
+        return hashOf(key) == hash ? key.charAt(0) : -1;
+    }
+
+    /**
+     * Meta file: checkpoint LSN, whether the files were closed cleanly, and
+     * per-rank entry counts (trusted only after a clean close)
+     * @return true if the last close was clean
+     */
+    private boolean readMeta() throws IOException {
+        Path path = directory.resolve(META_FILE);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        boolean clean = false;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            switch (parts[0]) {
+                case "lsn":
+                    checkpointLsn = Long.parseLong(parts[1]);
+                    break;
+                case "clean":
+                    clean = Boolean.parseBoolean(parts[1]);
+                    break;
+                case "count":
+                    counter(Integer.parseInt(parts[1])).set(Long.parseLong(parts[2]));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return clean;
+    }
+
+    private synchronized void writeMeta(boolean clean) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("lsn ").append(checkpointLsn).append('\n');
+        sb.append("clean ").append(clean).append('\n');
+        counts.forEach((rank, count) -> sb.append("count ").append(rank).append(' ').append(count.get()).append('\n'));
+        Path temp = directory.resolve(META_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(temp, directory.resolve(META_FILE), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        DirectorySync.force(directory);
+    }
+}
@@ -0,0 +1,103 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.Log;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Heap storage engine: one ConcurrentHashMap per replica rank
+ * Checkpoints are full SnapshotFiles written while writers keep going.
+ */
+public class MemoryEngine implements StorageEngine {
+    private final Map<Integer, ConcurrentHashMap<String, String>> partitions = new ConcurrentSkipListMap<>();
+    private final Path snapshotDir;
+
+    /**
+     * @param snapshotDir where checkpoints are written, or null for no persistence
+     */
+    public MemoryEngine(Path snapshotDir) {
+        this.snapshotDir = snapshotDir;
+        partitions.put(0, new ConcurrentHashMap<>());
+        partitions.put(1, new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public long open() throws IOException {
+        if (snapshotDir == null) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        long lsn = SnapshotFile.loadLatest(snapshotDir, (rank, key, value) -> table(rank).put(key, value));
+        if (lsn > 0) {
+            Log.info("[SNAPSHOT] Loaded snapshot at LSN " + lsn + " in " +
+                     (System.currentTimeMillis() - start) + "ms");
+        }
+        return lsn;
+    }
+
+    @Override
+    public String get(int rank, String key) {
+        ConcurrentHashMap<String, String> table = partitions.get(rank);
+        return table == null ? null : table.get(key);
+    }
+
+    @Override
+    public void put(int rank, String key, String value) {
+        table(rank).put(key, value);
+    }
+
+    @Override
+    public boolean remove(int rank, String key) {
+        ConcurrentHashMap<String, String> table = partitions.get(rank);
+        return table != null && table.remove(key) != null;
+    }
+
+    @Override
+    public void checkpoint(long lsn) throws IOException {
+        if (snapshotDir == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long entries = SnapshotFile.write(snapshotDir, lsn, partitions);
+        Log.info("[SNAPSHOT] Wrote " + entries + " entries at LSN " + lsn + " in " +
+                 (System.currentTimeMillis() - start) + "ms");
+    }
+
+    @Override
+    public Set<Integer> ranks() {
+        return partitions.keySet();
+    }
+
+    @Override
+    public long size(int rank) {
+        ConcurrentHashMap<String, String> table = partitions.get(rank);
+        return table == null ? 0 : table.size();
+    }
+
+    @Override
+    public void forEach(int rank, BiConsumer<String, String> action) {
+        ConcurrentHashMap<String, String> table = partitions.get(rank);
+        if (table != null) {
+            table.forEach(action);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "memory";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Table for a replica rank, created on first write
+    private ConcurrentHashMap<String, String> table(int rank) {
+        return partitions.computeIfAbsent(rank, r -> new ConcurrentHashMap<>());
+    }
+}
@@ -1,117 +1,65 @@
 package com.kvstore.slave;
 
+import com.kvstore.common.Log;
 import com.kvstore.common.Message;
-import java.io.*;
+import com.kvstore.common.MessageChannel;
+import com.kvstore.common.MessageCodec;
+import java.io.IOException;
 import java.net.Socket;
 
 /**
- * Handles individual requests to the slave server
- * Processes GET, PUT, UPDATE, DELETE operations
+ * Handles a connection to the slave server (blocking mode, one thread per connection)
+ * Processes GET, PUT, UPDATE, DELETE operations; the coordinator keeps
+ * the connection open and sends many requests over it
  */
 public class RequestHandler implements Runnable {
     private final Socket socket;
-    private final DataStore dataStore;
-    private BufferedReader in;
-    private PrintWriter out;
+    private final RequestProcessor processor;
+    private MessageChannel channel;
 
-    public RequestHandler(Socket socket, DataStore dataStore) {
+    public RequestHandler(Socket socket, RequestProcessor processor) {
         this.socket = socket;
-        this.dataStore = dataStore;
+        this.processor = processor;
     }
 
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            channel = new MessageChannel(socket);
 
-            // Read request
-            String requestStr = in.readLine();
-            if (requestStr == null || requestStr.isEmpty()) {
-                return;
-            }
-
-            System.out.println("[REQUEST] Received: " + requestStr);
-
-            // Process request
-            Message request = new Message(requestStr);
-            String reqType = request.getReqType();
-            String key = request.getKey();
-            String table = request.getTable();
-
-            switch (reqType) {
-                case "get":
-                    handleGet(key, table);
-                    break;
-                case "put":
-                    handlePut(key, request.getValue(), table);
-                    break;
-                case "update":
-                    handleUpdate(key, request.getValue(), table);
-                    break;
-                case "delete":
-                    handleDelete(key, table);
-                    break;
-                default:
-                    sendMessage(Message.ack("unknown_request"));
+            // Serve requests until the coordinator closes the (pooled) connection
+            Message request;
+            while ((request = channel.read()) != null) {
+                if ("hello".equals(request.getReqType())) {
+                    negotiateProtocol(request);
+                } else {
+                    channel.write(processor.process(request));
+                }
             }
 
+        } catch (IOException e) {
+            Log.error("[ERROR] Connection error: " + e.getMessage());
         } catch (Exception e) {
-            System.err.println("[ERROR] Error handling request: " + e.getMessage());
-            sendMessage(Message.ack("error"));
+            Log.error("[ERROR] Error parsing request: " + e.getMessage());
         } finally {
             closeConnection();
         }
     }
 
-    private void handleGet(String key, String table) {
-        String value = dataStore.get(key, table);
-        if (value != null) {
-            System.out.println("[GET] Key '" + key + "' found in " + table + " table: " + value);
-            sendMessage(Message.data(value));
-        } else {
-            System.out.println("[GET] Key '" + key + "' not found in " + table + " table");
-            sendMessage(Message.ack("key_error"));
-        }
-    }
-
-    private void handlePut(String key, String value, String table) {
-        dataStore.put(key, value, table);
-        System.out.println("[PUT] Stored in " + table + " table: " + key + " = " + value);
-        sendMessage(Message.ack("put_success"));
-    }
-
-    private void handleUpdate(String key, String value, String table) {
-        if (dataStore.update(key, value, table)) {
-            System.out.println("[UPDATE] Updated in " + table + " table: " + key + " = " + value);
-            sendMessage(Message.ack("update_success"));
-        } else {
-            System.out.println("[UPDATE] Key '" + key + "' not found in " + table + " table");
-            sendMessage(Message.ack("key_error"));
-        }
-    }
-
-    private void handleDelete(String key, String table) {
-        if (dataStore.delete(key, table)) {
-            System.out.println("[DELETE] Deleted from " + table + " table: " + key);
-            sendMessage(Message.ack("delete_success"));
-        } else {
-            System.out.println("[DELETE] Key '" + key + "' not found in " + table + " table");
-            sendMessage(Message.ack("key_error"));
-        }
-    }
-
-    private void sendMessage(Message message) {
-        out.println(message.toString());
+    /**
+     * Answer the coordinator's hello in JSON, then switch to the agreed format
+     */
+    private void negotiateProtocol(Message hello) throws IOException {
+        String proto = MessageCodec.negotiate(hello.getProto());
+        channel.write(Message.ack("hello").setProto(proto).setRequestId(hello.getRequestId()));
+        channel.setBinary(MessageCodec.BINARY.equals(proto));
     }
 
     private void closeConnection() {
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
             if (socket != null && !socket.isClosed()) socket.close();
         } catch (IOException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            Log.warn("Error closing connection: " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,253 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.LatencyHistogram;
+import com.kvstore.common.Log;
+import com.kvstore.common.Message;
+import com.kvstore.common.MessageCodec;
+import com.kvstore.common.Metrics;
+import com.kvstore.common.Versioned;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes a single request against the DataStore and builds the reply
+ * Shared by the blocking RequestHandler and the NIO front end
+ *
+ * Smart clients send reads here directly, tagged with the epoch of the ring
+ * map they routed by; requests routed by a map older than the latest epoch
+ * announced by the coordinator are refused with stale_ring.
+ */
+public class RequestProcessor {
+    private final DataStore dataStore;
+    private final AtomicLong ringEpoch = new AtomicLong();
+    private final Metrics metrics;
+    private final Map<String, LatencyHistogram> opLatency = new HashMap<>(); // By request type (read-only)
+    private final LatencyHistogram queueLatency;
+    private final LongAdder errors;
+
+    public RequestProcessor(DataStore dataStore, Metrics metrics) {
+        this.dataStore = dataStore;
+        this.metrics = metrics;
+        for (String op : new String[] {"get", "put", "update", "delete", "mget", "mput", "mdelete"}) {
+            opLatency.put(op, metrics.histogram("datastore." + op));
+        }
+        this.queueLatency = metrics.histogram("slave.queue");
+        this.errors = metrics.counter("op.errors");
+    }
+
+    /**
+     * Process a request; the reply carries the request's id
+     */
+    public Message process(Message request) {
+        long start = System.nanoTime();
+        Message reply;
+        try {
+            reply = dispatch(request);
+            LatencyHistogram latency = opLatency.get(request.getReqType());
+            if (latency != null) {
+                latency.recordSince(start);
+            }
+        } catch (Exception e) {
+            Log.error("[ERROR] Error handling request: " + e.getMessage());
+            errors.increment();
+            reply = Message.ack("error");
+        }
+        if (request.getRequestId() != 0L) {
+            reply.setRequestId(request.getRequestId());
+        }
+        return reply;
+    }
+
+    /**
+     * Process a request that waited for a worker since receivedNanos
+     */
+    public Message process(Message request, long receivedNanos) {
+        queueLatency.recordSince(receivedNanos);
+        return process(request);
+    }
+
+    private Message dispatch(Message request) {
+        String reqType = request.getReqType();
+        String key = request.getKey();
+        String table = request.getTable();
+
+        if ("ping".equals(reqType)) {
+            return Message.ack("pong");
+        }
+        if ("bloom".equals(reqType)) {
+            return handleBloom(table);
+        }
+        if ("stats".equals(reqType)) {
+            return metrics.describe();
+        }
+        if ("ring_epoch".equals(reqType)) {
+            observeRingEpoch(request.getEpoch());
+            return Message.ack("ring_epoch_ok");
+        }
+        long known = ringEpoch.get();
+        if (request.getEpoch() != 0L && request.getEpoch() < known) {
+            return Message.ack("stale_ring").setEpoch(known);
+        }
+
+        switch (reqType) {
+            case "mget":
+                return handleMultiGet(request.getItems());
+            case "mput":
+                return handleMultiPut(request.getItems(), request.getVersion());
+            case "mdelete":
+                return handleMultiDelete(request.getItems(), request.getVersion());
+            default:
+                break;
+        }
+
+        Log.debug(() -> "[REQUEST] Received: " + request);
+
+        switch (reqType) {
+            case "get":
+                return handleGet(key, table);
+            case "put":
+                return handlePut(key, request.getValue(), request.getVersion(), table);
+            case "update":
+                return handleUpdate(key, request.getValue(), request.getVersion(), table);
+            case "delete":
+                return handleDelete(key, request.getVersion(), table);
+            default:
+                return Message.ack("unknown_request");
+        }
+    }
+
+    /**
+     * Remember the coordinator's ring epoch (announced on every ring change)
+     */
+    public void observeRingEpoch(long epoch) {
+        ringEpoch.accumulateAndGet(epoch, Math::max);
+    }
+
+    private Message handleGet(String key, String table) {
+        Versioned entry = dataStore.getVersioned(key, table);
+        if (entry != null) {
+            Log.debug(() -> "[GET] Key '" + key + "' found in " + table + " table: " + entry);
+            return Message.data(entry.getValue()).setVersion(entry.getVersion());
+        }
+        Log.debug(() -> "[GET] Key '" + key + "' not found in " + table + " table");
+        return Message.ack("key_error");
+    }
+
+    // Batches: one item per key, each naming its table; replies keep the item order
+
+    /**
+     * Values found stop being sent once the reply holds MAX_BATCH_BYTES;
+     * the keys after that are answered batch_overflow for the caller to ask again
+     */
+    private Message handleMultiGet(List<Message> items) {
+        List<Message> replies = new ArrayList<>(items.size());
+        int found = 0;
+        int overflow = 0;
+        int bytes = 0;
+        for (Message item : items) {
+            Message reply = null;
+            if (bytes <= MessageCodec.MAX_BATCH_BYTES) {
+                Versioned entry = dataStore.getVersioned(item.getKey(), item.getTable());
+                reply = entry != null
+                        ? Message.data(entry.getValue()).setKey(item.getKey()).setVersion(entry.getVersion())
+                        : Message.ack("key_error").setKey(item.getKey());
+                bytes += MessageCodec.itemLength(reply);
+                if (bytes > MessageCodec.MAX_BATCH_BYTES && !replies.isEmpty()) {
+                    reply = null;
+                }
+            }
+            if (reply == null) {
+                reply = Message.ack("batch_overflow").setKey(item.getKey());
+                overflow++;
+            } else if ("data".equals(reply.getReqType())) {
+                found++;
+            }
+            replies.add(reply);
+        }
+        Log.debug("[MGET] " + found + " of " + items.size() + " keys found"
+                  + (overflow > 0 ? ", " + overflow + " over the reply limit" : ""));
+        return batchReply(replies);
+    }
+
+    private Message handleMultiPut(List<Message> items, long version) {
+        List<String> keys = new ArrayList<>(items.size());
+        List<String> values = new ArrayList<>(items.size());
+        List<String> tables = new ArrayList<>(items.size());
+        for (Message item : items) {
+            keys.add(item.getKey());
+            values.add(item.getValue());
+            tables.add(item.getTable());
+        }
+        dataStore.putAll(keys, values, tables, version);
+        Log.debug(() -> "[MPUT] Stored " + items.size() + " keys");
+
+        List<Message> replies = new ArrayList<>(items.size());
+        for (String key : keys) {
+            replies.add(Message.ack("put_success").setKey(key));
+        }
+        return batchReply(replies);
+    }
+
+    private Message handleMultiDelete(List<Message> items, long version) {
+        List<String> keys = new ArrayList<>(items.size());
+        List<String> tables = new ArrayList<>(items.size());
+        for (Message item : items) {
+            keys.add(item.getKey());
+            tables.add(item.getTable());
+        }
+        boolean[] existed = dataStore.deleteAll(keys, tables, version);
+        List<Message> replies = new ArrayList<>(items.size());
+        int deleted = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            replies.add(Message.ack(existed[i] ? "delete_success" : "key_error").setKey(keys.get(i)));
+            deleted += existed[i] ? 1 : 0;
+        }
+        Log.debug("[MDELETE] Deleted " + deleted + " of " + keys.size() + " keys");
+        return batchReply(replies);
+    }
+
+    private static Message batchReply(List<Message> replies) {
+        return new Message().setReqType("batch").setItems(replies);
+    }
+
+    /**
+     * Key filter of a table for the coordinator, base64 encoded
+     */
+    private Message handleBloom(String table) {
+        byte[] filter = dataStore.keyFilter(table);
+        // Leave headroom for the base64 expansion and the rest of the frame
+        if (filter == null || (long) filter.length * 4 / 3 > MessageCodec.MAX_FRAME_SIZE - 1024) {
+            return Message.ack("bloom_unavailable");
+        }
+        return Message.data(Base64.getEncoder().encodeToString(filter));
+    }
+
+    private Message handlePut(String key, String value, long version, String table) {
+        dataStore.put(key, value, version, table);
+        Log.debug(() -> "[PUT] Stored in " + table + " table: " + key + " = " + value);
+        return Message.ack("put_success");
+    }
+
+    private Message handleUpdate(String key, String value, long version, String table) {
+        if (dataStore.update(key, value, version, table)) {
+            Log.debug(() -> "[UPDATE] Updated in " + table + " table: " + key + " = " + value);
+            return Message.ack("update_success");
+        }
+        Log.debug(() -> "[UPDATE] Key '" + key + "' not found in " + table + " table");
+        return Message.ack("key_error");
+    }
+
+    private Message handleDelete(String key, long version, String table) {
+        if (dataStore.delete(key, version, table)) {
+            Log.debug(() -> "[DELETE] Deleted from " + table + " table: " + key);
+            return Message.ack("delete_success");
+        }
+        Log.debug(() -> "[DELETE] Key '" + key + "' not found in " + table + " table");
+        return Message.ack("key_error");
+    }
+}
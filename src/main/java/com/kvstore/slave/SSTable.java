@@ -0,0 +1,371 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.BloomFilter;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable sorted string table used by LsmEngine
+ *
+ * File layout (big-endian):
+ *   data:   entries sorted by key: byte flags (1 = tombstone), int32 key length + UTF-8 key,
+ *           then for live entries int32 value length + UTF-8 value
+ *   index:  int32 count, then (int32 key length + key, int64 offset) for every
+ *           INDEX_INTERVAL-th entry, then int32 length + last key
+ *   bloom:  BloomFilter over every key
+ *   footer: int64 index offset, int64 bloom offset, int64 entry count, int32 magic
+ *
+ * Only the sparse index and the bloom filter are kept on heap; a lookup reads
+ * one index interval of the data section with a positional read.
+ *
+ * LsmEngine counts the installed versions that list a table (retain/release)
+ * and deletes the file when the last of them is no longer in use.
+ */
+final class SSTable implements Closeable {
+    static final int INDEX_INTERVAL = 16;
+    private static final int MAGIC = 0x4B565354; // "KVST"
+    private static final int FOOTER_SIZE = 28;
+    private static final byte FLAG_TOMBSTONE = 1;
+
+    final long number;
+    final Path path;
+    final String firstKey;
+    final String lastKey;
+    final long entryCount;
+    final long fileSize;
+
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final BloomFilter bloom;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    private SSTable(long number, Path path, FileChannel channel, String[] indexKeys, long[] indexOffsets,
+                    String lastKey, long dataEnd, BloomFilter bloom, long entryCount, long fileSize) {
+        this.number = number;
+        this.path = path;
+        this.channel = channel;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.firstKey = indexKeys.length == 0 ? "" : indexKeys[0];
+        this.lastKey = lastKey;
+        this.dataEnd = dataEnd;
+        this.bloom = bloom;
+        this.entryCount = entryCount;
+        this.fileSize = fileSize;
+    }
+
+    static Path fileFor(Path directory, long number) {
+        return directory.resolve(String.format("%08d.sst", number));
+    }
+
+    static SSTable open(Path directory, long number) throws IOException {
+        Path path = fileFor(directory, number);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer footer = readAt(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            long count = footer.getLong();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Not an SSTable: " + path);
+            }
+
+            ByteBuffer index = readAt(channel, indexOffset, (int) (bloomOffset - indexOffset));
+            int indexCount = index.getInt();
+            String[] keys = new String[indexCount];
+            long[] offsets = new long[indexCount];
+            for (int i = 0; i < indexCount; i++) {
+                keys[i] = readString(index);
+                offsets[i] = index.getLong();
+            }
+            String lastKey = readString(index);
+
+            ByteBuffer bloomBytes = readAt(channel, bloomOffset, (int) (size - FOOTER_SIZE - bloomOffset));
+            BloomFilter bloom = BloomFilter.readFrom(bloomBytes);
+            return new SSTable(number, path, channel, keys, offsets, lastKey, indexOffset, bloom, count, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt SSTable " + path, e);
+        }
+    }
+
+    /**
+     * Look up a key: its value, LsmEngine.TOMBSTONE if deleted here, or null if absent
+     */
+    String get(String key) throws IOException {
+        if (entryCount == 0 || key.compareTo(firstKey) < 0 || key.compareTo(lastKey) > 0 || !bloom.mightContain(key)) {
+            return null;
+        }
+        int block = floorIndex(key);
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        ByteBuffer data = readAt(channel, start, (int) (end - start));
+        while (data.hasRemaining()) {
+            byte flags = data.get();
+            int comparison = readString(data).compareTo(key);
+            String value = flags == FLAG_TOMBSTONE ? LsmEngine.TOMBSTONE : readString(data);
+            if (comparison == 0) {
+                return value;
+            }
+            if (comparison > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    boolean overlaps(String from, String to) {
+        return entryCount > 0 && lastKey.compareTo(from) >= 0 && firstKey.compareTo(to) <= 0;
+    }
+
+    /**
+     * Entries in key order, starting at the first key >= fromKey (null for the start)
+     */
+    Cursor cursor(String fromKey) {
+        int block = fromKey == null || entryCount == 0 ? 0 : floorIndex(fromKey);
+        return new Cursor(entryCount == 0 ? dataEnd : indexOffsets[block], fromKey);
+    }
+
+    private int floorIndex(String key) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (indexKeys[mid].compareTo(key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * @return true if this dropped the last reference
+     */
+    boolean release() {
+        return refs.decrementAndGet() == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Sequential reader over the data section
+     */
+    final class Cursor implements Iterator<Map.Entry<String, String>> {
+        private final DataInputStream in;
+        private long position;
+        private Map.Entry<String, String> next;
+
+        private Cursor(long offset, String fromKey) {
+            this.position = offset;
+            this.in = new DataInputStream(new BufferedInputStream(new InputStream() {
+                private long filePosition = offset;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, Math.max(0, dataEnd - filePosition))),
+                                         filePosition);
+                    if (n <= 0) {
+                        return -1;
+                    }
+                    filePosition += n;
+                    return n;
+                }
+            }, 1 << 16));
+            advance();
+            while (next != null && fromKey != null && next.getKey().compareTo(fromKey) < 0) {
+                advance();
+            }
+        }
+
+        private void advance() {
+            if (position >= dataEnd) {
+                next = null;
+                return;
+            }
+            try {
+                byte flags = in.readByte();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                position += 5 + key.length;
+                String value = LsmEngine.TOMBSTONE;
+                if (flags != FLAG_TOMBSTONE) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    position += 4 + bytes.length;
+                    value = new String(bytes, StandardCharsets.UTF_8);
+                }
+                next = new AbstractMap.SimpleImmutableEntry<>(new String(key, StandardCharsets.UTF_8), value);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read " + path, e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> current = next;
+            advance();
+            return current;
+        }
+    }
+
+    /**
+     * Builds a new table; entries must be added in key order
+     */
+    static final class Writer implements Closeable {
+        private final Path directory;
+        private final long number;
+        private final Path temp;
+        private final DataOutputStream out;
+        private final FileOutputStream file;
+        private final BloomFilter bloom;
+        private final List<String> indexKeys = new ArrayList<>();
+        private final List<Long> indexOffsets = new ArrayList<>();
+        private long offset;
+        private long count;
+        private String lastKey;
+
+        Writer(Path directory, long number, long expectedEntries, double bloomFalsePositiveRate) throws IOException {
+            this.directory = directory;
+            this.number = number;
+            this.temp = directory.resolve(String.format("%08d.sst.tmp", number));
+            this.file = new FileOutputStream(temp.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            this.bloom = new BloomFilter(expectedEntries, bloomFalsePositiveRate);
+        }
+
+        void add(String key, String value) throws IOException {
+            if (count % INDEX_INTERVAL == 0) {
+                indexKeys.add(key);
+                indexOffsets.add(offset);
+            }
+            bloom.add(key);
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            boolean tombstone = value == LsmEngine.TOMBSTONE;
+            out.writeByte(tombstone ? FLAG_TOMBSTONE : 0);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            offset += 5 + keyBytes.length;
+            if (!tombstone) {
+                byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(valueBytes.length);
+                out.write(valueBytes);
+                offset += 4 + valueBytes.length;
+            }
+            count++;
+            lastKey = key;
+        }
+
+        long bytesWritten() {
+            return offset;
+        }
+
+        long count() {
+            return count;
+        }
+
+        /**
+         * Write index, bloom filter and footer, sync, and open the finished table
+         */
+        SSTable finish() throws IOException {
+            long indexOffset = offset;
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                writeString(out, indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            writeString(out, lastKey == null ? "" : lastKey);
+            long bloomOffset = indexOffset + 4 + indexBytes() + 4 + utf8Length(lastKey == null ? "" : lastKey);
+            out.write(bloom.toBytes());
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            Files.move(temp, fileFor(directory, number), StandardCopyOption.ATOMIC_MOVE);
+            return SSTable.open(directory, number);
+        }
+
+        private long indexBytes() {
+            long bytes = 0;
+            for (String key : indexKeys) {
+                bytes += 4 + utf8Length(key) + 8;
+            }
+            return bytes;
+        }
+
+        /**
+         * Discard an unfinished table
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + channel);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int utf8Length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
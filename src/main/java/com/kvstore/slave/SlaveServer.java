@@ -1,67 +1,212 @@
 package com.kvstore.slave;
 
+import com.kvstore.common.Config;
+import com.kvstore.common.Log;
 import com.kvstore.common.Message;
+import com.kvstore.common.Metrics;
+import com.kvstore.common.NioServer;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Slave Server (Data Node)
- * - Stores actual key-value data in two tables (OWN and PREV)
+ * - Stores actual key-value data in one table per replica rank
+ *   (rank 0 for keys it is the primary for, rank k for those it holds the
+ *   k-th replica of)
  * - Sends heartbeat to Coordination Server
  * - Handles GET, PUT, UPDATE, DELETE operations
  */
 public class SlaveServer {
     private static final int HEARTBEAT_INTERVAL = 5000; // 5 seconds
+    private static final String SERVER_MODE = Config.getString("slave.mode", "nio"); // nio | blocking
+    private static final int IO_THREADS = Config.getInt("slave.ioThreads", 2);
+    private static final int WORKER_THREADS = Config.getInt("slave.workerThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int WORKER_QUEUE_SIZE = Config.getInt("slave.workerQueueSize", 10000);
+    private static final int WEIGHT = Config.getInt("slave.weight", 1); // relative capacity on the ring
+    private static final String ENGINE = Config.getString("slave.engine", "memory"); // memory | lsm | mapped
+    private static final boolean WAL_ENABLED = Config.getBoolean("wal.enabled", true);
+    private static final String DATA_DIR = Config.getString("slave.dataDir", "data");
+    private static final long SNAPSHOT_INTERVAL_MS = Config.getLong("snapshot.intervalMs", 60000);
+    private static final long SNAPSHOT_MIN_RECORDS = Config.getLong("snapshot.minRecords", 1000);
+    private static final long FILTER_CHECK_INTERVAL_MS = 10000;
+    private static final long TOMBSTONE_PURGE_INTERVAL_MS = 60000;
 
     private final String ipAddress;
     private final int port;
+    private final Metrics metrics;
     private final DataStore dataStore;
+    private final RequestProcessor processor;
     private final HeartbeatSender heartbeatSender;
     private final ExecutorService threadPool;
+    private final ScheduledExecutorService maintenance;
     private ServerSocket serverSocket;
+    private NioServer nioServer;
 
-    public SlaveServer(String ipAddress, int port) {
+    public SlaveServer(String ipAddress, int port) throws IOException {
         this.ipAddress = ipAddress;
         this.port = port;
-        this.dataStore = new DataStore();
+        this.metrics = new Metrics("slave " + ipAddress + ":" + port);
+        this.dataStore = new DataStore(createEngine(), WAL_ENABLED
+                ? new WriteAheadLog(dataDirectory().resolve("wal"), WriteAheadLog.configuredPolicy())
+                : null);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SlaveMaintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.processor = new RequestProcessor(dataStore, metrics);
         this.heartbeatSender = new HeartbeatSender(ipAddress, port);
-        this.threadPool = Executors.newCachedThreadPool();
+        if ("blocking".equalsIgnoreCase(SERVER_MODE)) {
+            this.threadPool = Executors.newCachedThreadPool();
+        } else {
+            // Bounded worker stage behind the NIO event loops
+            this.threadPool = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE));
+        }
+        metrics.gauge("datastore.size", dataStore::getTableSizes);
+        metrics.gauge("datastore.tombstones", dataStore::getTombstoneCount);
+        if (threadPool instanceof ThreadPoolExecutor) {
+            metrics.gauge("slave.workerQueue", () -> ((ThreadPoolExecutor) threadPool).getQueue().size());
+        }
     }
 
     public void start() throws IOException {
+        // Reload data written before the last shutdown or crash
+        dataStore.recover();
+        dataStore.buildFilters();
+        maintenance.scheduleWithFixedDelay(this::maintainFilters,
+                FILTER_CHECK_INTERVAL_MS, FILTER_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::purgeTombstones,
+                TOMBSTONE_PURGE_INTERVAL_MS, TOMBSTONE_PURGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (WAL_ENABLED && SNAPSHOT_INTERVAL_MS > 0) {
+            maintenance.scheduleWithFixedDelay(this::takeSnapshot,
+                    SNAPSHOT_INTERVAL_MS, SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
         // Register with Coordination Server
         registerWithCoordinator();
 
-        // Start server socket
-        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(ipAddress));
-        System.out.println("================================");
-        System.out.println("Slave Server Started");
-        System.out.println("================================");
-        System.out.println("IP: " + ipAddress);
-        System.out.println("Port: " + port);
-        System.out.println("Address: " + ipAddress + ":" + port);
-        System.out.println("================================");
-        System.out.println("Ready to accept connections...");
-        System.out.println();
-
         // Start heartbeat sender
         new Thread(heartbeatSender, "HeartbeatSender").start();
 
+        // Log the metrics periodically
+        metrics.start();
+
+        if ("blocking".equalsIgnoreCase(SERVER_MODE)) {
+            serveBlocking();
+        } else {
+            serveNio();
+        }
+    }
+
+    private void takeSnapshot() {
+        try {
+            dataStore.snapshot(SNAPSHOT_MIN_RECORDS);
+        } catch (Exception e) {
+            Log.warn("[SNAPSHOT] Failed: " + e.getMessage());
+        }
+    }
+
+    private StorageEngine createEngine() {
+        if ("lsm".equalsIgnoreCase(ENGINE)) {
+            return new LsmEngine(dataDirectory().resolve("lsm"));
+        }
+        if ("mapped".equalsIgnoreCase(ENGINE)) {
+            return new MappedEngine(dataDirectory().resolve("mapped"));
+        }
+        // Heap tables only survive a restart through snapshots and the log
+        return new MemoryEngine(WAL_ENABLED ? dataDirectory().resolve("snapshots") : null);
+    }
+
+    private void maintainFilters() {
+        try {
+            dataStore.maintainFilters();
+        } catch (Exception e) {
+            Log.warn("[BLOOM] Filter rebuild failed: " + e.getMessage());
+        }
+    }
+
+    private void purgeTombstones() {
+        try {
+            int dropped = dataStore.purgeTombstones();
+            if (dropped > 0) {
+                Log.debug("[TOMBSTONE] Dropped " + dropped + " expired tombstones");
+            }
+        } catch (Exception e) {
+            Log.warn("[TOMBSTONE] Purge failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Per-slave directory for persistent data: DATA_DIR/ip_port
+     */
+    private Path dataDirectory() {
+        return Paths.get(DATA_DIR, ipAddress.replace(':', '_') + "_" + port);
+    }
+
+    /**
+     * Blocking mode: one thread per coordinator connection
+     */
+    private void serveBlocking() throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(ipAddress));
+        printBanner("blocking");
+
         // Accept connections
         while (!Thread.currentThread().isInterrupted()) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                threadPool.submit(new RequestHandler(clientSocket, dataStore));
+                threadPool.submit(new RequestHandler(clientSocket, processor));
             } catch (IOException e) {
                 if (!serverSocket.isClosed()) {
-                    System.err.println("Error accepting connection: " + e.getMessage());
+                    Log.warn("Error accepting connection: " + e.getMessage());
                 }
             }
         }
     }
 
+    /**
+     * NIO mode: IO_THREADS selector loops decode requests and hand them to
+     * WORKER_THREADS workers; the thread count stays fixed however many sockets are open
+     */
+    private void serveNio() throws IOException {
+        LongAdder rejected = metrics.counter("slave.rejected");
+        nioServer = new NioServer("SlaveNio", IO_THREADS, (connection, request) -> {
+            long received = System.nanoTime();
+            try {
+                threadPool.execute(() -> connection.send(processor.process(request, received)));
+            } catch (RejectedExecutionException e) {
+                // Worker queue full: shed load instead of queueing without bound
+                rejected.increment();
+                Message busy = Message.ack("server_busy");
+                if (request.getRequestId() != 0L) {
+                    busy.setRequestId(request.getRequestId());
+                }
+                connection.send(busy);
+            }
+        });
+        printBanner("nio, " + IO_THREADS + " I/O threads, " + WORKER_THREADS + " workers");
+        nioServer.start(ipAddress, port);
+    }
+
+    private void printBanner(String mode) {
+        Log.info("================================");
+        Log.info("Slave Server Started");
+        Log.info("================================");
+        Log.info("IP: " + ipAddress);
+        Log.info("Port: " + port);
+        Log.info("Address: " + ipAddress + ":" + port);
+        Log.info("Mode: " + mode);
+        Log.info("Storage: " + dataStore.describeEngine());
+        Log.info("================================");
+        Log.info("Ready to accept connections...");
+    }
+
     /**
      * Register this slave server with the Coordination Server
      */
@@ -70,7 +215,7 @@ public class SlaveServer {
         String csIP = props.getProperty("ip");
         int csPort = Integer.parseInt(props.getProperty("port"));
 
-        System.out.println("Registering with Coordination Server at " + csIP + ":" + csPort);
+        Log.info("Registering with Coordination Server at " + csIP + ":" + csPort);
 
         try (Socket csSocket = new Socket(csIP, csPort);
              PrintWriter out = new PrintWriter(csSocket.getOutputStream(), true);
@@ -78,23 +223,25 @@ public class SlaveServer {
 
             // Wait for initial acknowledgment
             String ack = in.readLine();
-            System.out.println("CS: " + ack);
+            Log.info("CS: " + ack);
 
-            // Send identification
+            // Send identification (value carries the capacity weight)
             Message idMsg = new Message()
                     .setId("slave_server")
-                    .setMessage(ipAddress + ":" + port);
+                    .setMessage(ipAddress + ":" + port)
+                    .setValue(String.valueOf(WEIGHT));
             out.println(idMsg);
 
             // Wait for registration response
             String response = in.readLine();
-            System.out.println("CS: " + response);
+            Log.info("CS: " + response);
 
             Message respMsg = new Message(response);
             if ("registration_successful".equals(respMsg.getMessage())) {
-                System.out.println("Successfully registered with Coordination Server!");
+                Log.info("Successfully registered with Coordination Server!");
+                processor.observeRingEpoch(respMsg.getEpoch());
             } else {
-                System.err.println("Registration failed: " + respMsg.getMessage());
+                Log.warn("Registration failed: " + respMsg.getMessage());
             }
         }
     }
@@ -114,16 +261,26 @@ public class SlaveServer {
     }
 
     public void shutdown() {
-        System.out.println("\nShutting down Slave Server...");
+        Log.info("Shutting down Slave Server...");
         try {
             heartbeatSender.shutdown();
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (nioServer != null) {
+                nioServer.shutdown();
+            }
+            maintenance.shutdownNow();
+            metrics.shutdown();
             threadPool.shutdown();
+            threadPool.awaitTermination(5, TimeUnit.SECONDS);
+            dataStore.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
-            System.err.println("Error during shutdown: " + e.getMessage());
+            Log.warn("Error during shutdown: " + e.getMessage());
         }
+        Log.flush(1000);
     }
 
     public static void main(String[] args) {
@@ -136,16 +293,16 @@ public class SlaveServer {
         String ip = args[0];
         int port = Integer.parseInt(args[1]);
 
-        SlaveServer server = new SlaveServer(ip, port);
+        try {
+            SlaveServer server = new SlaveServer(ip, port);
 
-        // Add shutdown hook
-        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+            // Add shutdown hook
+            Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
 
-        try {
             server.start();
         } catch (IOException e) {
-            System.err.println("Failed to start server: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Failed to start server: " + e.getMessage(), e);
+            Log.flush(1000);
         }
     }
 }
@@ -0,0 +1,172 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.Log;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time image of the DataStore tables
+ *
+ * File layout (big-endian), named snapshot-<lsn>.snap:
+ *   int32   magic "KVSN"
+ *   byte    format version
+ *   int64   LSN: every log record up to here is contained in the snapshot
+ *   entries: byte rank, int32 key length + UTF-8 key, int32 value length + UTF-8 value
+ *   byte    -1 (end of entries)
+ *   int32   CRC32C of everything above
+ *
+ * Files are written to a temporary name, synced and then renamed, so a crash
+ * never leaves a half-written snapshot under the real name; the directory is
+ * synced after the rename, before the caller may delete the log it replaces.
+ *
+ * The last KEEP snapshots are retained. The older one is a fallback if the
+ * newest turns out damaged, which only works because DataStore keeps the log
+ * back to the previous snapshot rather than the newest one.
+ */
+public final class SnapshotFile {
+    private static final int MAGIC = 0x4B56534E; // "KVSN"
+    private static final byte VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int KEEP = 2;
+
+    /**
+     * Receives the entries of a snapshot being loaded
+     */
+    public interface Loader {
+        void accept(int rank, String key, String value);
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Write all tables to directory as the snapshot for lsn; older snapshots
+     * beyond the last KEEP are deleted
+     * @return number of entries written
+     */
+    public static long write(Path directory, long lsn, Map<Integer, ? extends Map<String, String>> tables)
+            throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(fileName(lsn));
+        Path temp = directory.resolve(fileName(lsn) + ".tmp");
+
+        long entries = 0;
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            CRC32C crc = new CRC32C();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(lsn);
+            for (Map.Entry<Integer, ? extends Map<String, String>> table : tables.entrySet()) {
+                // Weakly consistent iteration: writers are never blocked
+                for (Map.Entry<String, String> entry : table.getValue().entrySet()) {
+                    out.writeByte(table.getKey());
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                    entries++;
+                }
+            }
+            out.writeByte(-1);
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        DirectorySync.force(directory);
+
+        List<Path> snapshots = list(directory);
+        for (int i = 0; i < snapshots.size() - KEEP; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Load the newest intact snapshot in directory
+     * @return its LSN, or 0 if there is none
+     */
+    public static long loadLatest(Path directory, Loader loader) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        List<Path> snapshots = list(directory);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Path path = snapshots.get(i);
+            if (verify(path)) {
+                return load(path, loader);
+            }
+            Log.warn("[SNAPSHOT] Skipping damaged snapshot " + path.getFileName());
+        }
+        return 0;
+    }
+
+    // Check the trailing checksum before applying anything
+    private static boolean verify(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < 18) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        try (InputStream in = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16), crc)) {
+            byte[] buffer = new byte[1 << 16];
+            long remaining = size - 4;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    return false;
+                }
+                remaining -= n;
+            }
+            int actual = (int) crc.getValue();
+            return new DataInputStream(in).readInt() == actual;
+        }
+    }
+
+    private static long load(Path path, Loader loader) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a snapshot file: " + path);
+            }
+            long lsn = in.readLong();
+            int rank;
+            while ((rank = in.readByte()) >= 0) {
+                loader.accept(rank, readString(in), readString(in));
+            }
+            return lsn;
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(snapshots::add);
+        }
+        snapshots.sort(null); // Zero-padded LSNs sort numerically
+        return snapshots;
+    }
+
+    private static String fileName(long lsn) {
+        return String.format("%s%020d%s", PREFIX, lsn, SUFFIX);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.kvstore.slave;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage behind DataStore: one key space per replica rank
+ *
+ * DataStore serializes writers of the same key, logs every mutation to the
+ * write-ahead log and replays the log after open(); an engine only has to be
+ * safe for concurrent use across different keys.
+ *
+ * Durability contract: checkpoint(lsn) must persist every mutation applied so
+ * far, after which the log up to lsn can be deleted; open() reports the LSN of
+ * the last completed checkpoint so replay can start right after it.
+ */
+public interface StorageEngine extends Closeable {
+
+    /**
+     * Load persisted state
+     * @return LSN covered by the last checkpoint, 0 if there is none
+     */
+    long open() throws IOException;
+
+    String get(int rank, String key);
+
+    void put(int rank, String key, String value);
+
+    /**
+     * Remove a key
+     * @return true if it existed
+     */
+    boolean remove(int rank, String key);
+
+    /**
+     * Persist everything applied so far as covering log position lsn
+     */
+    void checkpoint(long lsn) throws IOException;
+
+    /**
+     * Ranks that hold (or held) data
+     */
+    Set<Integer> ranks();
+
+    /**
+     * Number of keys in a rank; called by gauges and stats, so it must not scan
+     */
+    long size(int rank);
+
+    /**
+     * Visit every live key of a rank
+     */
+    void forEach(int rank, BiConsumer<String, String> action);
+
+    /**
+     * Short description for the startup banner
+     */
+    String describe();
+}
@@ -0,0 +1,472 @@
+package com.kvstore.slave;
+
+import com.kvstore.common.Config;
+import com.kvstore.common.Log;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, checksummed write-ahead log for the DataStore
+ *
+ * Record layout (big-endian):
+ *   int32   payload length
+ *   int32   CRC32C of the payload
+ *   payload:
+ *     int64   log sequence number (LSN)
+ *     byte    operation (PUT or DELETE)
+ *     byte    replica rank
+ *     int32   key length + UTF-8 key
+ *     int32   value length + UTF-8 value (PUT; on a DELETE, the optional
+ *             encoded version of the delete)
+ *
+ * Records hold the resulting state of a key (an update is logged as a PUT),
+ * so replaying a record twice is harmless.
+ *
+ * Writers only enqueue their record; one log thread writes everything queued
+ * so far in a single batch (group commit) and syncs according to the policy:
+ * - ALWAYS:   fsync every batch, writers wait until their record is on disk
+ * - INTERVAL: fsync at most every FSYNC_INTERVAL_MS, writers do not wait
+ * - OS:       leave flushing to the operating system
+ * The log is split into segment files named after their first LSN; segments
+ * fully covered by a snapshot are deleted with truncateBefore().
+ */
+public class WriteAheadLog implements Closeable {
+    public enum FsyncPolicy { ALWAYS, INTERVAL, OS }
+
+    public static final byte PUT = 1;
+    public static final byte DELETE = 2;
+
+    private static final long SEGMENT_BYTES = Config.getLong("wal.segmentBytes", 64L * 1024 * 1024);
+    private static final long FSYNC_INTERVAL_MS = Config.getLong("wal.fsyncIntervalMs", 100);
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * One logged mutation
+     */
+    public static class Entry {
+        public final long lsn;
+        public final byte op;
+        public final int rank;
+        public final String key;
+        public final String value;
+
+        Entry(long lsn, byte op, int rank, String key, String value) {
+            this.lsn = lsn;
+            this.op = op;
+            this.rank = rank;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final Path directory;
+    private final FsyncPolicy policy;
+    private final Object lock = new Object();
+    private List<byte[]> pending = new ArrayList<>();
+    private long nextLsn;       // Last LSN handed out
+    private long writtenLsn;    // Last LSN written to the file
+    private long durableLsn;    // Last LSN known to be on disk
+    private IOException failure;
+    private boolean rotateRequested;
+    private volatile boolean running = true;
+
+    private FileChannel segment;
+    private long segmentSize;
+    private long lastSync = System.currentTimeMillis();
+    private Thread writer;
+
+    public WriteAheadLog(Path directory, FsyncPolicy policy) throws IOException {
+        this.directory = directory;
+        this.policy = policy;
+        Files.createDirectories(directory);
+    }
+
+    public static FsyncPolicy configuredPolicy() {
+        String name = Config.getString("wal.fsync", "interval");
+        try {
+            return FsyncPolicy.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("[CONFIG] Unknown fsync policy '" + name + "', using INTERVAL");
+            return FsyncPolicy.INTERVAL;
+        }
+    }
+
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Replay every intact record after fromLsn in LSN order, then open the log for appends
+     * A torn record at the end of the last segment (crash mid-write) is cut off.
+     * @param fromLsn LSN already covered by a loaded snapshot (0 for none)
+     * @return number of records replayed
+     */
+    public long recover(long fromLsn, Consumer<Entry> apply) throws IOException {
+        List<Path> segments = listSegments();
+        nextLsn = fromLsn;
+        if (!segments.isEmpty() && firstLsn(segments.get(0)) > fromLsn + 1) {
+            Log.warn("[WAL] Log starts at LSN " + firstLsn(segments.get(0)) + " but the snapshot ends at " +
+                     fromLsn + "; records in between are missing");
+        }
+        long replayed = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            replayed += replaySegment(segments.get(i), last, apply);
+        }
+        writtenLsn = durableLsn = nextLsn;
+
+        if (segments.isEmpty()) {
+            openSegment(nextLsn + 1);
+        } else {
+            Path tail = segments.get(segments.size() - 1);
+            segment = FileChannel.open(tail, StandardOpenOption.WRITE);
+            segmentSize = segment.size();
+            segment.position(segmentSize);
+        }
+
+        writer = new Thread(this::writeLoop, "WalWriter");
+        writer.setDaemon(true);
+        writer.start();
+        return replayed;
+    }
+
+    private long replaySegment(Path path, boolean last, Consumer<Entry> apply) throws IOException {
+        long replayed = 0;
+        long validBytes = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            long size = channel.size();
+            CRC32C crc = new CRC32C();
+            while (validBytes + HEADER_SIZE <= size) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 10 || length > MAX_RECORD_SIZE || validBytes + HEADER_SIZE + length > size) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                Entry entry = decode(payload);
+                if (entry.lsn > nextLsn) {
+                    apply.accept(entry);
+                    nextLsn = entry.lsn;
+                    replayed++;
+                }
+                validBytes += HEADER_SIZE + length;
+            }
+
+            if (validBytes < size) {
+                if (!last) {
+                    // Damage inside an older segment: stop rather than apply later records out of order
+                    throw new IOException("Corrupt WAL segment " + path + " at offset " + validBytes);
+                }
+                Log.warn("[WAL] Truncating torn tail of " + path.getFileName() + " at offset " + validBytes +
+                         " (" + (size - validBytes) + " bytes)");
+            }
+        }
+        if (last && validBytes < Files.size(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Enqueue a mutation and return its LSN; does not wait for the disk
+     * Callers that mutate memory first must hold a lock covering the key across
+     * both steps, so the log order of a key matches the order its updates were applied.
+     */
+    public long append(byte op, int rank, String key, String value) {
+        byte[] record = encode(op, rank, key, value);
+        synchronized (lock) {
+            checkFailure();
+            long lsn = ++nextLsn;
+            ByteBuffer.wrap(record, HEADER_SIZE, 8).putLong(lsn);
+            pending.add(record);
+            lock.notifyAll();
+            return lsn;
+        }
+    }
+
+    /**
+     * LSN of the most recent append
+     */
+    public long lastLsn() {
+        synchronized (lock) {
+            return nextLsn;
+        }
+    }
+
+    /**
+     * Start a new segment after the records appended so far, so the current one
+     * can be deleted once a snapshot covers it
+     * @return LSN of the last record in the closed segment
+     */
+    public long rollover() {
+        synchronized (lock) {
+            long lsn = nextLsn;
+            rotateRequested = true;
+            lock.notifyAll();
+            while (rotateRequested && running) {
+                checkFailure();
+                try {
+                    lock.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return lsn;
+        }
+    }
+
+    /**
+     * Delete the segments whose records all have an LSN of at most lsn
+     * (the segment currently being written is never deleted)
+     * @return number of segments deleted
+     */
+    public int truncateBefore(long lsn) throws IOException {
+        List<Path> segments = listSegments();
+        int deleted = 0;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (firstLsn(segments.get(i + 1)) > lsn + 1) {
+                break;
+            }
+            Files.deleteIfExists(segments.get(i));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Make an appended record as durable as the policy requires:
+     * with ALWAYS, waits until it has been fsynced; otherwise returns at once
+     */
+    public void commit(long lsn) {
+        if (policy != FsyncPolicy.ALWAYS) {
+            return;
+        }
+        synchronized (lock) {
+            while (durableLsn < lsn) {
+                checkFailure();
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for WAL sync"));
+                }
+            }
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+    }
+
+    /**
+     * Group commit loop: write whatever has been queued as one batch
+     */
+    private void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        while (true) {
+            List<byte[]> batch;
+            long batchLsn;
+            synchronized (lock) {
+                while (pending.isEmpty() && running && !syncDue() && !rotateRequested) {
+                    try {
+                        lock.wait(policy == FsyncPolicy.INTERVAL ? FSYNC_INTERVAL_MS : 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.isEmpty() && !running) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                batchLsn = nextLsn;
+            }
+
+            try {
+                for (byte[] record : batch) {
+                    seal(record);
+                    if (buffer.remaining() < record.length) {
+                        drain(buffer);
+                    }
+                    if (record.length > buffer.capacity()) {
+                        segment.write(ByteBuffer.wrap(record));
+                    } else {
+                        buffer.put(record);
+                    }
+                    segmentSize += record.length;
+                }
+                drain(buffer);
+
+                boolean sync = policy == FsyncPolicy.ALWAYS || syncDue();
+                if (sync) {
+                    segment.force(false);
+                    lastSync = System.currentTimeMillis();
+                }
+                boolean rotate;
+                synchronized (lock) {
+                    writtenLsn = batchLsn;
+                    if (sync || policy == FsyncPolicy.OS) {
+                        durableLsn = batchLsn;
+                    }
+                    rotate = rotateRequested;
+                    lock.notifyAll();
+                }
+                if (segmentSize >= SEGMENT_BYTES || (rotate && segmentSize > 0)) {
+                    rotate(batchLsn + 1);
+                }
+                if (rotate) {
+                    synchronized (lock) {
+                        rotateRequested = false;
+                        lock.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                Log.error("[WAL] Write failed: " + e.getMessage());
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean syncDue() {
+        return policy == FsyncPolicy.INTERVAL && writtenLsn > durableLsn &&
+               System.currentTimeMillis() - lastSync >= FSYNC_INTERVAL_MS;
+    }
+
+    private void drain(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void rotate(long firstLsn) throws IOException {
+        segment.force(false);
+        segment.close();
+        openSegment(firstLsn);
+    }
+
+    private void openSegment(long firstLsn) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+        boolean created = !Files.exists(path);
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segmentSize = segment.size();
+        segment.position(segmentSize);
+        if (created) {
+            // Syncing the segment alone would not persist its directory entry
+            DirectorySync.force(directory);
+        }
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null); // Zero-padded LSNs sort numerically
+        return segments;
+    }
+
+    /**
+     * Wait for queued records to be written and synced, then close the segment
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (segment != null && segment.isOpen()) {
+            segment.force(false);
+            segment.close();
+        }
+    }
+
+    // Checksum the payload (LSN included) into the record header
+    private static void seal(byte[] record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        ByteBuffer.wrap(record, 4, 4).putInt((int) crc.getValue());
+    }
+
+    // The CRC and LSN slots are filled in later by seal() and append()
+    private static byte[] encode(byte op, int rank, String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 1 + 1 + 4 + keyBytes.length + (valueBytes == null ? 0 : 4 + valueBytes.length);
+        if (length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record exceeds " + MAX_RECORD_SIZE + " bytes");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.putInt(length);
+        buffer.putInt(0); // CRC
+        buffer.putLong(0L); // LSN
+        buffer.put(op);
+        buffer.put((byte) rank);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        if (valueBytes != null) {
+            buffer.putInt(valueBytes.length);
+            buffer.put(valueBytes);
+        }
+        return buffer.array();
+    }
+
+    private static Entry decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        long lsn = buffer.getLong();
+        byte op = buffer.get();
+        int rank = buffer.get();
+        String key = readString(buffer);
+        String value = buffer.hasRemaining() ? readString(buffer) : null;
+        return new Entry(lsn, op, rank, key, value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String s = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,210 @@
+package com.kvstore.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.kvstore.common.HashRing;
+import com.kvstore.common.Message;
+import com.kvstore.common.MessageChannel;
+import com.kvstore.common.MessageCodec;
+import com.kvstore.common.Metrics;
+import com.kvstore.coordinator.RingMap;
+import com.kvstore.coordinator.SlaveConnectionPool;
+import com.kvstore.slave.DataStore;
+import com.kvstore.slave.RequestHandler;
+import com.kvstore.slave.RequestProcessor;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Smart routing against real slave request handlers and a stand-in
+ * coordinator: a read routed by an outdated ring is refused with stale_ring,
+ * answered by the coordinator instead and the ring is fetched again; a slave
+ * that cannot be reached also leaves the read to the coordinator
+ */
+class SlaveRouterTest {
+    private static final String FROM_COORDINATOR = "from-coordinator";
+
+    private final HashRing ring = new HashRing();
+    private final RingMap ringMap = new RingMap(ring, new SlaveConnectionPool(new Metrics("test")), 1);
+    private final AtomicInteger ringFetches = new AtomicInteger();
+    private final AtomicInteger coordinatorReads = new AtomicInteger();
+    private Peer coordinator;
+    private Peer first;
+    private Peer second;
+    private KvStoreClient client;
+
+    /**
+     * Loopback server running the slave's blocking request handler; as the
+     * coordinator it first greets clients the way ConnectionHandler does
+     */
+    private static final class Peer implements AutoCloseable {
+        final ServerSocket serverSocket;
+        final RequestProcessor processor;
+        final DataStore dataStore;
+        final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+        Peer(DataStore dataStore, RequestProcessor processor, boolean greet) throws IOException {
+            this.dataStore = dataStore;
+            this.processor = processor;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        accepted.add(socket);
+                        if (greet) {
+                            greet(socket);
+                        }
+                        Thread handler = new Thread(new RequestHandler(socket, processor));
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        // connected -> client identifies -> ready_to_serve, staying on JSON for RequestHandler
+        private static void greet(Socket socket) throws IOException {
+            MessageChannel channel = new MessageChannel(socket);
+            channel.write(Message.ack("connected"));
+            channel.read();
+            channel.write(Message.ack("ready_to_serve").setProto(MessageCodec.JSON));
+        }
+
+        static Peer slave() throws IOException {
+            DataStore dataStore = new DataStore();
+            return new Peer(dataStore, new RequestProcessor(dataStore, new Metrics("slave")), false);
+        }
+
+        String address() {
+            return "127.0.0.1:" + serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @BeforeEach
+    void start() throws Exception {
+        first = Peer.slave();
+        second = Peer.slave();
+        // Every key is on both slaves, so a read reaching either one is answered from there
+        for (String key : Arrays.asList("k", "a", "b", "c")) {
+            first.dataStore.put(key, "v-" + key, "own");
+            second.dataStore.put(key, "v-" + key, "own");
+        }
+        ring.addServer(first.address(), 1);
+
+        coordinator = new Peer(null, new RequestProcessor(new DataStore(), new Metrics("coordinator")) {
+            @Override
+            public Message process(Message request) {
+                Message reply;
+                if ("ring".equals(request.getReqType())) {
+                    ringFetches.incrementAndGet();
+                    reply = ringMap.describe();
+                } else if ("get".equals(request.getReqType())) {
+                    coordinatorReads.incrementAndGet();
+                    reply = Message.data(FROM_COORDINATOR);
+                } else if ("mget".equals(request.getReqType())) {
+                    List<Message> items = new ArrayList<>();
+                    for (Message item : request.getItems()) {
+                        coordinatorReads.incrementAndGet();
+                        items.add(Message.data(FROM_COORDINATOR).setKey(item.getKey()));
+                    }
+                    reply = new Message().setReqType("batch").setItems(items);
+                } else {
+                    reply = Message.ack("unknown_request");
+                }
+                return reply.setRequestId(request.getRequestId());
+            }
+        }, true);
+        client = new KvStoreClient("127.0.0.1", coordinator.serverSocket.getLocalPort(),
+                                   new KvStoreClient.Options().setRingRefreshMs(0));
+        awaitDirectRead("k");
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        coordinator.close();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void staleRingIsRefreshedWhileTheCoordinatorAnswers() throws Exception {
+        int fetches = ringFetches.get();
+        int reads = coordinatorReads.get();
+        changeRing();
+
+        // Routed by the old epoch: refused by the slave, answered by the coordinator
+        assertEquals(FROM_COORDINATOR, client.get("k").get());
+        assertEquals(reads + 1, coordinatorReads.get());
+        awaitDirectRead("k");
+        assertTrue(ringFetches.get() > fetches, "ring fetched again");
+        reads = coordinatorReads.get();
+        assertEquals("v-k", client.get("k").get());
+        assertEquals(reads, coordinatorReads.get(), "the new ring reads from the slaves again");
+    }
+
+    @Test
+    void staleRingBatchFallsBackToTheCoordinator() throws Exception {
+        int fetches = ringFetches.get();
+        changeRing();
+
+        Map<String, String> values = client.getAll(Arrays.asList("a", "b", "c")).get();
+        assertEquals(Arrays.asList(FROM_COORDINATOR, FROM_COORDINATOR, FROM_COORDINATOR),
+                     new ArrayList<>(values.values()));
+        // Only batches are read here, so it was the refused mget that fetched the ring
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"v-b".equals(client.getAll(Arrays.asList("a", "b")).get().get("b"))) {
+            assertTrue(System.currentTimeMillis() < deadline, "no direct batch read");
+            Thread.sleep(10);
+        }
+        assertTrue(ringFetches.get() > fetches, "ring fetched again");
+    }
+
+    @Test
+    void unreachableSlaveLeavesTheReadToTheCoordinator() throws Exception {
+        int reads = coordinatorReads.get();
+        first.close();
+        assertEquals(FROM_COORDINATOR, client.get("k").get());
+        assertEquals(reads + 1, coordinatorReads.get());
+    }
+
+    // A slave joins; both slaves hear of the new epoch, the client has not yet
+    private void changeRing() {
+        ring.addServer(second.address(), 1);
+        first.processor.observeRingEpoch(ringMap.getEpoch());
+        second.processor.observeRingEpoch(ringMap.getEpoch());
+    }
+
+    // Wait until the client has a current ring and reads the key from a slave
+    private void awaitDirectRead(String key) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!("v-" + key).equals(client.get(key).get())) {
+            assertTrue(System.currentTimeMillis() < deadline, "no direct read of " + key);
+            Thread.sleep(10);
+        }
+    }
+}
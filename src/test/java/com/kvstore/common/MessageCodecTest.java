@@ -0,0 +1,230 @@
+package com.kvstore.common;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round trips through the binary frame format: every field must come back
+ * exactly as it was sent, and absent optional fields must stay absent
+ */
+class MessageCodecTest {
+
+    @Test
+    void roundTripsSingleKeyRequests() throws IOException {
+        assertRoundTrip(Message.request("get", "user:42").setTable("own"));
+        assertRoundTrip(Message.request("put", "user:42", "alice").setTable("prev").setVersion(7));
+        assertRoundTrip(Message.request("delete", "user:42"));
+        assertRoundTrip(Message.ack("put_success"));
+        assertRoundTrip(Message.data("alice").setVersion(3));
+        assertRoundTrip(Message.hello(MessageCodec.BINARY));
+        assertRoundTrip(Message.ping());
+    }
+
+    @Test
+    void roundTripsRequestTypesWithoutOpcode() throws IOException {
+        Message decoded = assertRoundTrip(new Message().setReqType("ring_epoch").setEpoch(5));
+        assertEquals("ring_epoch", decoded.getReqType());
+        assertRoundTrip(new Message().setId("slave_server").setMessage("127.0.0.1:8081").setValue("2"));
+    }
+
+    @Test
+    void roundTripsVarintBoundaries() throws IOException {
+        long[] values = {1, 127, 128, 16383, 16384, (1L << 35) - 1, 1L << 35, System.currentTimeMillis() << 20,
+                         Long.MAX_VALUE, Long.MIN_VALUE, -1};
+        for (long value : values) {
+            Message decoded = assertRoundTrip(Message.request("get", "k")
+                    .setRequestId(value).setVersion(value).setEpoch(value));
+            assertEquals(value, decoded.getRequestId(), "request id");
+            assertEquals(value, decoded.getVersion(), "version");
+            assertEquals(value, decoded.getEpoch(), "epoch");
+        }
+    }
+
+    @Test
+    void leavesOptionalNumbersAbsentWhenZero() throws IOException {
+        Message plain = Message.request("put", "k", "v");
+        Message versioned = Message.request("put", "k", "v").setVersion(300);
+        assertEquals(MessageCodec.bodyLength(plain) + 2, MessageCodec.bodyLength(versioned));
+
+        Message decoded = decode(MessageCodec.encode(plain));
+        assertEquals(0L, decoded.getVersion());
+        assertEquals(0L, decoded.getEpoch());
+        assertEquals(0L, decoded.getRequestId());
+    }
+
+    @Test
+    void roundTripsTableRanks() throws IOException {
+        assertEquals("", decode(MessageCodec.encode(Message.request("get", "k"))).getTable());
+        for (int rank = 0; rank <= ReplicaTable.MAX_RANK; rank++) {
+            String table = ReplicaTable.name(rank);
+            assertEquals(table, decode(MessageCodec.encode(Message.request("get", "k").setTable(table))).getTable());
+        }
+    }
+
+    @Test
+    void distinguishesEmptyStringsFromAbsentOnes() throws IOException {
+        Message decoded = decode(MessageCodec.encode(Message.request("put", "", "")));
+        assertEquals("", decoded.rawKey());
+        assertEquals("", decoded.rawValue());
+        assertNull(decoded.rawMessage());
+        assertNull(decoded.rawId());
+        assertNull(decoded.rawItems());
+    }
+
+    @Test
+    void roundTripsNonAsciiStrings() throws IOException {
+        String key = "clé-ключ-键";
+        String value = "emoji 😀 and tab\t and nul\u0000 and ߿ࠀ￿";
+        Message decoded = assertRoundTrip(Message.request("put", key, value));
+        assertEquals(key, decoded.getKey());
+        assertEquals(value, decoded.getValue());
+    }
+
+    @Test
+    void writesLoneSurrogatesAsQuestionMarks() throws IOException {
+        Message decoded = decode(MessageCodec.encode(Message.request("put", "k", "a\uD800b")));
+        assertEquals("a?b", decoded.getValue());
+    }
+
+    @Test
+    void roundTripsNestedBatchItems() throws IOException {
+        List<Message> items = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            items.add(Message.request("put", "key" + i, "value-" + i).setTable(ReplicaTable.name(i % 3)));
+        }
+        Message batch = new Message().setReqType("mput").setItems(items).setVersion(1L << 40).setRequestId(9);
+        Message decoded = assertRoundTrip(batch);
+        assertEquals(300, decoded.getItems().size());
+        assertEquals("replica-2", decoded.getItems().get(299).getTable());
+
+        List<Message> replies = Arrays.asList(
+                Message.data("v").setKey("a").setVersion(12),
+                Message.ack("key_error").setKey("b"),
+                new Message().setReqType("batch").setItems(Collections.singletonList(Message.ack("nested"))));
+        assertRoundTrip(new Message().setReqType("batch").setItems(replies));
+    }
+
+    @Test
+    void roundTripsEmptyBatches() throws IOException {
+        Message decoded = decode(MessageCodec.encode(new Message().setReqType("mget").setItems(new ArrayList<>())));
+        assertNotNull(decoded.rawItems());
+        assertTrue(decoded.getItems().isEmpty());
+    }
+
+    @Test
+    void encodesIntoExistingBuffers() {
+        Message message = Message.request("update", "k", "v").setTable("own").setVersion(99).setRequestId(5);
+        byte[] frame = MessageCodec.encode(message);
+        assertEquals(frame.length - 4, ByteBuffer.wrap(frame).getInt());
+
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length + 8);
+        buffer.put(new byte[8]);
+        MessageCodec.encode(message, buffer);
+        assertArrayEquals(frame, Arrays.copyOfRange(buffer.array(), 8, buffer.position()));
+    }
+
+    @Test
+    void readsConsecutiveFramesFromAStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Message first = Message.request("put", "a", "1").setRequestId(1);
+        Message second = new Message().setReqType("mget").setItems(Arrays.asList(
+                Message.request("get", "a"), Message.request("get", "b"))).setRequestId(2);
+        MessageCodec.write(out, first);
+        MessageCodec.write(out, second);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        byte[][] scratch = {new byte[4]}; // Too small on purpose: read() must grow it
+        assertSameMessage(first, MessageCodec.read(in, scratch));
+        assertSameMessage(second, MessageCodec.read(in, scratch));
+        assertNull(MessageCodec.read(in, scratch));
+    }
+
+    @Test
+    void rejectsMalformedFrames() {
+        byte[] frame = MessageCodec.encode(Message.request("put", "key", "value"));
+        byte[] body = Arrays.copyOfRange(frame, 4, frame.length);
+
+        byte[] wrongVersion = body.clone();
+        wrongVersion[0] = (byte) (MessageCodec.VERSION + 1);
+        assertThrows(ProtocolException.class, () -> MessageCodec.decode(wrongVersion, 0, wrongVersion.length));
+
+        byte[] unknownOpcode = body.clone();
+        unknownOpcode[1] = 100;
+        assertThrows(ProtocolException.class, () -> MessageCodec.decode(unknownOpcode, 0, unknownOpcode.length));
+
+        assertThrows(ProtocolException.class, () -> MessageCodec.decode(body, 0, body.length - 3));
+
+        byte[] truncatedStream = Arrays.copyOf(frame, frame.length - 1);
+        assertThrows(ProtocolException.class,
+                () -> MessageCodec.read(new ByteArrayInputStream(truncatedStream), new byte[][] {new byte[64]}));
+    }
+
+    @Test
+    void splitsBatchesToFitAFrame() {
+        String large = "x".repeat(MessageCodec.MAX_BATCH_BYTES / 3);
+        List<Message> items = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            items.add(Message.request("put", "key" + i, large));
+        }
+        items.add(Message.request("put", "huge", "x".repeat(MessageCodec.MAX_BATCH_BYTES + 1)));
+        items.add(Message.request("put", "small", "v"));
+
+        List<List<Message>> parts = MessageCodec.splitBatch(items);
+        List<Message> joined = new ArrayList<>();
+        for (List<Message> part : parts) {
+            Message batch = new Message().setReqType("mput").setItems(part);
+            assertTrue(part.size() == 1 || MessageCodec.bodyLength(batch) < MessageCodec.MAX_FRAME_SIZE);
+            joined.addAll(part);
+        }
+        assertEquals(items, joined, "same items, same order");
+        assertEquals(Arrays.asList(2, 2, 2, 1, 1, 1), parts.stream().map(List::size).collect(Collectors.toList()),
+                     "an item too large for the budget goes alone");
+        assertTrue(MessageCodec.splitBatch(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    void tellsJsonFromBinary() {
+        byte[] json = Message.ping().toString().getBytes();
+        byte[] frame = MessageCodec.encode(Message.ping());
+        assertTrue(MessageCodec.looksLikeJson(json, 0, json.length));
+        assertFalse(MessageCodec.looksLikeJson(frame, 4, frame.length - 4));
+    }
+
+    private static Message assertRoundTrip(Message message) throws IOException {
+        Message decoded = decode(MessageCodec.encode(message));
+        assertSameMessage(message, decoded);
+        return decoded;
+    }
+
+    private static Message decode(byte[] frame) throws ProtocolException {
+        return MessageCodec.decode(frame, 4, frame.length - 4);
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getReqType(), actual.getReqType(), "req_type");
+        assertEquals(expected.rawKey(), actual.rawKey(), "key");
+        assertEquals(expected.rawValue(), actual.rawValue(), "value");
+        assertEquals(expected.rawMessage(), actual.rawMessage(), "message");
+        assertEquals(expected.rawId(), actual.rawId(), "id");
+        assertEquals(expected.getTable(), actual.getTable(), "table");
+        assertEquals(expected.getRequestId(), actual.getRequestId(), "request id");
+        assertEquals(expected.getVersion(), actual.getVersion(), "version");
+        assertEquals(expected.getEpoch(), actual.getEpoch(), "epoch");
+        assertEquals(expected.rawItems() == null, actual.rawItems() == null, "items present");
+        assertEquals(expected.getItems().size(), actual.getItems().size(), "item count");
+        for (int i = 0; i < expected.getItems().size(); i++) {
+            assertSameMessage(expected.getItems().get(i), actual.getItems().get(i));
+        }
+    }
+}
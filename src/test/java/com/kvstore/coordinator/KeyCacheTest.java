@@ -0,0 +1,74 @@
+package com.kvstore.coordinator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CyclicBarrier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A read may only fill the cache with what it saw if nothing wrote the key
+ * since its stamp was taken, and never over a newer cached version; a fill
+ * racing an invalidate must not leave the old value (or miss) behind
+ */
+class KeyCacheTest {
+
+    @Test
+    void fillAfterAWriteIsDropped() {
+        KeyCache cache = new KeyCache(1000, 0);
+        long stamp = cache.stamp("k");
+        cache.invalidate("k"); // A write started after the read asked the slaves
+        cache.fill("k", "old", 1, stamp);
+        assertNull(cache.get("k"));
+        cache.fillMissing("k", stamp);
+        assertFalse(cache.isMissing("k"));
+
+        long fresh = cache.stamp("k");
+        cache.fill("k", "new", 2, fresh);
+        assertEquals("new", cache.get("k"));
+    }
+
+    @Test
+    void olderVersionDoesNotReplaceANewerOne() {
+        KeyCache cache = new KeyCache(1000, 0);
+        cache.fill("k", "new", 7, cache.stamp("k"));
+        // A lagging replica answered a later read
+        cache.fill("k", "old", 6, cache.stamp("k"));
+        assertEquals("new", cache.get("k"));
+        cache.fill("k", "newer", 8, cache.stamp("k"));
+        assertEquals("newer", cache.get("k"));
+    }
+
+    @Test
+    void fillRacingAnInvalidateNeverSticks() throws Exception {
+        KeyCache cache = new KeyCache(1000, 0);
+        CyclicBarrier start = new CyclicBarrier(2);
+        for (int i = 0; i < 2000; i++) {
+            String key = "key" + (i % 16);
+            String missingKey = "missing" + (i % 16);
+            long stamp = cache.stamp(key);
+            long missingStamp = cache.stamp(missingKey);
+            Thread writer = new Thread(() -> {
+                await(start);
+                cache.invalidate(key);
+                cache.invalidate(missingKey);
+            });
+            writer.start();
+            await(start);
+            cache.fill(key, "stale" + i, i, stamp);
+            cache.fillMissing(missingKey, missingStamp);
+            writer.join();
+
+            // Whichever ran first, the invalidate has the last word
+            assertNull(cache.get(key), "iteration " + i);
+            assertFalse(cache.isMissing(missingKey), "iteration " + i);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.kvstore.coordinator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Concurrent misses of one key share a single load, but a caller that
+ * arrived after a write (a newer generation) never joins an older load
+ */
+class RequestCoalescerTest {
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = callers.submit(() -> coalescer.load("k", 1, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                awaitQuietly(release);
+                return "v";
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<String> second = callers.submit(() -> coalescer.load("k", 1, () -> {
+                loads.incrementAndGet();
+                return "second";
+            }));
+            // The second caller is parked on the first one's load
+            while (coalescer.getCollapsedCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals("v", first.get(5, TimeUnit.SECONDS));
+            assertEquals("v", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertEquals(1, coalescer.getLoadCount());
+            assertEquals(0, coalescer.getInFlight());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void newerGenerationLoadsAgain() throws Exception {
+        RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> before = callers.submit(() -> coalescer.load("k", 1, () -> {
+                loading.countDown();
+                awaitQuietly(release);
+                return "old";
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            // A write bumped the generation while the old load was running
+            assertEquals("new", coalescer.load("k", 2, () -> "new"));
+            release.countDown();
+            assertEquals("old", before.get(5, TimeUnit.SECONDS));
+            assertEquals(2, coalescer.getLoadCount());
+            assertEquals(0, coalescer.getCollapsedCount());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedLoadFailsItsWaitersAndIsNotKept() {
+        RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+        assertThrows(IllegalStateException.class, () -> coalescer.load("k", 1, () -> {
+            throw new IllegalStateException("slave down");
+        }));
+        assertEquals(0, coalescer.getInFlight());
+        assertEquals("v", coalescer.load("k", 1, () -> "v"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.kvstore.coordinator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.kvstore.common.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Requests of one connection that share an order key run one at a time in
+ * submission order; other requests overtake them, and a request the pool
+ * refuses is answered through its rejected callback without stalling the
+ * requests queued behind it
+ */
+class RequestPipelineTest {
+
+    @Test
+    void sameKeyRunsInOrderWhileOtherKeysOvertake() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            RequestPipeline pipeline = new RequestPipeline(pool);
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(3);
+
+            pipeline.execute("a", () -> {
+                awaitQuietly(release);
+                ran.add("a1");
+                done.countDown();
+            }, fail("a1"));
+            pipeline.execute("a", () -> {
+                ran.add("a2");
+                done.countDown();
+            }, fail("a2"));
+            CountDownLatch otherKey = new CountDownLatch(1);
+            pipeline.execute("b", () -> {
+                ran.add("b");
+                otherKey.countDown();
+                done.countDown();
+            }, fail("b"));
+
+            assertTrue(otherKey.await(5, TimeUnit.SECONDS), "b is not held up by a1");
+            assertEquals(Collections.singletonList("b"), ran, "a2 waits for a1");
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("b", "a1", "a2"), ran);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void longRunOfOneKeyKeepsSubmissionOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            RequestPipeline pipeline = new RequestPipeline(pool);
+            List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(500);
+            for (int i = 0; i < 500; i++) {
+                int n = i;
+                pipeline.execute("k", () -> {
+                    ran.add(n);
+                    done.countDown();
+                }, fail("task " + n));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 500; i++) {
+                assertEquals(i, ran.get(i).intValue());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectedTaskIsAnsweredAndDoesNotStallItsKey() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        try {
+            RequestPipeline pipeline = new RequestPipeline(pool);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch running = new CountDownLatch(1);
+            pipeline.execute("busy", () -> {
+                running.countDown();
+                awaitQuietly(release);
+            }, fail("busy"));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            pipeline.execute("queued", () -> { }, fail("queued")); // Fills the pool's queue
+
+            List<String> rejected = new ArrayList<>();
+            CountDownLatch follower = new CountDownLatch(1);
+            pipeline.execute("k", () -> rejected.add("ran"), () -> rejected.add("rejected"));
+            assertEquals(Collections.singletonList("rejected"), rejected);
+
+            // The key is free again: the next request for it runs once the pool has room
+            release.countDown();
+            while (pool.getActiveCount() > 0 || !pool.getQueue().isEmpty()) {
+                Thread.sleep(1);
+            }
+            pipeline.execute("k", follower::countDown, fail("follower"));
+            assertTrue(follower.await(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void orderKeysFollowRequestNumbering() {
+        Message unnumbered = Message.request("get", "a");
+        Message otherUnnumbered = Message.request("put", "b", "v");
+        assertSame(RequestPipeline.orderKey(unnumbered), RequestPipeline.orderKey(otherUnnumbered),
+                   "unnumbered requests are answered in order");
+        assertEquals("a", RequestPipeline.orderKey(Message.request("get", "a").setRequestId(7)));
+        Message batch = new Message().setReqType("mget")
+                .setItems(Collections.singletonList(Message.request("get", "a"))).setRequestId(8);
+        assertNull(RequestPipeline.orderKey(batch));
+    }
+
+    private static Runnable fail(String task) {
+        return () -> { throw new AssertionError(task + " was rejected"); };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.kvstore.coordinator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.kvstore.common.HashRing;
+import com.kvstore.common.Message;
+import com.kvstore.common.MessageCodec;
+import com.kvstore.common.Metrics;
+import com.kvstore.common.ServerNode;
+import com.kvstore.slave.DataStore;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reads under the QUORUM and PRIMARY write policies, against in-process
+ * slaves: a replica that missed an acknowledged write must not win a read,
+ * and its key_error must not be cached as a miss. Batches too large for one
+ * frame are split on the way to the slaves and cut short on the way back.
+ */
+class RequestProcessorTest {
+    private static final int REPLICAS = 3;
+
+    private HashRing ring;
+    private LocalSlaves slaves;
+    private KeyCache cache;
+
+    /**
+     * Slave pool that hands requests straight to in-process slaves; a server
+     * marked down fails its calls like an unreachable one
+     */
+    private static final class LocalSlaves extends SlaveConnectionPool {
+        final Map<String, com.kvstore.slave.RequestProcessor> servers = new ConcurrentHashMap<>();
+        final Set<String> down = ConcurrentHashMap.newKeySet();
+        volatile int largestRequest;
+        volatile int largestReply;
+
+        LocalSlaves() {
+            super(new Metrics("test"));
+        }
+
+        @Override
+        public CompletableFuture<Message> callAsync(ServerNode server, Message request) {
+            if (down.contains(server.getAddress())) {
+                return CompletableFuture.failedFuture(new IOException(server.getAddress() + " is down"));
+            }
+            Message reply = servers.get(server.getAddress()).process(request);
+            largestRequest = Math.max(largestRequest, MessageCodec.bodyLength(request));
+            largestReply = Math.max(largestReply, MessageCodec.bodyLength(reply));
+            return CompletableFuture.completedFuture(reply);
+        }
+    }
+
+    @BeforeEach
+    void startSlaves() {
+        ring = new HashRing();
+        slaves = new LocalSlaves();
+        for (int i = 1; i <= REPLICAS; i++) {
+            String address = "10.0.0." + i + ":9000";
+            ring.addServer(address, 1);
+            slaves.servers.put(address, new com.kvstore.slave.RequestProcessor(new DataStore(), new Metrics("slave")));
+        }
+    }
+
+    @Test
+    void quorumReadsReturnTheNewestReplica() {
+        RequestProcessor processor = processor(ReplicaWriter.Policy.QUORUM);
+        for (String key : new String[] {"single", "batched"}) {
+            assertEquals("put_success", processor.process(Message.request("put", key, "old")).getMessage());
+            // The primary misses the update, which a majority still acknowledges
+            slaves.down.add(replicas(key).get(0).getAddress());
+            assertEquals("update_success", processor.process(Message.request("update", key, "new")).getMessage());
+            slaves.down.clear();
+        }
+
+        assertEquals("new", processor.process(Message.request("get", "single")).getMessage());
+        Message batch = processor.process(new Message().setReqType("mget")
+                .setItems(Collections.singletonList(Message.request("get", "batched"))));
+        assertEquals("new", batch.getItems().get(0).getMessage());
+
+        // And the newest value is what got cached
+        slaves.down.addAll(slaves.servers.keySet());
+        assertEquals("new", processor.process(Message.request("get", "single")).getMessage());
+    }
+
+    @Test
+    void missAfterFailoverIsNotCached() {
+        RequestProcessor processor = processor(ReplicaWriter.Policy.PRIMARY);
+        for (String key : new String[] {"single", "batched"}) {
+            // Only the primary has to acknowledge
+            List<ServerNode> replicas = replicas(key);
+            slaves.down.add(replicas.get(1).getAddress());
+            slaves.down.add(replicas.get(2).getAddress());
+            assertEquals("put_success", processor.process(Message.request("put", key, "v")).getMessage());
+            slaves.down.clear();
+        }
+
+        for (String key : new String[] {"single", "batched"}) {
+            slaves.down.add(replicas(key).get(0).getAddress());
+            Message get = "single".equals(key) ? processor.process(Message.request("get", key))
+                    : processor.process(new Message().setReqType("mget")
+                            .setItems(Collections.singletonList(Message.request("get", key)))).getItems().get(0);
+            assertEquals("key_error", get.getMessage(), "the replica that answered missed the write");
+            assertFalse(cache.isMissing(key));
+            slaves.down.clear();
+            assertEquals("v", processor.process(Message.request("get", key)).getMessage(), key);
+        }
+    }
+
+    @Test
+    void missFromTheWholeQuorumIsCached() {
+        RequestProcessor processor = processor(ReplicaWriter.Policy.QUORUM);
+        slaves.down.add(replicas("absent").get(0).getAddress());
+        assertEquals("key_error", processor.process(Message.request("get", "absent")).getMessage());
+        assertTrue(cache.isMissing("absent"), "two of three replicas overlap every write majority");
+    }
+
+    @Test
+    void batchesLargerThanAFrameAreSplitAndRepliesCapped() {
+        RequestProcessor processor = processor(ReplicaWriter.Policy.ALL);
+        String value = "x".repeat(MessageCodec.MAX_BATCH_BYTES * 2 / 5);
+        List<Message> puts = new ArrayList<>();
+        List<Message> gets = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            puts.add(Message.request("put", "key" + i, value));
+            gets.add(Message.request("get", "key" + i));
+        }
+        for (Message item : processor.process(new Message().setReqType("mput").setItems(puts)).getItems()) {
+            assertEquals("put_success", item.getMessage(), item.getKey());
+        }
+
+        Message reply = processor.process(new Message().setReqType("mget").setItems(gets));
+        // Within the batch budget, give or take the small batch_overflow items
+        int limit = MessageCodec.MAX_BATCH_BYTES + 1024;
+        assertTrue(slaves.largestRequest <= limit, "sub-batch of " + slaves.largestRequest + " bytes");
+        assertTrue(slaves.largestReply <= limit, "slave reply of " + slaves.largestReply + " bytes");
+        assertTrue(MessageCodec.bodyLength(reply) <= limit);
+        int answered = 0;
+        List<Message> again = new ArrayList<>();
+        for (int i = 0; i < gets.size(); i++) {
+            Message item = reply.getItems().get(i);
+            assertEquals("key" + i, item.getKey());
+            if ("batch_overflow".equals(item.getMessage())) {
+                again.add(gets.get(i));
+            } else {
+                assertEquals(value, item.getMessage());
+                answered++;
+            }
+        }
+        assertTrue(answered > 0 && !again.isEmpty(), answered + " answered");
+        // The keys left out are there when asked for again
+        Message rest = processor.process(new Message().setReqType("mget").setItems(again));
+        assertEquals(value, rest.getItems().get(0).getMessage());
+    }
+
+    private RequestProcessor processor(ReplicaWriter.Policy policy) {
+        SlaveFilters filters = new SlaveFilters(ring, slaves, REPLICAS);
+        cache = new KeyCache(1000, 0);
+        return new RequestProcessor(ring, cache, new RequestCoalescer<>(), slaves,
+                                    new ReplicaWriter(slaves, filters, policy), filters,
+                                    new RingMap(ring, slaves, REPLICAS), REPLICAS, new Metrics("coordinator"));
+    }
+
+    private List<ServerNode> replicas(String key) {
+        return ring.getPreferenceList(ring.hash(key), REPLICAS);
+    }
+}
@@ -0,0 +1,171 @@
+package com.kvstore.slave;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Versioned writes: a put or update older than the stored value is
+ * acknowledged but must not replace it, in memory or after log replay, and
+ * a put older than a delete must not bring the key back
+ */
+class DataStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void putSkipsOlderVersion() {
+        DataStore store = new DataStore();
+        store.put("k", "new", 20, "own");
+        store.put("k", "old", 10, "own");
+        assertEquals("new", store.get("k", "own"));
+        assertEquals(20, store.getVersioned("k", "own").getVersion());
+
+        store.put("k", "newer", 30, "own");
+        assertEquals("newer", store.get("k", "own"));
+    }
+
+    @Test
+    void putWithSameVersionIsApplied() {
+        DataStore store = new DataStore();
+        store.put("k", "first", 20, "own");
+        store.put("k", "retry", 20, "own");
+        assertEquals("retry", store.get("k", "own"));
+    }
+
+    @Test
+    void unversionedValueIsReplacedByVersionedWrite() {
+        DataStore store = new DataStore();
+        store.put("k", "legacy", "own");
+        store.put("k", "v", 5, "own");
+        assertEquals("v", store.get("k", "own"));
+
+        store.put("k", "legacy", "own");
+        assertEquals("v", store.get("k", "own"));
+    }
+
+    @Test
+    void updateSkipsOlderVersionButReportsKeyPresent() {
+        DataStore store = new DataStore();
+        assertFalse(store.update("k", "v", 10, "own"));
+        store.put("k", "new", 20, "own");
+        assertTrue(store.update("k", "old", 10, "own"));
+        assertEquals("new", store.get("k", "own"));
+        assertTrue(store.update("k", "newer", 30, "own"));
+        assertEquals("newer", store.get("k", "own"));
+    }
+
+    @Test
+    void versionsAreCheckedPerTable() {
+        DataStore store = new DataStore();
+        store.put("k", "own", 20, "own");
+        store.put("k", "prev", 10, "prev");
+        assertEquals("own", store.get("k", "own"));
+        assertEquals("prev", store.get("k", "prev"));
+    }
+
+    @Test
+    void batchPutSkipsOnlyOlderKeys() {
+        DataStore store = new DataStore();
+        store.put("a", "a-new", 20, "own");
+        store.putAll(Arrays.asList("a", "b"), Arrays.asList("a-old", "b-old"), Arrays.asList("own", "own"), 10);
+        assertEquals("a-new", store.get("a", "own"));
+        assertEquals("b-old", store.get("b", "own"));
+    }
+
+    @Test
+    void skippedWriteIsNotReplayed() throws IOException {
+        DataStore store = open();
+        store.put("k", "new", 20, "own");
+        store.put("k", "old", 10, "own");
+        store.update("k", "older", 5, "own");
+        store.close();
+
+        DataStore reopened = open();
+        assertEquals("new", reopened.get("k", "own"));
+        assertEquals(20, reopened.getVersioned("k", "own").getVersion());
+        reopened.close();
+    }
+
+    @Test
+    void olderPutAfterDeleteIsSkipped() {
+        DataStore store = new DataStore();
+        store.put("k", "v", 10, "own");
+        assertTrue(store.delete("k", 20, "own"));
+        store.put("k", "late", 15, "own");
+        assertNull(store.get("k", "own"));
+
+        store.put("k", "newer", 30, "own");
+        assertEquals("newer", store.get("k", "own"));
+    }
+
+    @Test
+    void deleteOfAbsentKeyStillBlocksOlderPut() {
+        DataStore store = new DataStore();
+        assertFalse(store.delete("k", 20, "own"));
+        store.put("k", "overtaken", 10, "own");
+        assertNull(store.get("k", "own"));
+    }
+
+    @Test
+    void olderDeleteIsSkippedButReportsKeyPresent() {
+        DataStore store = new DataStore();
+        store.put("k", "new", 20, "own");
+        assertTrue(store.delete("k", 10, "own"));
+        assertEquals("new", store.get("k", "own"));
+    }
+
+    @Test
+    void unversionedDeleteAlwaysApplies() {
+        DataStore store = new DataStore();
+        store.put("k", "v", 20, "own");
+        assertTrue(store.delete("k", "own"));
+        assertNull(store.get("k", "own"));
+        assertEquals(0, store.getTombstoneCount());
+    }
+
+    @Test
+    void batchDeleteLeavesTombstones() {
+        DataStore store = new DataStore();
+        store.put("a", "a", 10, "own");
+        boolean[] existed = store.deleteAll(Arrays.asList("a", "b"), Arrays.asList("own", "own"), 20);
+        assertArrayEquals(new boolean[] {true, false}, existed);
+        store.putAll(Arrays.asList("a", "b"), Arrays.asList("a-late", "b-late"), Arrays.asList("own", "own"), 15);
+        assertNull(store.get("a", "own"));
+        assertNull(store.get("b", "own"));
+    }
+
+    @Test
+    void tombstoneSurvivesReplay() throws IOException {
+        DataStore store = open();
+        store.put("k", "v", 10, "own");
+        store.delete("k", 20, "own");
+        store.close();
+
+        DataStore reopened = open();
+        assertEquals(1, reopened.getTombstoneCount());
+        reopened.put("k", "late", 15, "own");
+        assertNull(reopened.get("k", "own"));
+        reopened.close();
+    }
+
+    @Test
+    void snapshotDropsCoveredTombstones() throws IOException {
+        DataStore store = open();
+        store.put("k", "v", 10, "own");
+        store.delete("k", 20, "own");
+        assertEquals(1, store.getTombstoneCount());
+        assertTrue(store.snapshot(1) > 0);
+        assertEquals(0, store.getTombstoneCount());
+        store.close();
+    }
+
+    private DataStore open() throws IOException {
+        return TestStores.open(new MemoryEngine(null), dir);
+    }
+}
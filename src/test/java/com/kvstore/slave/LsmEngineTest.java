@@ -0,0 +1,188 @@
+package com.kvstore.slave;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Deletes must stay deleted through flushes and compaction, and the MANIFEST
+ * must bring back the same tables, checkpoint LSN and key counts on reopen.
+ * size() comes from those counts and must stay exact across flushes,
+ * overwrites, deletes, restarts and log replay. Tables replaced by compaction
+ * stay readable until the last scan that pinned them ends.
+ * Each checkpoint() flushes the memtable into a new level-0 table; the fourth
+ * one also runs the level-0 compaction before it returns.
+ */
+class LsmEngineTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tombstoneSurvivesFlushAndCompaction() throws IOException {
+        LsmEngine engine = open();
+        engine.put(0, "gone", "v");
+        engine.put(0, "kept", "v");
+        engine.checkpoint(1);
+
+        assertTrue(engine.remove(0, "gone"));
+        engine.checkpoint(2);
+        assertNull(engine.get(0, "gone"), "tombstone in a newer table hides the older value");
+
+        engine.put(0, "a", "1");
+        engine.checkpoint(3);
+        engine.put(0, "b", "2");
+        engine.checkpoint(4);
+        assertEquals(0, countTables("0"), "level 0 was compacted");
+        assertTrue(countTables("1") > 0);
+        assertNull(engine.get(0, "gone"));
+        assertEquals("v", engine.get(0, "kept"));
+        assertFalse(engine.remove(0, "gone"));
+        engine.close();
+
+        LsmEngine reopened = open();
+        assertNull(reopened.get(0, "gone"));
+        assertEquals(3, reopened.size(0));
+        reopened.close();
+    }
+
+    @Test
+    void compactedTablesOutliveAScanThatStillReadsThem() throws IOException {
+        LsmEngine engine = open();
+        for (int lsn = 1; lsn <= 3; lsn++) {
+            for (int i = 0; i < 500; i++) {
+                engine.put(0, String.format("key%04d", i * 3 + lsn), "v");
+            }
+            engine.checkpoint(lsn);
+        }
+        long[] filesDuringScan = new long[1];
+        int[] visited = new int[1];
+        engine.forEach(0, (key, value) -> {
+            if (visited[0]++ == 0) {
+                try {
+                    engine.put(0, "zzz", "v");
+                    engine.checkpoint(4); // Compacts the three tables this scan is reading
+                    assertEquals(0, countTables("0"));
+                    filesDuringScan[0] = countFiles();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        assertTrue(visited[0] >= 1500, "scan read the replaced tables to the end");
+        assertTrue(filesDuringScan[0] > countTables("1"), "replaced tables were kept while pinned");
+        assertEquals(countTables("1"), countFiles(), "and deleted once the scan finished");
+        assertEquals(1501, engine.size(0));
+        engine.close();
+    }
+
+    @Test
+    void manifestReloadsTablesAndCheckpoint() throws IOException {
+        LsmEngine engine = open();
+        for (int i = 0; i < 100; i++) {
+            engine.put(0, "key" + i, "value" + i);
+        }
+        engine.put(2, "replica", "r");
+        engine.checkpoint(42);
+        engine.close();
+
+        LsmEngine reopened = new LsmEngine(dir);
+        assertEquals(42, reopened.open());
+        assertEquals("value7", reopened.get(0, "key7"));
+        assertEquals("r", reopened.get(2, "replica"));
+        assertTrue(reopened.ranks().contains(2));
+        assertEquals(100, reopened.size(0));
+        assertEquals(1, reopened.size(2));
+        reopened.close();
+    }
+
+    @Test
+    void sizeCountsMemtablesAndTablesWithoutDoubleCounting() throws IOException {
+        LsmEngine engine = open();
+        engine.put(0, "a", "1");
+        engine.put(0, "b", "1");
+        engine.checkpoint(1);
+        engine.put(0, "a", "2"); // Overwrite of a flushed key
+        engine.put(0, "c", "1");
+        engine.remove(0, "b");
+        assertEquals(2, engine.size(0));
+        engine.checkpoint(2);
+        assertEquals(2, engine.size(0));
+        engine.remove(0, "missing");
+        engine.put(0, "b", "again");
+        assertEquals(3, engine.size(0));
+        engine.close();
+    }
+
+    @Test
+    void manifestWithoutCountsIsCountedOnOpen() throws IOException {
+        LsmEngine engine = open();
+        engine.put(0, "a", "1");
+        engine.put(0, "b", "1");
+        engine.put(1, "c", "1");
+        engine.checkpoint(5);
+        engine.close();
+
+        // Manifest as written before key counts were recorded
+        Path manifest = dir.resolve("MANIFEST");
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.startsWith("count "))
+                .collect(Collectors.toList());
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+
+        LsmEngine reopened = open();
+        assertEquals(2, reopened.size(0));
+        assertEquals(1, reopened.size(1));
+        reopened.close();
+    }
+
+    @Test
+    void walReplayOverTablesKeepsCountsExact() throws IOException {
+        DataStore store = openStore();
+        store.put("a", "1", "own");
+        store.put("b", "1", "own");
+        assertTrue(store.snapshot(1) > 0);
+        store.put("a", "2", "own");
+        store.delete("b", "own");
+        store.put("c", "1", "own");
+        store.close();
+
+        DataStore reopened = openStore();
+        assertEquals("2", reopened.get("a", "own"));
+        assertNull(reopened.get("b", "own"));
+        assertEquals(2, reopened.getOwnTableSize());
+        reopened.close();
+    }
+
+    private LsmEngine open() throws IOException {
+        LsmEngine engine = new LsmEngine(dir);
+        engine.open();
+        return engine;
+    }
+
+    private DataStore openStore() throws IOException {
+        return TestStores.open(new LsmEngine(dir.resolve("lsm")), dir.resolve("wal"));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(".sst")).count();
+        }
+    }
+
+    // Live tables of a level according to the manifest
+    private long countTables(String level) throws IOException {
+        return Files.readAllLines(dir.resolve("MANIFEST"), StandardCharsets.UTF_8).stream()
+                .filter(line -> line.startsWith("table " + level + " "))
+                .count();
+    }
+}
@@ -0,0 +1,135 @@
+package com.kvstore.slave;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Snapshot files round trip, and a store that snapshotted and truncated its
+ * log restarts with every write, even when the newest snapshot is damaged
+ */
+class SnapshotFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsEveryTable() throws IOException {
+        Map<Integer, Map<String, String>> tables = new TreeMap<>();
+        tables.put(0, new HashMap<>());
+        tables.put(2, new HashMap<>());
+        tables.get(0).put("a", "1");
+        tables.get(0).put("unicode", "é中");
+        tables.get(2).put("b", "");
+        assertEquals(3, SnapshotFile.write(dir, 7, tables));
+
+        Map<Integer, Map<String, String>> loaded = new TreeMap<>();
+        long lsn = SnapshotFile.loadLatest(dir,
+                (rank, key, value) -> loaded.computeIfAbsent(rank, r -> new HashMap<>()).put(key, value));
+        assertEquals(7, lsn);
+        assertEquals(tables, loaded);
+    }
+
+    @Test
+    void keepsTheLastTwoAndSkipsADamagedOne() throws IOException {
+        for (long lsn = 1; lsn <= 3; lsn++) {
+            Map<Integer, Map<String, String>> tables = new TreeMap<>();
+            tables.put(0, new HashMap<>());
+            tables.get(0).put("k", "v" + lsn);
+            SnapshotFile.write(dir, lsn, tables);
+        }
+        List<Path> files = snapshots(dir);
+        assertEquals(2, files.size());
+
+        flipLastByte(files.get(1));
+        Map<String, String> loaded = new HashMap<>();
+        assertEquals(2, SnapshotFile.loadLatest(dir, (rank, key, value) -> loaded.put(key, value)));
+        assertEquals("v2", loaded.get("k"));
+    }
+
+    @Test
+    void restartsFromSnapshotAndTruncatedLog() throws IOException {
+        DataStore store = open();
+        store.put("a", "1", 1, "own");
+        store.put("b", "1", 2, "prev");
+        assertTrue(store.snapshot(1) > 0);
+        store.put("c", "1", 3, "own");
+        assertTrue(store.snapshot(1) > 0);
+        int segmentsAfterTruncate = segments().size();
+        store.put("a", "2", 4, "own");
+        store.delete("c", 5, "own");
+        store.close();
+        assertEquals(2, segmentsAfterTruncate, "log before the previous snapshot was deleted");
+
+        DataStore reopened = open();
+        assertEquals("2", reopened.get("a", "own"));
+        assertEquals("1", reopened.get("b", "prev"));
+        assertNull(reopened.get("c", "own"));
+        assertEquals(1, reopened.getOwnTableSize());
+        reopened.close();
+    }
+
+    @Test
+    void fallsBackToThePreviousSnapshotWhenTheNewestIsDamaged() throws IOException {
+        DataStore store = open();
+        store.put("a", "1", "own");
+        assertTrue(store.snapshot(1) > 0);
+        store.put("b", "1", "own");
+        assertTrue(store.snapshot(1) > 0);
+        store.put("c", "1", "own");
+        assertTrue(store.snapshot(1) > 0);
+        store.put("d", "1", "own");
+        store.close();
+
+        List<Path> files = snapshots(dir.resolve("snapshots"));
+        assertEquals(2, files.size());
+        flipLastByte(files.get(1));
+
+        DataStore reopened = open();
+        for (String key : new String[] {"a", "b", "c", "d"}) {
+            assertEquals("1", reopened.get(key, "own"), key);
+        }
+        reopened.close();
+    }
+
+    private DataStore open() throws IOException {
+        return TestStores.open(new MemoryEngine(dir.resolve("snapshots")), dir.resolve("wal"));
+    }
+
+    private List<Path> segments() throws IOException {
+        return list(dir.resolve("wal"), "wal-*.log");
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        return list(directory, "snapshot-*.snap");
+    }
+
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static void flipLastByte(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.kvstore.slave;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Opening a DataStore the way SlaveServer does at startup, for the storage tests
+ */
+final class TestStores {
+
+    private TestStores() {
+    }
+
+    /**
+     * Store over the given engine with a write-ahead log (fsync ALWAYS) in
+     * walDir, recovered from whatever an earlier store left there
+     */
+    static DataStore open(StorageEngine engine, Path walDir) throws IOException {
+        DataStore store = new DataStore(engine, new WriteAheadLog(walDir, WriteAheadLog.FsyncPolicy.ALWAYS));
+        store.recover();
+        return store;
+    }
+}
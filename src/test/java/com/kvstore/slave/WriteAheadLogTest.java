@@ -0,0 +1,179 @@
+package com.kvstore.slave;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recovery replays every intact record in LSN order; a torn or corrupt record
+ * at the end of the last segment is cut off, damage in an older segment
+ * stops recovery
+ */
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        WriteAheadLog wal = open(new ArrayList<>());
+        wal.append(WriteAheadLog.PUT, 0, "a", "1");
+        wal.append(WriteAheadLog.PUT, 1, "b", "2");
+        wal.append(WriteAheadLog.DELETE, 0, "a", null);
+        wal.commit(wal.append(WriteAheadLog.DELETE, 2, "c", "v"));
+        wal.close();
+
+        List<WriteAheadLog.Entry> entries = new ArrayList<>();
+        WriteAheadLog reopened = open(entries);
+        assertEquals(4, entries.size());
+        assertEntry(entries.get(0), 1, WriteAheadLog.PUT, 0, "a", "1");
+        assertEntry(entries.get(1), 2, WriteAheadLog.PUT, 1, "b", "2");
+        assertEntry(entries.get(2), 3, WriteAheadLog.DELETE, 0, "a", null);
+        assertEntry(entries.get(3), 4, WriteAheadLog.DELETE, 2, "c", "v");
+        assertEquals(4, reopened.lastLsn());
+        reopened.close();
+    }
+
+    @Test
+    void skipsRecordsCoveredBySnapshot() throws IOException {
+        WriteAheadLog wal = open(new ArrayList<>());
+        for (int i = 0; i < 5; i++) {
+            wal.append(WriteAheadLog.PUT, 0, "k" + i, "v");
+        }
+        wal.commit(wal.lastLsn());
+        wal.close();
+
+        List<WriteAheadLog.Entry> entries = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS);
+        assertEquals(2, reopened.recover(3, entries::add));
+        assertEquals(4, entries.get(0).lsn);
+        assertEquals(5, reopened.lastLsn());
+        reopened.close();
+    }
+
+    @Test
+    void tornTailIsCutOffAndLogContinues() throws IOException {
+        WriteAheadLog wal = open(new ArrayList<>());
+        wal.append(WriteAheadLog.PUT, 0, "a", "1");
+        wal.commit(wal.append(WriteAheadLog.PUT, 0, "b", "2"));
+        wal.close();
+        Path segment = onlySegment();
+        long intact = Files.size(segment);
+        appendGarbage(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}); // Header of a record that never finished
+
+        List<WriteAheadLog.Entry> entries = new ArrayList<>();
+        WriteAheadLog reopened = open(entries);
+        assertEquals(2, entries.size());
+        assertEquals(intact, Files.size(segment), "torn bytes were truncated");
+        reopened.commit(reopened.append(WriteAheadLog.PUT, 0, "c", "3"));
+        reopened.close();
+
+        entries.clear();
+        WriteAheadLog again = open(entries);
+        assertEquals(3, entries.size());
+        assertEntry(entries.get(2), 3, WriteAheadLog.PUT, 0, "c", "3");
+        again.close();
+    }
+
+    @Test
+    void corruptLastRecordIsDropped() throws IOException {
+        WriteAheadLog wal = open(new ArrayList<>());
+        wal.append(WriteAheadLog.PUT, 0, "a", "1");
+        wal.commit(wal.append(WriteAheadLog.PUT, 0, "b", "2"));
+        wal.close();
+        Path segment = onlySegment();
+        flipLastByte(segment);
+
+        List<WriteAheadLog.Entry> entries = new ArrayList<>();
+        WriteAheadLog reopened = open(entries);
+        assertEquals(1, entries.size());
+        assertEquals("a", entries.get(0).key);
+        assertEquals(1, reopened.lastLsn());
+        reopened.close();
+    }
+
+    @Test
+    void corruptOlderSegmentStopsRecovery() throws IOException {
+        WriteAheadLog wal = open(new ArrayList<>());
+        wal.commit(wal.append(WriteAheadLog.PUT, 0, "a", "1"));
+        wal.rollover();
+        wal.commit(wal.append(WriteAheadLog.PUT, 0, "b", "2"));
+        wal.close();
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        flipLastByte(segments.get(0));
+
+        WriteAheadLog reopened = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS);
+        assertThrows(IOException.class, () -> reopened.recover(0, entry -> { }));
+    }
+
+    @Test
+    void truncateBeforeDropsCoveredSegments() throws IOException {
+        WriteAheadLog wal = open(new ArrayList<>());
+        wal.commit(wal.append(WriteAheadLog.PUT, 0, "a", "1"));
+        long covered = wal.rollover();
+        wal.commit(wal.append(WriteAheadLog.PUT, 0, "b", "2"));
+        assertEquals(1, wal.truncateBefore(covered));
+        wal.close();
+
+        List<WriteAheadLog.Entry> entries = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS);
+        reopened.recover(covered, entries::add);
+        assertEquals(1, entries.size());
+        assertEquals("b", entries.get(0).key);
+        reopened.close();
+    }
+
+    private WriteAheadLog open(List<WriteAheadLog.Entry> replayed) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS);
+        wal.recover(0, replayed::add);
+        return wal;
+    }
+
+    private static void assertEntry(WriteAheadLog.Entry entry, long lsn, byte op, int rank, String key, String value) {
+        assertEquals(lsn, entry.lsn);
+        assertEquals(op, entry.op);
+        assertEquals(rank, entry.rank);
+        assertEquals(key, entry.key);
+        assertEquals(value, entry.value);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "wal-*.log")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        return segments.get(0);
+    }
+
+    private static void appendGarbage(Path file, byte[] bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length());
+            raf.write(bytes);
+        }
+    }
+
+    private static void flipLastByte(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+    }
+}